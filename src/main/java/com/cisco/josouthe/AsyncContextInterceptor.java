@@ -0,0 +1,173 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.agent.api.AppdynamicsAgent;
+import com.appdynamics.agent.api.Transaction;
+import com.appdynamics.instrumentation.sdk.Rule;
+import com.appdynamics.instrumentation.sdk.SDKClassMatchType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Carries the active BT across thread pools, the submitting thread marks a handoff on the task object and the worker thread starts a
+segment on that same object, so nothing is looked up in a map of ours, the agent keeps the handoff with the task
+    ThreadPoolExecutor.execute(task) capture, beforeExecute(thread, task) restore and afterExecute(task, throwable) end segment,
+        this covers ExecutorService.submit (FutureTask), vert.x executeBlocking with ordered=false, and *Async stages given a pool
+    CompletableFuture$AsyncSupply and $AsyncRun, capture when supplyAsync/runAsync builds them, restore in their run(), whatever executor runs them
+off by default, since it instruments every ThreadPoolExecutor in the JVM, turn on with asyncContextPropagation=true
+    the rules are only installed when it is on at startup, so turning it on takes a JVM restart, turning it off at runtime stops
+        capturing but the executor methods stay instrumented until the next restart
+a worker thread that is already in a BT is left alone, so a task going through two of these hooks only gets one segment
+tasks whose class starts with a prefix in asyncContextExcludedTasks are not captured, the default excludes the vert.x TaskQueue runner,
+which is one Runnable shared by every ordered executeBlocking call on a context and would hand every task the first caller's BT
+ */
+public class AsyncContextInterceptor extends MyBaseInterceptor {
+    private static final String ENABLED_PROPERTY = "asyncContextPropagation";
+    private static final String EXCLUDED_TASKS_PROPERTY = "asyncContextExcludedTasks";
+    private static final String DEFAULT_EXCLUDED_TASKS = "io.vertx.core.impl.TaskQueue";
+
+    volatile boolean enabled = false;
+    volatile String[] excludedTaskPrefixes = new String[0];
+    LongAdder captured, restored;
+    private final ThreadLocal<Transaction> workerSegment = new ThreadLocal<>(); //opened in beforeExecute, ended in afterExecute
+
+    public AsyncContextInterceptor() {
+        super();
+        captured = pluginMetrics.getCounter("Async Context|Captured Tasks");
+        restored = pluginMetrics.getCounter("Async Context|Restored Tasks");
+        onConfigChange( getConfig() );
+    }
+
+    @Override
+    protected void onConfigChange( PluginConfig config ) {
+        super.onConfigChange(config);
+        List<String> prefixes = new ArrayList<>();
+        for( String prefix : config.getString(EXCLUDED_TASKS_PROPERTY, DEFAULT_EXCLUDED_TASKS).split(",") )
+            if( !prefix.trim().isEmpty() ) prefixes.add(prefix.trim());
+        excludedTaskPrefixes = prefixes.toArray(new String[0]);
+        enabled = config.getBoolean(ENABLED_PROPERTY, false);
+    }
+
+    @Override
+    protected Map<String,String> getListOfCustomProperties() {
+        Map<String,String> customProperties = super.getListOfCustomProperties();
+        customProperties.put(ENABLED_PROPERTY, "false");
+        customProperties.put(EXCLUDED_TASKS_PROPERTY, DEFAULT_EXCLUDED_TASKS);
+        return customProperties;
+    }
+
+    /*
+    ThreadPoolExecutor.execute(Runnable) on the submitting thread, and CompletableFuture$AsyncSupply/$AsyncRun.<init>, built on the submitting thread
+     */
+    private class Capture implements MethodDispatcher.Handler<Object> {
+        private final boolean taskIsParameter;
+
+        Capture( boolean taskIsParameter ) {
+            this.taskIsParameter = taskIsParameter;
+        }
+
+        @Override
+        public Object begin( Object objectIntercepted, String className, Object[] params ) {
+            if( enabled ) capture( taskIsParameter ? params[0] : objectIntercepted );
+            return null;
+        }
+    }
+
+    /*
+    ThreadPoolExecutor.beforeExecute(Thread, Runnable), worker thread, the segment stays open until afterExecute
+     */
+    private class BeforeExecute implements MethodDispatcher.Handler<Object> {
+        @Override
+        public Object begin( Object executor, String className, Object[] params ) {
+            if( !enabled ) return null;
+            Transaction transaction = restore(params[1]);
+            if( transaction != null ) workerSegment.set(transaction);
+            return null;
+        }
+    }
+
+    /*
+    ThreadPoolExecutor.afterExecute(Runnable, Throwable), worker thread, checked even when disabled so a segment opened before is ended
+     */
+    private class AfterExecute implements MethodDispatcher.Handler<Object> {
+        @Override
+        public void end( Object state, Object executor, String className, Object[] params, Throwable exception, Object returnVal ) {
+            Transaction transaction = workerSegment.get();
+            if( transaction == null ) return; //we didn't open a segment for this task
+            workerSegment.remove();
+            if( params[1] != null ) transaction.markAsError(String.format("Async task %s failed: %s", params[0].getClass().getName(), ((Throwable) params[1]).getMessage()));
+            transaction.endSegment();
+        }
+    }
+
+    /*
+    CompletableFuture$AsyncSupply/$AsyncRun.run(), worker thread
+     */
+    private class Run implements MethodDispatcher.Handler<Transaction> {
+        @Override
+        public Transaction begin( Object task, String className, Object[] params ) {
+            return enabled ? restore(task) : null;
+        }
+
+        @Override
+        public void end( Transaction transaction, Object task, String className, Object[] params, Throwable exception, Object returnVal ) {
+            if( transaction == null ) return;
+            if( exception != null ) transaction.markAsError(String.format("Async task %s failed: %s", className, exception.getMessage()));
+            transaction.endSegment();
+        }
+    }
+
+    private void capture( Object task ) {
+        if( task == null || isExcluded(task) ) return;
+        Transaction transaction = AppdynamicsAgent.getTransaction();
+        if( isFakeTransaction(transaction) ) return;
+        transaction.markHandoff(task);
+        captured.increment();
+    }
+
+    private Transaction restore( Object task ) {
+        if( task == null ) return null;
+        if( !isFakeTransaction(AppdynamicsAgent.getTransaction()) ) return null; //already in a BT on this thread
+        Transaction transaction = AppdynamicsAgent.startSegment(task);
+        if( transaction == null || isFakeTransaction(transaction) ) return null; //nothing was handed off on this task
+        restored.increment();
+        if( isDebugEnabled() ) debug("Restored BT %s on thread %s for task %s", transaction.getUniqueIdentifier(), Thread.currentThread().getName(), task.getClass().getName());
+        return transaction;
+    }
+
+    private boolean isExcluded( Object task ) {
+        String[] excludedTaskPrefixes = this.excludedTaskPrefixes;
+        if( excludedTaskPrefixes.length == 0 ) return false;
+        String taskClass = task.getClass().getName();
+        for( String prefix : excludedTaskPrefixes )
+            if( taskClass.startsWith(prefix) ) return true;
+        return false;
+    }
+
+    @Override
+    public List<Rule> initializeRules() {
+        MethodDispatcher methodDispatcher = new MethodDispatcher();
+        if( !PluginRuntime.getStartupConfig(getAgentPluginDirectory()).getBoolean(ENABLED_PROPERTY, false) )
+            return dispatch(methodDispatcher); //no rules, no task in the JVM pays for us being loaded
+
+        Capture captureParameter = new Capture(true);
+        BeforeExecute beforeExecute = new BeforeExecute();
+        AfterExecute afterExecute = new AfterExecute();
+        for( SDKClassMatchType classMatchType : new SDKClassMatchType[]{ SDKClassMatchType.MATCHES_CLASS, SDKClassMatchType.INHERITS_FROM_CLASS } ) {
+            methodDispatcher.bind("java.util.concurrent.ThreadPoolExecutor", classMatchType, "execute", captureParameter);
+            methodDispatcher.bind("java.util.concurrent.ThreadPoolExecutor", classMatchType, "beforeExecute", beforeExecute);
+            methodDispatcher.bind("java.util.concurrent.ThreadPoolExecutor", classMatchType, "afterExecute", afterExecute);
+        }
+
+        Capture captureSelf = new Capture(false);
+        Run run = new Run();
+        for( String asyncTask : new String[]{ "java.util.concurrent.CompletableFuture$AsyncSupply", "java.util.concurrent.CompletableFuture$AsyncRun" } ) {
+            methodDispatcher.bind(asyncTask, SDKClassMatchType.MATCHES_CLASS, "<init>", captureSelf);
+            methodDispatcher.bind(asyncTask, SDKClassMatchType.MATCHES_CLASS, "run", run);
+        }
+
+        return dispatch(methodDispatcher);
+    }
+}
@@ -0,0 +1,198 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.agent.api.AppdynamicsAgent;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Takes event and metric publishing off of the event loop threads, callers only pay for an enqueue on a bounded lock free queue
+and a single background thread does the actual AppdynamicsAgent publishing
+    metrics with the same name are coalesced into one value per interval, averaged, summed, or last value wins depending on aggregation type
+    events are limited to MAX_EVENTS_PER_INTERVAL, the rest are dropped
+    anything that doesn't fit in the queue is dropped, drops are counted and published as metrics themselves
+    metric names pass through the metric name CardinalityGuard, checked here on the publisher thread once per name per interval,
+        names past maxCustomMetricNames are folded into an Other per aggregation type under their parent, so a sum is never mixed
+        with an observation, e.g. Backends|host:port|Calls -> Backends|host:port|Other|SUM
+        the folded name counts against the guard too, a tenth of the limit is kept for them, once that is used up as well the
+        value goes to the one global Custom Metrics|NiSource Plugin|Other|<aggregation type>, the only names past the limit
+ */
+public class AsyncPublisher extends Thread {
+    private static final String THREAD_NAME = "AppDynamics NiSource Gateway Publisher Thread";
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final long DRAIN_INTERVAL_NS = 500L * 1000000L;
+    private static final long PUBLISH_INTERVAL_MS = 60000;
+    private static final int MAX_EVENTS_PER_INTERVAL = 60;
+    private static final int OTHER_RESERVE_FRACTION = 10; //of maxCustomMetricNames, kept for the folded Other names
+    private static AsyncPublisher instance = null;
+
+    private final BoundedMpscQueue<PublishRequest> queue = new BoundedMpscQueue<>(QUEUE_CAPACITY);
+    private final LongAdder droppedMetrics = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final Map<String, MetricAggregate> pendingMetrics = new HashMap<>(); //publisher thread only
+    private long nextPublishTime;
+    private int eventsThisInterval = 0;
+    private volatile CardinalityGuard metricNames = null; //set once the first interceptor has read its config
+
+    public synchronized static AsyncPublisher getInstance() {
+        if( instance == null ) {
+            instance = new AsyncPublisher();
+            instance.start();
+        }
+        return instance;
+    }
+
+    AsyncPublisher() { //package private for tests, which drain() it themselves instead of starting it
+        setDaemon(true);
+        setName(THREAD_NAME);
+        nextPublishTime = System.currentTimeMillis() + PUBLISH_INTERVAL_MS;
+    }
+
+    public void reportMetric( String metricName, long metricValue, String aggregationType, String timeRollupType, String clusterRollupType ) {
+        if( !queue.offer( new PublishRequest(metricName, metricValue, aggregationType, timeRollupType, clusterRollupType) ) )
+            droppedMetrics.increment();
+    }
+
+    public void setMetricNameGuard( CardinalityGuard metricNames ) {
+        this.metricNames = metricNames;
+    }
+
+    public void publishEvent( String eventSummary, String severity, String eventType, Map<String,String> details ) {
+        if( !queue.offer( new PublishRequest(eventSummary, severity, eventType, details) ) )
+            droppedEvents.increment();
+    }
+
+    @Override
+    public void run() {
+        while(true) {
+            try {
+                drain();
+                long now = System.currentTimeMillis();
+                if( now >= nextPublishTime ) {
+                    nextPublishTime = now + PUBLISH_INTERVAL_MS;
+                    publishMetrics();
+                    eventsThisInterval = 0;
+                }
+            } catch (Throwable t) {
+                //never let a bad publish kill this thread
+            }
+            LockSupport.parkNanos(DRAIN_INTERVAL_NS);
+        }
+    }
+
+    void drain() {
+        PublishRequest request;
+        while( (request = queue.poll()) != null ) {
+            if( request.isEvent ) {
+                if( eventsThisInterval >= MAX_EVENTS_PER_INTERVAL ) {
+                    droppedEvents.increment();
+                    continue;
+                }
+                eventsThisInterval++;
+                AppdynamicsAgent.getEventPublisher().publishEvent(request.name, request.severity, request.eventType, request.details);
+            } else {
+                MetricAggregate aggregate = pendingMetrics.get(request.name);
+                if( aggregate == null ) {
+                    String metricName = guardMetricName(request.name, request.aggregationType);
+                    aggregate = metricName == request.name ? null : pendingMetrics.get(metricName); //folded names share one aggregate per type
+                    if( aggregate == null ) {
+                        aggregate = new MetricAggregate(request.aggregationType, request.timeRollupType, request.clusterRollupType);
+                        pendingMetrics.put(metricName, aggregate);
+                    }
+                }
+                aggregate.add(request.value);
+            }
+        }
+    }
+
+    private String guardMetricName( String metricName, String aggregationType ) {
+        CardinalityGuard metricNames = this.metricNames;
+        if( metricNames == null ) return metricName;
+        String guarded = metricNames.guard(metricName, metricNames.getMaxNames() / OTHER_RESERVE_FRACTION);
+        if( guarded != CardinalityGuard.OTHER ) return guarded;
+        String otherName = CardinalityGuard.OTHER +"|"+ aggregationType;
+        int parent = metricName.lastIndexOf('|');
+        if( parent >= 0 ) {
+            String foldedName = metricName.substring(0, parent +1) + otherName;
+            if( metricNames.admit(foldedName, 0) ) return foldedName;
+        }
+        return PluginMetrics.METRIC_PREFIX + otherName;
+    }
+
+    void publishMetrics() {
+        addDropCount("Publisher|Dropped Metrics", droppedMetrics.sumThenReset());
+        addDropCount("Publisher|Dropped Events", droppedEvents.sumThenReset());
+        Iterator<Map.Entry<String, MetricAggregate>> iterator = pendingMetrics.entrySet().iterator();
+        while( iterator.hasNext() ) {
+            Map.Entry<String, MetricAggregate> entry = iterator.next();
+            MetricAggregate aggregate = entry.getValue();
+            iterator.remove();
+            AppdynamicsAgent.getMetricPublisher().reportMetric(entry.getKey(), aggregate.value(), aggregate.aggregationType, aggregate.timeRollupType, aggregate.clusterRollupType);
+        }
+    }
+
+    private void addDropCount( String name, long count ) {
+        MetricAggregate aggregate = new MetricAggregate("SUM", "SUM", "COLLECTIVE");
+        aggregate.add(count);
+        pendingMetrics.put(PluginMetrics.METRIC_PREFIX + name, aggregate);
+    }
+
+    private static class MetricAggregate {
+        final String aggregationType, timeRollupType, clusterRollupType;
+        long sum = 0, count = 0, last = 0;
+
+        MetricAggregate( String aggregationType, String timeRollupType, String clusterRollupType ) {
+            this.aggregationType = aggregationType;
+            this.timeRollupType = timeRollupType;
+            this.clusterRollupType = clusterRollupType;
+        }
+
+        void add( long value ) {
+            sum += value;
+            count++;
+            last = value;
+        }
+
+        long value() {
+            if( "SUM".equals(aggregationType) ) return sum;
+            if( "AVERAGE".equals(aggregationType) || "ADVANCED_AVERAGE".equals(aggregationType) ) return count == 0 ? 0 : sum / count;
+            return last; //OBSERVATION and OBSERVATION_FOREVERINCREASING
+        }
+    }
+
+    private static class PublishRequest {
+        final boolean isEvent;
+        final String name;
+        final long value;
+        final String aggregationType, timeRollupType, clusterRollupType;
+        final String severity, eventType;
+        final Map<String,String> details;
+
+        PublishRequest( String metricName, long value, String aggregationType, String timeRollupType, String clusterRollupType ) {
+            this.isEvent = false;
+            this.name = metricName;
+            this.value = value;
+            this.aggregationType = aggregationType;
+            this.timeRollupType = timeRollupType;
+            this.clusterRollupType = clusterRollupType;
+            this.severity = null;
+            this.eventType = null;
+            this.details = null;
+        }
+
+        PublishRequest( String eventSummary, String severity, String eventType, Map<String,String> details ) {
+            this.isEvent = true;
+            this.name = eventSummary;
+            this.value = 0;
+            this.aggregationType = null;
+            this.timeRollupType = null;
+            this.clusterRollupType = null;
+            this.severity = severity;
+            this.eventType = eventType;
+            this.details = details;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.cisco.josouthe;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/*
+Exit call identifying properties (host, port) built once per backend and shared by every exit call to it, the gateway only talks to
+a handful of backends so this replaces a HashMap per executeAsync with one map lookup keyed by the URL's own protocol and authority strings
+    backendAliases=orders-[a-z0-9-]+\.svc\.cluster\.local=orders,billing-\d+=billing
+        comma separated regex=alias pairs matched against the whole host, first match wins, so per pod hostnames become one backend
+the maps handed out are unmodifiable, a config change drops the cache and the next call per backend rebuilds it
+each cached descriptor also carries the BackendLatencyStats.Backend it resolves to, filled in by the first exit call, so later
+    exit calls to that backend find their histograms with a field read, descriptors built past the cap are dropped after the call
+ */
+public class BackendDescriptorCache {
+    public static final String BACKEND_ALIASES_PROPERTY = "backendAliases";
+    private static final int MAX_BACKENDS = 1000; //past this, descriptors are built per call instead of cached
+
+    private volatile Aliases aliases = new Aliases("");
+    private volatile ConcurrentHashMap<String, ConcurrentHashMap<String, Descriptor>> descriptorsByProtocol = new ConcurrentHashMap<>();
+
+    public void configure( PluginConfig config ) {
+        String value = config.getString(BACKEND_ALIASES_PROPERTY, "");
+        if( value.equals(aliases.source) ) return;
+        aliases = new Aliases(value);
+        descriptorsByProtocol = new ConcurrentHashMap<>();
+    }
+
+    public Descriptor getDescriptor( URL url ) {
+        ConcurrentHashMap<String, ConcurrentHashMap<String, Descriptor>> descriptorsByProtocol = this.descriptorsByProtocol;
+        ConcurrentHashMap<String, Descriptor> descriptors = descriptorsByProtocol.get(url.getProtocol());
+        if( descriptors == null ) descriptors = descriptorsByProtocol.computeIfAbsent(url.getProtocol(), protocol -> new ConcurrentHashMap<>());
+        String authority = url.getAuthority();
+        Descriptor descriptor = descriptors.get(authority);
+        if( descriptor != null ) return descriptor;
+        descriptor = buildDescriptor(url);
+        if( descriptors.size() < MAX_BACKENDS ) {
+            Descriptor existing = descriptors.putIfAbsent(authority, descriptor);
+            if( existing != null ) return existing;
+        }
+        return descriptor;
+    }
+
+    public int size() {
+        int size = 0;
+        for( ConcurrentHashMap<String, Descriptor> descriptors : descriptorsByProtocol.values() ) size += descriptors.size();
+        return size;
+    }
+
+    private Descriptor buildDescriptor( URL url ) {
+        Map<String,String> descriptionMap = new HashMap<>();
+        descriptionMap.put("host", aliases.aliasFor(url.getHost()));
+        descriptionMap.put("port", String.valueOf(url.getPort()));
+        return new Descriptor(Collections.unmodifiableMap(descriptionMap));
+    }
+
+    /*
+    the identifying properties handed to startHttpExitCall, and the latency stats for them once an exit call has looked them up
+     */
+    public static class Descriptor {
+        public final Map<String,String> properties;
+        BackendLatencyStats.Backend backend; //set by BackendLatencyStats, a racy write of the same Backend is harmless, its fields are final
+
+        Descriptor( Map<String,String> properties ) {
+            this.properties = properties;
+        }
+    }
+
+    /*
+    parsed once per config value, never modified after construction
+     */
+    private static class Aliases {
+        final String source;
+        final Pattern[] patterns;
+        final String[] names;
+
+        Aliases( String source ) {
+            this.source = source;
+            List<Pattern> patterns = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for( String entry : source.split(",") ) {
+                int equals = entry.lastIndexOf('=');
+                if( equals <= 0 ) continue;
+                try {
+                    patterns.add(Pattern.compile(entry.substring(0, equals).trim()));
+                    names.add(entry.substring(equals +1).trim());
+                } catch (PatternSyntaxException ignored) {
+                    //skip a bad regex rather than lose every alias
+                }
+            }
+            this.patterns = patterns.toArray(new Pattern[0]);
+            this.names = names.toArray(new String[0]);
+        }
+
+        String aliasFor( String host ) {
+            for( int i=0; i< patterns.length; i++ )
+                if( patterns[i].matcher(host).matches() ) return names[i];
+            return host;
+        }
+    }
+}
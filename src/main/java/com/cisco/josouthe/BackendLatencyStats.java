@@ -0,0 +1,82 @@
+package com.cisco.josouthe;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Latency of executeAsync to ApiCallback completion per backend and per status class, kept in fixed size lock free histograms
+so memory per backend never grows with traffic, the number of backends is capped by a CardinalityGuard, and published once a minute
+    Custom Metrics|NiSource Plugin|Backends|<host:port>|<2xx>|Latency 50th Percentile (ms), 95th, 99th, Calls
+status class "No Response" is an ApiException without an http response (code 0), or a code we couldn't read
+descriptors come from BackendDescriptorCache, one shared instance per backend, the Backend is kept on the descriptor so the host:port
+name is only built and looked up the first time we see a descriptor, or on every call for descriptors the cache didn't keep
+ */
+public class BackendLatencyStats {
+    private static final String[] STATUS_CLASSES = { "No Response", "1xx", "2xx", "3xx", "4xx", "5xx" };
+    private static final long FLUSH_INTERVAL_MS = 60000;
+    private static final int MAX_BACKENDS = 100;
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    private final ConcurrentHashMap<String, Backend> backends = new ConcurrentHashMap<>();
+    private final CardinalityGuard backendNames;
+    private final AsyncPublisher publisher = AsyncPublisher.getInstance();
+    private final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot(); //only used on the Scheduler thread
+
+    public BackendLatencyStats( PluginRuntime pluginRuntime ) {
+        this.backendNames = CardinalityGuard.getInstance("Exit Call Backends", MAX_BACKENDS, pluginRuntime.getPluginMetrics());
+        pluginRuntime.getScheduler().addPeriodicTask(this::flush, FLUSH_INTERVAL_MS);
+    }
+
+    /*
+    resolved once per exit call at start, so the completion only has to index into the backend's histograms
+     */
+    public Backend getBackend( BackendDescriptorCache.Descriptor descriptor ) {
+        Backend backend = descriptor.backend;
+        if( backend != null ) return backend;
+        Map<String,String> properties = descriptor.properties;
+        String name = properties.get("host") +":"+ properties.get("port");
+        backend = backends.get(name);
+        if( backend == null ) backend = backends.computeIfAbsent(backendNames.guard(name), Backend::new);
+        descriptor.backend = backend;
+        return backend;
+    }
+
+    int size() {
+        return backends.size();
+    }
+
+    void flush() {
+        for( Backend backend : backends.values() ) {
+            for( int i=0; i< STATUS_CLASSES.length; i++ ) {
+                snapshot.reset();
+                backend.histograms[i].drainTo(snapshot);
+                if( snapshot.getCount() == 0 ) continue;
+                String name = PluginMetrics.METRIC_PREFIX +"Backends|"+ backend.name +"|"+ STATUS_CLASSES[i] +"|";
+                publisher.reportMetric(name +"Latency 50th Percentile (ms)", toMS(snapshot.getPercentile(50)), "OBSERVATION", "CURRENT", "INDIVIDUAL");
+                publisher.reportMetric(name +"Latency 95th Percentile (ms)", toMS(snapshot.getPercentile(95)), "OBSERVATION", "CURRENT", "INDIVIDUAL");
+                publisher.reportMetric(name +"Latency 99th Percentile (ms)", toMS(snapshot.getPercentile(99)), "OBSERVATION", "CURRENT", "INDIVIDUAL");
+                publisher.reportMetric(name +"Calls", snapshot.getCount(), "SUM", "SUM", "COLLECTIVE");
+            }
+        }
+    }
+
+    private static long toMS( long nanos ) {
+        return Math.round(nanos / NANOS_PER_MS);
+    }
+
+    public static class Backend {
+        final String name;
+        final LatencyHistogram[] histograms = new LatencyHistogram[STATUS_CLASSES.length];
+
+        Backend( String name ) {
+            this.name = name;
+            for( int i=0; i< histograms.length; i++ ) histograms[i] = new LatencyHistogram();
+        }
+
+        public void record( int statusCode, long latencyNanos ) {
+            int statusClass = statusCode / 100;
+            if( statusClass < 1 || statusClass >= STATUS_CLASSES.length ) statusClass = 0;
+            histograms[statusClass].record(latencyNanos);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.cisco.josouthe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+Bounded lock free queue for many producers and exactly one consumer, producers claim a slot with a CAS on the producer index
+and then publish into it, offer() never blocks and just returns false when the queue is full
+ */
+public class BoundedMpscQueue<E> {
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong(); //only written by the consumer
+
+    public BoundedMpscQueue( int requestedCapacity ) {
+        int capacity = 2;
+        while( capacity < requestedCapacity ) capacity <<= 1;
+        this.buffer = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity -1;
+    }
+
+    public boolean offer( E element ) {
+        if( element == null ) return false;
+        long index;
+        do {
+            index = producerIndex.get();
+            if( index - consumerIndex.get() > mask ) return false; //full
+        } while( !producerIndex.compareAndSet(index, index +1) );
+        buffer.lazySet( (int)(index & mask), element );
+        return true;
+    }
+
+    /*
+    consumer thread only, returns null if empty or if the next producer has claimed its slot but not finished writing it yet
+     */
+    public E poll() {
+        long index = consumerIndex.get();
+        int offset = (int)(index & mask);
+        E element = buffer.get(offset);
+        if( element == null ) return null;
+        buffer.lazySet(offset, null);
+        consumerIndex.lazySet(index +1);
+        return element;
+    }
+}
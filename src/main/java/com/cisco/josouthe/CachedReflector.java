@@ -0,0 +1,131 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.IReflector;
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.OperationParams;
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.ReflectorException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/*
+Wraps an SDK IReflector with a per receiver class cache of MethodHandles, the first call for a class resolves the method or field
+once and every call after that is a direct invokeExact with no classloader lookup or SDK reflection dispatch
+if we can't resolve or access it for a class, that class is remembered as unresolved and goes through the SDK reflector instead
+field setters have no SDK equivalent, so for those an unresolved class is a ReflectorException
+ */
+public class CachedReflector implements IReflector {
+    private static final MethodHandle UNRESOLVED = MethodHandles.constant(Object.class, null);
+    private static final int MAX_FAST_PATH_ARGS = 3;
+
+    private final IReflector sdkReflector;
+    private final String name;
+    private final String[] parameterTypes;
+    private final boolean isField, isSetter;
+    private final ClassValue<MethodHandle> handles = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            try {
+                MethodHandle handle = ( isField ? resolveField(type) : resolveMethod(type) );
+                if( handle != null ) return handle;
+            } catch (Exception | LinkageError e) {
+                //fall through to the sdk reflector for this class
+            }
+            return UNRESOLVED;
+        }
+    };
+
+    private CachedReflector( IReflector sdkReflector, String name, String[] parameterTypes, boolean isField, boolean isSetter ) {
+        this.sdkReflector = sdkReflector;
+        this.name = name;
+        this.parameterTypes = parameterTypes;
+        this.isField = isField;
+        this.isSetter = isSetter;
+    }
+
+    public static CachedReflector forMethod( IReflector sdkReflector, String method, String... parameterTypes ) {
+        return new CachedReflector(sdkReflector, method, parameterTypes, false, false);
+    }
+
+    public static CachedReflector forField( IReflector sdkReflector, String field ) {
+        return new CachedReflector(sdkReflector, field, new String[0], true, false);
+    }
+
+    /*
+    invoke(target, value) stores value in the field and returns null
+     */
+    public static CachedReflector forFieldSetter( String field ) {
+        return new CachedReflector(null, field, new String[]{ Object.class.getName() }, true, true);
+    }
+
+    public Object invoke( Object target, Object... args ) throws ReflectorException {
+        MethodHandle handle = handles.get(target.getClass());
+        if( handle == UNRESOLVED || args.length != parameterTypes.length ) {
+            if( sdkReflector == null ) throw unresolved(target);
+            if( args.length > 0 ) return sdkReflector.execute(target.getClass().getClassLoader(), target, args);
+            return sdkReflector.execute(target.getClass().getClassLoader(), target);
+        }
+        try {
+            switch (args.length) {
+                case 0: return (Object) handle.invokeExact(target);
+                case 1: return (Object) handle.invokeExact(target, args[0]);
+                case 2: return (Object) handle.invokeExact(target, args[0], args[1]);
+                default: return (Object) handle.invokeExact(target, args[0], args[1], args[2]);
+            }
+        } catch (Exception e) {
+            throw new ReflectorException(e);
+        } catch (Throwable t) {
+            throw new ReflectorException(new RuntimeException(t));
+        }
+    }
+
+    @Override
+    public <E> E execute(ClassLoader classLoader, Object target, Object[]... args) throws ReflectorException {
+        if( sdkReflector == null ) throw unresolved(target);
+        return sdkReflector.execute(classLoader, target, args);
+    }
+
+    @Override
+    public <E> E execute(ClassLoader classLoader, Object target, OperationParams operationParams) throws ReflectorException {
+        if( sdkReflector == null ) throw unresolved(target);
+        return sdkReflector.execute(classLoader, target, operationParams);
+    }
+
+    private ReflectorException unresolved( Object target ) {
+        return new ReflectorException(new NoSuchFieldException(String.format("%s on %s", name, target == null ? "null" : target.getClass().getName())));
+    }
+
+    private MethodHandle resolveMethod( Class<?> type ) throws Exception {
+        if( parameterTypes.length > MAX_FAST_PATH_ARGS ) return null;
+        Class<?>[] parameterClasses = new Class<?>[parameterTypes.length];
+        for( int i=0; i< parameterTypes.length; i++ )
+            parameterClasses[i] = Class.forName(parameterTypes[i], false, type.getClassLoader());
+        Method method = null;
+        for( Class<?> search = type; search != null && method == null; search = search.getSuperclass() ) {
+            try {
+                method = search.getDeclaredMethod(name, parameterClasses);
+            } catch (NoSuchMethodException ignored) {
+                //keep looking in the super class
+            }
+        }
+        if( method == null ) method = type.getMethod(name, parameterClasses); //default methods on interfaces
+        method.setAccessible(true); //impl classes are often package private even when the method is public
+        return MethodHandles.lookup().unreflect(method).asType(MethodType.genericMethodType(parameterClasses.length +1));
+    }
+
+    private MethodHandle resolveField( Class<?> type ) throws Exception {
+        for( Class<?> search = type; search != null; search = search.getSuperclass() ) {
+            try {
+                Field field = search.getDeclaredField(name);
+                field.setAccessible(true);
+                if( isSetter ) return MethodHandles.lookup().unreflectSetter(field).asType(MethodType.genericMethodType(2)); //void comes back as null
+                return MethodHandles.lookup().unreflectGetter(field).asType(MethodType.genericMethodType(1));
+            } catch (NoSuchFieldException ignored) {
+                //keep looking in the super class
+            }
+        }
+        return null;
+    }
+}
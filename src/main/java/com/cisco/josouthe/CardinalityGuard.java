@@ -0,0 +1,119 @@
+package com.cisco.josouthe;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+Keeps the number of distinct BT names, url paths or metric names we hand to the agent bounded, the first maxNames distinct names
+pass through unchanged and every name after that is folded into OTHER, so a lambda class or an id in a path can't run the agent
+into its registration limits
+folded names are not kept, each one just sets a bit in a fixed size bitmap and the number of distinct folded names is estimated
+from how many bits are still clear (linear counting), published as Custom Metrics|NiSource Plugin|Cardinality Guard|<name>|Folded Distinct Names
+ */
+public class CardinalityGuard {
+    public static final String OTHER = "Other";
+    private static final int SKETCH_BITS = 1 << 14; //2KB, estimates are good to a few percent up to ~10k distinct names, saturates beyond ~100k
+    private static final ConcurrentHashMap<String, CardinalityGuard> guards = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final int maxNames;
+    private final ConcurrentHashMap<String, Boolean> knownNames = new ConcurrentHashMap<>();
+    private final AtomicInteger knownCount = new AtomicInteger();
+    private final AtomicLongArray foldedSketch = new AtomicLongArray(SKETCH_BITS / 64);
+
+    /*
+    one guard per purpose, the first caller's limit wins
+     */
+    public static CardinalityGuard getInstance( String name, int maxNames, PluginMetrics pluginMetrics ) {
+        CardinalityGuard guard = guards.get(name);
+        if( guard != null ) return guard;
+        guard = guards.computeIfAbsent(name, key -> new CardinalityGuard(key, maxNames));
+        pluginMetrics.registerGauge("Cardinality Guard|"+ name +"|Tracked Names", guard::getKnownCount);
+        pluginMetrics.registerGauge("Cardinality Guard|"+ name +"|Folded Distinct Names", guard::getFoldedEstimate);
+        return guard;
+    }
+
+    CardinalityGuard( String name, int maxNames ) {
+        this.name = name;
+        this.maxNames = Math.max(1, maxNames);
+    }
+
+    /*
+    the name itself if we have seen it or still have room for it, OTHER otherwise, the steady state is one map lookup
+     */
+    public String guard( String candidate ) {
+        return guard(candidate, 0);
+    }
+
+    /*
+    same, keeping the last reserved slots for names admit() lets in, like the metric publisher's Other under a parent
+     */
+    public String guard( String candidate, int reserved ) {
+        if( candidate == null ) return null;
+        if( admit(candidate, reserved) ) return candidate;
+        fold(candidate);
+        return OTHER;
+    }
+
+    /*
+    true if the name is known or there was room to add it, a name that doesn't fit is not counted as folded, the caller falls back
+    to a name of its own
+     */
+    public boolean admit( String candidate, int reserved ) {
+        if( knownNames.containsKey(candidate) ) return true;
+        int limit = maxNames - Math.max(0, reserved);
+        while( true ) {
+            int count = knownCount.get();
+            if( count >= limit ) break;
+            if( knownCount.compareAndSet(count, count +1) ) {
+                if( knownNames.putIfAbsent(candidate, Boolean.TRUE) != null ) knownCount.decrementAndGet(); //lost a race for the same name
+                return true;
+            }
+        }
+        return knownNames.containsKey(candidate);
+    }
+
+    private void fold( String candidate ) {
+        int hash = candidate.hashCode() * 0x9E3779B1; //spread, String.hashCode is weak in the low bits for similar names
+        int bit = (hash ^ (hash >>> 15)) & (SKETCH_BITS -1);
+        long mask = 1L << (bit & 63);
+        int word = bit >>> 6;
+        long current;
+        while( ((current = foldedSketch.get(word)) & mask) == 0 && !foldedSketch.compareAndSet(word, current, current | mask) ) {
+            //retry, another bit in this word changed
+        }
+    }
+
+    public String getName() { return name; }
+
+    public int getMaxNames() { return maxNames; }
+
+    public long getKnownCount() { return knownCount.get(); }
+
+    public long getFoldedEstimate() {
+        int setBits = 0;
+        for( int i=0; i< foldedSketch.length(); i++ ) setBits += Long.bitCount(foldedSketch.get(i));
+        if( setBits == 0 ) return 0;
+        int clearBits = SKETCH_BITS - setBits;
+        if( clearBits == 0 ) clearBits = 1; //saturated, report the ceiling instead of infinity
+        return Math.round( -SKETCH_BITS * Math.log( clearBits / (double) SKETCH_BITS ) );
+    }
+
+    /*
+    lambdas and generated proxies get a new class name per capture site or per classloader, strip the unique part
+        com.x.Handler$$Lambda$412/0x0000000800c2b440 -> com.x.Handler$$Lambda
+        com.x.Service$$EnhancerBySpringCGLIB$$5f2a1b -> com.x.Service$$EnhancerBySpringCGLIB
+     */
+    public static String normalizeClassName( String className ) {
+        if( className == null ) return null;
+        int generated = className.indexOf("$$");
+        if( generated < 0 ) {
+            int hidden = className.indexOf('/');
+            return hidden < 0 ? className : className.substring(0, hidden);
+        }
+        int end = className.indexOf('$', generated +2);
+        if( end < 0 ) end = className.indexOf('/', generated +2);
+        return end < 0 ? className : className.substring(0, end);
+    }
+}
@@ -0,0 +1,127 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.agent.api.Transaction;
+import com.appdynamics.apm.appagent.api.DataScope;
+import com.appdynamics.instrumentation.sdk.Rule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+Per interceptor analytics/snapshot data collection without per call string work
+    every distinct rule class gets a small int id when the rules are built, and the <class>-enableAnalyticsData flags are resolved
+        into a bitset indexed by that id on every config change, so the per call check is one array read and a mask
+    interceptors declare the fields they collect up front, declareField("statusCode", ruleClass), in their constructor, values are
+        set into a Batch kept with the BT's TransactionDictionary and handed to the agent in one flush() just before the BT ends
+ */
+public class DataCollector {
+    private final Set<DataScope> dataScopes, snapshotDataScopeOnly;
+    private final Map<String,Integer> ruleIds; //rule class match string to id, never modified after construction
+    private final String[] ruleClasses;
+    private volatile long[] analyticsEnabled; //bit per rule id
+    private final List<Field> fields = new ArrayList<>();
+    private volatile Field[] declaredFields = new Field[0];
+
+    public DataCollector( List<Rule> rules, Set<DataScope> dataScopes, Set<DataScope> snapshotDataScopeOnly, PluginConfig config ) {
+        this.dataScopes = dataScopes;
+        this.snapshotDataScopeOnly = snapshotDataScopeOnly;
+        Map<String,Integer> ruleIds = new HashMap<>();
+        List<String> ruleClasses = new ArrayList<>();
+        for( Rule rule : rules ) {
+            if( ruleIds.containsKey(rule.getClassMatchString()) ) continue;
+            ruleIds.put(rule.getClassMatchString(), ruleClasses.size());
+            ruleClasses.add(rule.getClassMatchString());
+        }
+        this.ruleIds = Collections.unmodifiableMap(ruleIds);
+        this.ruleClasses = ruleClasses.toArray(new String[0]);
+        configure(config);
+    }
+
+    public void configure( PluginConfig config ) {
+        long[] analyticsEnabled = new long[ (ruleClasses.length +63) / 64 ];
+        for( int ruleId=0; ruleId < ruleClasses.length; ruleId++ )
+            if( config.isAnalyticsEnabledForClass(ruleClasses[ruleId]) ) analyticsEnabled[ruleId >>> 6] |= 1L << ruleId;
+        this.analyticsEnabled = analyticsEnabled;
+    }
+
+    /*
+    -1 for a class none of our rules name, e.g. a subclass caught by an INHERITS_FROM_CLASS rule
+     */
+    public int getRuleId( String ruleClass ) {
+        if( ruleClass == null ) return -1;
+        Integer ruleId = ruleIds.get(ruleClass);
+        return ruleId == null ? -1 : ruleId;
+    }
+
+    /*
+    a class with no rule id has no flag of its own, so it follows the default, analytics on
+     */
+    public boolean isAnalyticsEnabled( int ruleId ) {
+        if( ruleId < 0 ) return true;
+        long[] analyticsEnabled = this.analyticsEnabled;
+        return (analyticsEnabled[ruleId >>> 6] & (1L << ruleId)) != 0;
+    }
+
+    public Set<DataScope> getDataScopes( int ruleId ) {
+        return isAnalyticsEnabled(ruleId) ? dataScopes : snapshotDataScopeOnly;
+    }
+
+    /*
+    call from the interceptor's constructor, batches made before a field is declared simply have no slot for it
+     */
+    public synchronized Field declareField( String name, String ruleClass ) {
+        Field field = new Field(name, fields.size(), getRuleId(ruleClass));
+        fields.add(field);
+        declaredFields = fields.toArray(new Field[0]);
+        return field;
+    }
+
+    public Batch newBatch() {
+        return new Batch( declaredFields.length );
+    }
+
+    /*
+    one pass over the batch on the thread ending the BT, fields never set are skipped
+     */
+    public void flush( Transaction transaction, Batch batch ) {
+        if( transaction == null || batch == null ) return;
+        Field[] declaredFields = this.declaredFields;
+        String[] values = batch.values;
+        for( int i=0; i< values.length; i++ ) {
+            if( values[i] == null ) continue;
+            Field field = declaredFields[i];
+            transaction.collectData(field.name, values[i], getDataScopes(field.ruleId));
+            values[i] = null;
+        }
+    }
+
+    public static class Field {
+        final String name;
+        final int index, ruleId;
+
+        Field( String name, int index, int ruleId ) {
+            this.name = name;
+            this.index = index;
+            this.ruleId = ruleId;
+        }
+    }
+
+    /*
+    one BT's collected values, indexed by Field.index, only ever touched by whichever thread currently owns the BT
+     */
+    public static class Batch {
+        final String[] values;
+
+        Batch( int size ) {
+            this.values = new String[size];
+        }
+
+        public void set( Field field, String value ) {
+            if( field.index < values.length ) values[field.index] = value;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.agent.api.ExitCall;
+import com.appdynamics.agent.api.Transaction;
+import com.appdynamics.instrumentation.sdk.logging.ISDKLogger;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Follows each async exit call from executeAsync to its ApiCallback completion, keyed on the callback's identity, if okhttp never
+calls back (cancelled call, rejected executor) the Scheduler wheel ends the exit call after exitCallTimeoutMS and marks the BT in error
+a timed out entry is kept for one more timeout period, so a completion that shows up after all is counted as late and not ended twice
+    Custom Metrics|NiSource Plugin|Exit Calls|Timed Out, Late Completions, In-Flight
+ */
+public class ExitCallTracker implements TransactionDictionary.ExpiryHandler {
+    public static final String EXIT_CALL_TIMEOUT_PROPERTY = "exitCallTimeoutMS";
+    public static final long DEFAULT_TIMEOUT_MS = 60000;
+    private static final int CAPACITY = 50000;
+
+    private final TransactionRegistry registry;
+    private final ISDKLogger logger;
+    private final LongAdder timedOut, lateCompletions;
+    private volatile long timeoutMS = DEFAULT_TIMEOUT_MS;
+
+    public ExitCallTracker( PluginRuntime pluginRuntime, ISDKLogger logger ) {
+        this.registry = new StripedTransactionRegistry(CAPACITY, pluginRuntime.getScheduler()); //our own, exit calls never count against the BT registry
+        this.logger = logger;
+        PluginMetrics pluginMetrics = pluginRuntime.getPluginMetrics();
+        this.timedOut = pluginMetrics.getCounter("Exit Calls|Timed Out");
+        this.lateCompletions = pluginMetrics.getCounter("Exit Calls|Late Completions");
+        pluginMetrics.registerGauge("Exit Calls|In-Flight", registry::size);
+    }
+
+    public void configure( PluginConfig config ) {
+        timeoutMS = Math.max(1000, config.getLong(EXIT_CALL_TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MS));
+    }
+
+    /*
+    returns false if we are at capacity, the caller should end the exit call now since nothing will find it later
+     */
+    public boolean start( Object callback, ExitCall exitCall, Transaction transaction, Object attachment ) {
+        TransactionDictionary transactionDictionary = new TransactionDictionary(exitCall, callback);
+        transactionDictionary.setTransaction(transaction);
+        transactionDictionary.setAttachment(attachment);
+        transactionDictionary.setTimeout(timeoutMS, this);
+        return registry.track(callback, transactionDictionary);
+    }
+
+    /*
+    the entry for this callback if it completed in time, the caller ends the exit call and then calls finish() on the entry
+    null if it was never tracked, or it already timed out, which is counted as a late completion
+     */
+    public TransactionDictionary complete( Object callback ) {
+        TransactionDictionary transactionDictionary = registry.take(callback);
+        if( transactionDictionary == null ) return null;
+        if( transactionDictionary.settle(TransactionDictionary.OUTCOME_COMPLETED) ) return transactionDictionary;
+        lateCompletions.increment();
+        transactionDictionary.finish();
+        return null;
+    }
+
+    public int size() { return registry.size(); }
+
+    /*
+    Scheduler thread, end the exit call the first time around and keep the entry one more period to recognize a late completion
+     */
+    @Override
+    public boolean onExpired( TransactionDictionary transactionDictionary ) {
+        int outcome = transactionDictionary.getOutcome();
+        if( outcome == TransactionDictionary.OUTCOME_COMPLETED ) return true; //its completion owns ending and finishing it, leave it alone
+        if( outcome == TransactionDictionary.OUTCOME_TIMED_OUT ) { //second time around, no late completion showed up
+            transactionDictionary.finish();
+            return true;
+        }
+        if( !transactionDictionary.settle(TransactionDictionary.OUTCOME_TIMED_OUT) ) return true; //completed while we were looking
+        timedOut.increment();
+        ExitCall exitCall = transactionDictionary.getExitCall();
+        Transaction transaction = transactionDictionary.getTransaction();
+        long timeout = transactionDictionary.getTimeout(timeoutMS);
+        if( transaction != null ) transaction.markAsError(String.format("Exit call timed out, no ApiCallback completion after %dms", timeout));
+        if( exitCall != null ) exitCall.end();
+        if( logger.isDebugEnabled() ) logger.debug(String.format("Ended exit call %s after %dms with no ApiCallback completion", (exitCall == null ? "null" : exitCall.getCorrelationHeader()), timeout));
+        transactionDictionary.setExitCall(null); //the setters also touch it, so it comes back up one timeout from now
+        transactionDictionary.setTransaction(null);
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+package com.cisco.josouthe;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+Fixed size log-linear histogram, values below 16 get their own bucket and above that each power of two is split into 8
+sub buckets, so any recorded value is within 12.5% of its bucket; memory is the same no matter how much is recorded
+recording is lock free, and drainTo() resets the buckets as it reads them so a flush never loses a concurrent record
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40; //about 18 minutes in nanoseconds, anything bigger lands in the last bucket
+    static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record( long value ) {
+        if( value < 0 ) value = 0;
+        buckets.incrementAndGet( bucketFor(value) );
+        sum.addAndGet(value);
+        long currentMax;
+        while( value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value) ) {
+            //retry, someone else raised the max
+        }
+    }
+
+    static int bucketFor( long value ) {
+        if( value < LINEAR_BUCKETS ) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if( exponent > MAX_EXPONENT ) return BUCKET_COUNT -1;
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS -1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    static long valueFor( int bucket ) { //midpoint of the bucket
+        if( bucket < LINEAR_BUCKETS ) return bucket;
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long lower = ((long) (SUB_BUCKETS + subBucket)) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) /2;
+    }
+
+    public void drainTo( Snapshot snapshot ) {
+        for( int i=0; i< BUCKET_COUNT; i++ ) {
+            if( buckets.get(i) == 0 ) continue;
+            long count = buckets.getAndSet(i, 0);
+            snapshot.counts[i] += count;
+            snapshot.count += count;
+        }
+        snapshot.sum += sum.getAndSet(0);
+        snapshot.max = Math.max(snapshot.max, max.getAndSet(0));
+    }
+
+    /*
+    same as drainTo() but leaves the counts in place, for a look at the current interval without stealing it from the flush
+     */
+    public void copyTo( Snapshot snapshot ) {
+        for( int i=0; i< BUCKET_COUNT; i++ ) {
+            long count = buckets.get(i);
+            snapshot.counts[i] += count;
+            snapshot.count += count;
+        }
+        snapshot.sum += sum.get();
+        snapshot.max = Math.max(snapshot.max, max.get());
+    }
+
+    /*
+    single threaded accumulation of one or more drained histograms, used by whoever is publishing
+     */
+    public static class Snapshot {
+        final long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+
+        public long getCount() { return count; }
+        public long getMax() { return max; }
+        public long getAverage() { return count == 0 ? 0 : sum / count; }
+
+        public long getPercentile( double percentile ) {
+            if( count == 0 ) return 0;
+            long rank = (long) Math.ceil( count * percentile / 100.0 );
+            long seen = 0;
+            for( int i=0; i< BUCKET_COUNT; i++ ) {
+                seen += counts[i];
+                if( seen >= rank ) return Math.min( valueFor(i), max );
+            }
+            return max;
+        }
+
+        public void reset() {
+            Arrays.fill(counts, 0);
+            count = 0;
+            sum = 0;
+            max = 0;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.instrumentation.sdk.Rule;
+import com.appdynamics.instrumentation.sdk.SDKClassMatchType;
+import com.appdynamics.instrumentation.sdk.SDKStringMatchType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+Rules bound to typed handlers, built in initializeRules(), in place of a switch on the method name in onMethodBegin/onMethodEnd
+    rules.bind("io.vertx.core.http.HttpServerRequest", SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleEnd", new HandleEnd());
+    each rule's method name gets an int handler id when it is bound, one method name has exactly one handler, so one method can
+        never run into another's code
+    several rules may bind the same method name as long as it is the same handler, e.g. a MATCHES_CLASS and an INHERITS_FROM_CLASS rule
+    rules must match the method name with EQUALS, that is what makes the name a usable key
+the agent only hands us the method name of the rule that fired, so a call gets back to its handler id through a slot table built at
+bind time: the String's cached hash picks the slot and the name stored there is compared by identity, which is what the agent passes,
+the method name constant, equals() is only the fallback for a name that isn't the same instance, no map, no boxing
+ */
+public class MethodDispatcher {
+    private final List<Rule> rules = new ArrayList<>();
+    private String[] methodNames = new String[0]; //interned, by handler id
+    private Handler<?>[] handlers = new Handler<?>[0]; //by handler id
+    private int[] slots = new int[2]; //handler id +1 at the method name's hash slot, 0 is empty, kept at most half full
+    private int slotMask = 1;
+
+    /*
+    the state begin() returns comes back to end() for the same call, end() is called even when begin() returned null
+     */
+    public interface Handler<S> {
+        default S begin( Object objectIntercepted, String className, Object[] params ) { return null; }
+        default void end( S state, Object objectIntercepted, String className, Object[] params, Throwable exception, Object returnVal ) {}
+    }
+
+    public MethodDispatcher bind( String className, SDKClassMatchType classMatchType, String methodName, Handler<?> handler ) {
+        return bind( new Rule.Builder(className)
+                .classMatchType(classMatchType)
+                .methodMatchString(methodName)
+                .methodStringMatchType(SDKStringMatchType.EQUALS)
+                .build(), handler);
+    }
+
+    public MethodDispatcher bind( Rule rule, Handler<?> handler ) {
+        if( rule.getMethodStringMatchType() != SDKStringMatchType.EQUALS )
+            throw new IllegalArgumentException(String.format("Rule for %s.%s must match the method name with EQUALS to be dispatched", rule.getClassMatchString(), rule.getMethodMatchString()));
+        String methodName = rule.getMethodMatchString().intern();
+        int handlerId = getHandlerId(methodName);
+        if( handlerId < 0 ) {
+            handlerId = handlers.length;
+            Handler<?>[] handlers = new Handler<?>[handlerId +1];
+            String[] methodNames = new String[handlerId +1];
+            System.arraycopy(this.handlers, 0, handlers, 0, handlerId);
+            System.arraycopy(this.methodNames, 0, methodNames, 0, handlerId);
+            handlers[handlerId] = handler;
+            methodNames[handlerId] = methodName;
+            this.handlers = handlers;
+            this.methodNames = methodNames;
+            buildSlots();
+        } else if( handlers[handlerId] != handler ) {
+            throw new IllegalArgumentException(String.format("Method %s is already bound to %s", methodName, handlers[handlerId].getClass().getName()));
+        }
+        rules.add(rule);
+        return this;
+    }
+
+    /*
+    open addressing with linear probing, sized to at least twice the handler count so a lookup almost always ends on its first slot
+     */
+    private void buildSlots() {
+        int size = 2;
+        while( size < methodNames.length * 2 ) size <<= 1;
+        int[] slots = new int[size];
+        int slotMask = size -1;
+        for( int handlerId=0; handlerId< methodNames.length; handlerId++ ) {
+            int slot = methodNames[handlerId].hashCode() & slotMask;
+            while( slots[slot] != 0 ) slot = (slot +1) & slotMask;
+            slots[slot] = handlerId +1;
+        }
+        this.slotMask = slotMask;
+        this.slots = slots;
+    }
+
+    public List<Rule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /*
+    -1 for a method we have no handler for
+     */
+    public int getHandlerId( String methodName ) {
+        if( methodName == null ) return -1;
+        int[] slots = this.slots;
+        int slotMask = this.slotMask;
+        for( int slot = methodName.hashCode() & slotMask; ; slot = (slot +1) & slotMask ) {
+            int handlerId = slots[slot] -1;
+            if( handlerId < 0 ) return -1;
+            String boundName = methodNames[handlerId];
+            if( boundName == methodName || boundName.equals(methodName) ) return handlerId;
+        }
+    }
+
+    public Object begin( Object objectIntercepted, String className, String methodName, Object[] params ) {
+        int handlerId = getHandlerId(methodName);
+        if( handlerId < 0 ) return null;
+        return handlers[handlerId].begin(objectIntercepted, className, params);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void end( Object state, Object objectIntercepted, String className, String methodName, Object[] params, Throwable exception, Object returnVal ) {
+        int handlerId = getHandlerId(methodName);
+        if( handlerId < 0 ) return;
+        ((Handler<Object>) handlers[handlerId]).end(state, objectIntercepted, className, params, exception, returnVal);
+    }
+}
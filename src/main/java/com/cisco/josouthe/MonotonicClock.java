@@ -0,0 +1,22 @@
+package com.cisco.josouthe;
+
+/*
+Coarse monotonic clock in milliseconds, the Scheduler thread advances it every tick so the hot path only pays a volatile read
+instead of allocating a Date, values are only useful for comparing against each other, not as wall clock time
+ */
+public class MonotonicClock {
+    private static final long ORIGIN = System.nanoTime();
+    private static volatile long now = 0;
+
+    private MonotonicClock() {}
+
+    public static long now() {
+        return now;
+    }
+
+    public static long tick() {
+        long current = (System.nanoTime() - ORIGIN) / 1000000L;
+        now = current;
+        return current;
+    }
+}
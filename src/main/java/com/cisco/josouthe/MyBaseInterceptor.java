@@ -1,6 +1,5 @@
 package com.cisco.josouthe;
 
-import com.appdynamics.agent.api.AppdynamicsAgent;
 import com.appdynamics.agent.api.ExitCall;
 import com.appdynamics.agent.api.Transaction;
 import com.appdynamics.apm.appagent.api.DataScope;
@@ -9,79 +8,194 @@ import com.appdynamics.instrumentation.sdk.template.AGenericInterceptor;
 import com.appdynamics.instrumentation.sdk.toolbox.reflection.IReflector;
 import com.appdynamics.instrumentation.sdk.toolbox.reflection.ReflectorException;
 
-import java.io.*;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.*;
 
 public abstract class MyBaseInterceptor extends AGenericInterceptor {
     protected static final Object CORRELATION_HEADER_KEY = "singularityheader";
-    protected boolean initialized = false;
-    protected Set<DataScope> dataScopes = null;
-    protected Set<DataScope> snapshotDatascopeOnly = null;
-    protected static final String DISABLE_ANALYTICS_COLLECTION_PROPERTY = "disablePluginAnalytics";
-    protected static final String PLUGIN_PROPERTIES_FILE_NAME = "CustomPlugin.properties";
-    private Properties properties;
+    protected static final String DISABLE_ANALYTICS_COLLECTION_PROPERTY = PluginRuntime.DISABLE_ANALYTICS_COLLECTION_PROPERTY;
+    protected static final String PLUGIN_PROPERTIES_FILE_NAME = PluginRuntime.PLUGIN_PROPERTIES_FILE_NAME;
+    protected final PluginRuntime pluginRuntime;
+    protected final Set<DataScope> dataScopes;
+    protected final Set<DataScope> snapshotDatascopeOnly;
+    protected final PluginMetrics pluginMetrics;
+    protected final SamplingEngine samplingEngine;
+    protected final DataCollector dataCollector;
+    protected static final String MAX_BT_NAMES_PROPERTY = "maxBusinessTransactionNames";
+    protected static final String MAX_URL_PATHS_PROPERTY = "maxUrlPaths";
+    protected static final String MAX_METRIC_NAMES_PROPERTY = "maxCustomMetricNames";
+    private final CardinalityGuard businessTransactionNames, urlPaths;
+    private volatile boolean debugEnabled = false;
+    private final PluginMetrics.OverheadRecorder beginOverhead, endOverhead;
+    private MethodDispatcher methodDispatcher; //set by initializeRules(), which runs in the ASDKPlugin constructor, so no initializer here
 
     public MyBaseInterceptor() {
         super();
-        initialize();
+        refreshLogLevels();
+        pluginRuntime = PluginRuntime.getInstance(getAgentPluginDirectory(), getLogger()); //config, scheduler, publisher, metrics all created once per jvm
+        dataScopes = pluginRuntime.getDataScopes();
+        snapshotDatascopeOnly = pluginRuntime.getSnapshotDataScopeOnly();
+        pluginMetrics = pluginRuntime.getPluginMetrics();
+        pluginRuntime.register(this, getDefaultProperties());
+        samplingEngine = SamplingEngine.getInstance(pluginRuntime, getLogger());
+        dataCollector = new DataCollector(getRules(), dataScopes, snapshotDatascopeOnly, getConfig()); //rule ids are fixed from here on
+        businessTransactionNames = CardinalityGuard.getInstance("Business Transaction Names", (int) getConfig().getLong(MAX_BT_NAMES_PROPERTY, 200), pluginMetrics);
+        urlPaths = CardinalityGuard.getInstance("URL Paths", (int) getConfig().getLong(MAX_URL_PATHS_PROPERTY, 2000), pluginMetrics);
+        AsyncPublisher.getInstance().setMetricNameGuard( CardinalityGuard.getInstance("Custom Metric Names", (int) getConfig().getLong(MAX_METRIC_NAMES_PROPERTY, 1000), pluginMetrics) );
+        beginOverhead = pluginMetrics.getOverheadRecorder(getClass().getSimpleName(), "onMethodBegin");
+        endOverhead = pluginMetrics.getOverheadRecorder(getClass().getSimpleName(), "onMethodEnd");
         getLogger().info(String.format("Initialized plugin class %s version %s build date %s",getClass().getCanonicalName(),MetaData.VERSION, MetaData.BUILDTIMESTAMP));
     }
 
-    abstract public Object onMethodBegin(Object objectIntercepted, String className, String methodName, Object[] params);
-    abstract public void onMethodEnd(Object state, Object object, String className, String methodName, Object[] params, Throwable exception, Object returnVal);
     abstract public List<Rule> initializeRules();
 
-    ;
+    /*
+    interceptors that build their rules with dispatch() get these for free, the rest override them
+     */
+    public Object interceptMethodBegin(Object objectIntercepted, String className, String methodName, Object[] params) {
+        return methodDispatcher == null ? null : methodDispatcher.begin(objectIntercepted, className, methodName, params);
+    }
 
-    protected boolean isInitialized() { return this.initialized; }
+    public void interceptMethodEnd(Object state, Object object, String className, String methodName, Object[] params, Throwable exception, Object returnVal) {
+        if( methodDispatcher != null ) methodDispatcher.end(state, object, className, methodName, params, exception, returnVal);
+    }
 
-    protected void initialize() {
-        dataScopes = new HashSet<DataScope>();
-        dataScopes.add(DataScope.SNAPSHOTS);
-        if( System.getProperty(DISABLE_ANALYTICS_COLLECTION_PROPERTY,"false").equalsIgnoreCase("false") ) {
-            dataScopes.add(DataScope.ANALYTICS);
-            this.getLogger().info("Enabling Analytics Collection of Plugin Custom Data, to disable add JVM property -D"+ DISABLE_ANALYTICS_COLLECTION_PROPERTY +"=true");
+    /*
+    return this from initializeRules(), the bound handlers take every onMethodBegin/onMethodEnd from then on
+     */
+    protected List<Rule> dispatch( MethodDispatcher methodDispatcher ) {
+        this.methodDispatcher = methodDispatcher;
+        return methodDispatcher.getRules();
+    }
+
+    @Override
+    public final Object onMethodBegin(Object objectIntercepted, String className, String methodName, Object[] params) {
+        long start = System.nanoTime();
+        try {
+            return interceptMethodBegin(objectIntercepted, className, methodName, params);
+        } finally {
+            beginOverhead.record(System.nanoTime() - start);
         }
-        snapshotDatascopeOnly = new HashSet<DataScope>();
-        snapshotDatascopeOnly.add(DataScope.SNAPSHOTS);
-        loadProperties();
-        saveProperties();
-        this.initialized=true;
-    }
-
-    protected void loadProperties() {
-        if (this.properties == null) {
-            this.properties = new Properties();
-            String defaultProperty = "true";
-            if (System.getProperty(DISABLE_ANALYTICS_COLLECTION_PROPERTY, "false").equalsIgnoreCase("true")) {
-                defaultProperty = "false";
-            }
-            for (Rule rule : this.getRules()) {
-                this.properties.setProperty(rule.getClassMatchString() + "-enableAnalyticsData", defaultProperty);
-            }
-            for ( String customPropertyKey : getListOfCustomProperties().keySet() ) {
-                this.properties.setProperty( customPropertyKey, getListOfCustomProperties().get(customPropertyKey) );
-            }
-            File configFile = new File(this.getAgentPluginDirectory() + System.getProperty("file.separator", "/") + PLUGIN_PROPERTIES_FILE_NAME);
-            InputStream is = null;
-            if (configFile.canRead()) {
-                try {
-                    is = new FileInputStream(configFile);
-                    this.properties.load(is);
-                } catch (Exception e) {
-                }
-            }
+    }
+
+    @Override
+    public final void onMethodEnd(Object state, Object object, String className, String methodName, Object[] params, Throwable exception, Object returnVal) {
+        long start = System.nanoTime();
+        try {
+            interceptMethodEnd(state, object, className, methodName, params, exception, returnVal);
+        } finally {
+            endOverhead.record(System.nanoTime() - start);
         }
     }
 
+    /*
+    debug logging facade, the level is cached and refreshed in the background so a disabled debug() costs one branch,
+    format and arguments are only turned into a String when debug is on, callers with expensive arguments should still check isDebugEnabled()
+     */
+    protected boolean isDebugEnabled() { return debugEnabled; }
+
+    protected void refreshLogLevels() {
+        debugEnabled = getLogger().isDebugEnabled();
+    }
+
+    protected void debug( String message ) {
+        if( debugEnabled ) getLogger().debug(message);
+    }
+
+    protected void debug( String format, Object arg1 ) {
+        if( debugEnabled ) getLogger().debug(String.format(format, arg1));
+    }
+
+    protected void debug( String format, Object arg1, Object arg2 ) {
+        if( debugEnabled ) getLogger().debug(String.format(format, arg1, arg2));
+    }
+
+    protected void debug( String format, Object arg1, Object arg2, Object arg3 ) {
+        if( debugEnabled ) getLogger().debug(String.format(format, arg1, arg2, arg3));
+    }
+
+    protected void debug( String format, Object arg1, Object arg2, Object arg3, Object arg4 ) {
+        if( debugEnabled ) getLogger().debug(String.format(format, arg1, arg2, arg3, arg4));
+    }
+
+    /*
+    analytics on/off per intercepted class plus whatever the subclass adds, these only fill gaps in CustomPlugin.properties
+     */
+    private Properties getDefaultProperties() {
+        Properties defaultProperties = new Properties();
+        String defaultProperty = "true";
+        if (System.getProperty(DISABLE_ANALYTICS_COLLECTION_PROPERTY, "false").equalsIgnoreCase("true")) {
+            defaultProperty = "false";
+        }
+        for (Rule rule : this.getRules()) {
+            defaultProperties.setProperty(rule.getClassMatchString() + PluginConfig.ANALYTICS_PROPERTY_SUFFIX, defaultProperty);
+        }
+        Map<String,String> customProperties = getListOfCustomProperties();
+        for ( String customPropertyKey : customProperties.keySet() ) {
+            defaultProperties.setProperty( customPropertyKey, customProperties.get(customPropertyKey) );
+        }
+        return defaultProperties;
+    }
+
+    /*
+    override to re-read anything derived from the config, called on the Scheduler thread after a reload
+     */
+    protected void onConfigChange( PluginConfig config ) {
+        refreshLogLevels();
+        if( dataCollector != null ) dataCollector.configure(config); //null until our constructor is done
+    }
+
+    protected PluginConfig getConfig() { return pluginRuntime.getConfig(); }
+
     protected Map<String,String> getListOfCustomProperties() {
-        return new HashMap<>();
+        Map<String,String> customProperties = new HashMap<>();
+        customProperties.put(TransactionRegistry.TRACKING_MODE_PROPERTY, TransactionRegistry.TRACKING_MODE_STRONG);
+        customProperties.put(Scheduler.TICK_TIME_PROPERTY, String.valueOf(Scheduler.DEFAULT_TICK_TIME_MS));
+        customProperties.put(MAX_BT_NAMES_PROPERTY, "200");
+        customProperties.put(MAX_URL_PATHS_PROPERTY, "2000");
+        customProperties.put(MAX_METRIC_NAMES_PROPERTY, "1000");
+        customProperties.put(SamplingEngine.SAMPLING_RATE_PROPERTY, "1.0");
+        customProperties.put(SamplingEngine.SAMPLING_RULES_PROPERTY, "");
+        customProperties.put(SamplingEngine.ADAPTIVE_PROPERTY, "false");
+        customProperties.put(SamplingEngine.OVERHEAD_THRESHOLD_PROPERTY, "100000");
+        customProperties.put(SamplingEngine.IN_FLIGHT_THRESHOLD_PROPERTY, "100000");
+        customProperties.put(SamplingEngine.MINIMUM_RATE_PROPERTY, "0.01");
+        return customProperties;
+    }
+
+    protected String getProperty( String name, String defaultValue ) {
+        return pluginRuntime.getConfig().getString(name, defaultValue);
+    }
+
+    protected TransactionRegistry getTransactionRegistry() {
+        TransactionRegistry transactionRegistry = TransactionRegistry.getInstance( getProperty(TransactionRegistry.TRACKING_MODE_PROPERTY, TransactionRegistry.TRACKING_MODE_STRONG), pluginRuntime.getScheduler() );
+        pluginMetrics.registerGauge("Transaction Registry|In-Flight Transactions", transactionRegistry::size);
+        pluginMetrics.registerGauge("Transaction Registry|Rejected Transactions Total", transactionRegistry::getRejectedCount);
+        pluginMetrics.registerGauge("Transaction Registry|Abandoned Transactions Total", transactionRegistry::getAbandonedCount);
+        pluginMetrics.registerGauge("Transaction Registry|Displaced Entries Total", transactionRegistry::getDisplacedCount);
+        return transactionRegistry;
+    }
+
+    /*
+    bounded names for the agent, see CardinalityGuard, anything past the configured limit comes back as Other
+     */
+    protected String getBusinessTransactionName( String className ) {
+        return "BT-" + businessTransactionNames.guard( CardinalityGuard.normalizeClassName(className) );
+    }
+
+    /*
+    a BT name that is already a name, e.g. a route template, counted against the same limit
+     */
+    protected String guardBusinessTransactionName( String name ) {
+        return businessTransactionNames.guard(name);
+    }
+
+    protected String guardUrlPath( String path ) {
+        String guarded = urlPaths.guard(path);
+        return guarded == CardinalityGuard.OTHER ? "/"+ CardinalityGuard.OTHER : guarded;
     }
 
     protected boolean isAnalyticsEnabledForClass( String className ) {
-        return this.properties.getProperty( className +"-enableAnalyticsData", "true").toLowerCase().equals("true");
+        return pluginRuntime.getConfig().isAnalyticsEnabledForClass(className);
     }
 
     protected boolean isFakeTransaction(Transaction transaction) {
@@ -92,46 +206,37 @@ public abstract class MyBaseInterceptor extends AGenericInterceptor {
         return "".equals(exitCall.getCorrelationHeader());
     }
 
-    protected void saveProperties() {
-        File configFile = new File(this.getAgentPluginDirectory() + System.getProperty("file.separator","/") +PLUGIN_PROPERTIES_FILE_NAME);
-        try {
-            if( !configFile.canRead() ) configFile.createNewFile();
-            OutputStream out = new FileOutputStream( configFile );
-            properties.store(out, "Writing current properties to file for next load");
-        } catch (Exception e) {
-            this.getLogger().info("Error saving properties file, exception: "+ e.getMessage(),e);
-        }
-    }
-
     protected String getUrlWithoutParameters(String url) {
-        try {
-            URI uri = new URI(url);
-            return new URI(uri.getScheme(),
-                    uri.getAuthority(),
-                    uri.getPath(),
-                    null, // Ignore the query part of the input url
-                    uri.getFragment()).toString();
-        } catch (URISyntaxException e) {
-            return url; //just give back the original input on error
-        }
+        return UrlNormalizer.stripQuery(url);
     }
 
     protected IReflector makeAccessFieldValueReflector(String field ) {
-        return getNewReflectionBuilder().accessFieldValue( field, true).build();
+        return CachedReflector.forField( getNewReflectionBuilder().accessFieldValue( field, true).build(), field );
+    }
+
+    protected IReflector makeFieldSetterReflector( String field ) {
+        return CachedReflector.forFieldSetter(field);
     }
 
     protected IReflector makeInvokeInstanceMethodReflector(String method, String...args ) {
-        if( args.length > 0 ) return getNewReflectionBuilder().invokeInstanceMethod( method, true, args).build();
-        return getNewReflectionBuilder().invokeInstanceMethod( method, true).build();
+        if( args.length > 0 ) return CachedReflector.forMethod( getNewReflectionBuilder().invokeInstanceMethod( method, true, args).build(), method, args );
+        return CachedReflector.forMethod( getNewReflectionBuilder().invokeInstanceMethod( method, true).build(), method );
+    }
+
+    private Object reflect(Object object, IReflector method, Object... args) throws ReflectorException {
+        if( method instanceof CachedReflector ) return ((CachedReflector) method).invoke(object, args);
+        if( args.length > 0 ) return method.execute(object.getClass().getClassLoader(), object, args);
+        return method.execute(object.getClass().getClassLoader(), object);
     }
 
     protected String getReflectiveString(Object object, IReflector method, String defaultString) {
         String value = defaultString;
         if( object == null || method == null ) return defaultString;
         try{
-            value = (String) method.execute(object.getClass().getClassLoader(), object);
+            value = (String) reflect(object, method);
             if( value == null ) return defaultString;
         } catch (ReflectorException e) {
+            pluginMetrics.reflectionFailure();
             this.getLogger().info("Error in reflection call, exception: "+ e.getMessage(),e);
         }
         return value;
@@ -141,9 +246,10 @@ public abstract class MyBaseInterceptor extends AGenericInterceptor {
         Integer value = defaultInteger;
         if( object == null || method == null ) return defaultInteger;
         try{
-            value = (Integer) method.execute(object.getClass().getClassLoader(), object);
+            value = (Integer) reflect(object, method);
             if( value == null ) return defaultInteger;
         } catch (ReflectorException e) {
+            pluginMetrics.reflectionFailure();
             this.getLogger().info("Error in reflection call, exception: "+ e.getMessage(),e);
         }
         return value;
@@ -163,38 +269,42 @@ public abstract class MyBaseInterceptor extends AGenericInterceptor {
         Object value = null;
         if( object == null || method == null ) return value;
         try{
-            if( args.length > 0 ) {
-                value = method.execute(object.getClass().getClassLoader(), object, args);
-            } else {
-                value = method.execute(object.getClass().getClassLoader(), object);
-            }
+            value = reflect(object, method, args);
         } catch (ReflectorException e) {
+            pluginMetrics.reflectionFailure();
             this.getLogger().info("Error in reflection call, method: "+ method.getClass().getCanonicalName() +" object: "+ object.getClass().getCanonicalName() +" exception: "+ e.getMessage(),e);
         }
         return value;
     }
 
+    protected boolean setReflectiveObject( Object object, IReflector setter, Object value ) {
+        if( object == null || setter == null ) return false;
+        try{
+            reflect(object, setter, value);
+            return true;
+        } catch (ReflectorException e) {
+            pluginMetrics.reflectionFailure();
+            this.getLogger().info("Error in reflection set, object: "+ object.getClass().getCanonicalName() +" exception: "+ e.getMessage(),e);
+        }
+        return false;
+    }
+
     protected void collectData(Transaction transaction, String name, String value ) {
         collectData( transaction, null, name, value);
     }
 
     protected void collectData(Transaction transaction, String className,  String name, String value ) {
         if(transaction == null) return;
-        if( !isInitialized() ) {
-            initialize();
-        }
-        if( isAnalyticsEnabledForClass( className ) ) {
-            transaction.collectData(name, value, this.dataScopes);
+        int ruleId = dataCollector.getRuleId(className);
+        if( ruleId < 0 ) { //not one of our rule classes, it can still have its own flag in the config
+            transaction.collectData( name, value, isAnalyticsEnabledForClass(className) ? this.dataScopes : this.snapshotDatascopeOnly );
         } else {
-            transaction.collectData( name, value, this.snapshotDatascopeOnly );
+            transaction.collectData( name, value, dataCollector.getDataScopes(ruleId) );
         }
     }
 
     protected void collectSnapshotData(Transaction transaction, String name, String value ) {
         if(transaction == null) return;
-        if( !isInitialized() ) {
-            initialize();
-        }
         transaction.collectData( name, value, this.snapshotDatascopeOnly );
     }
 
@@ -212,9 +322,8 @@ public abstract class MyBaseInterceptor extends AGenericInterceptor {
                                                                     ADJUDICATION_CANCELLED, EMAIL_SENT, SMS_SENT]
      */
     protected  void publishEvent( String eventSummary, String severity, String eventType, Map<String,String> details ) {
-        this.getLogger().debug("Begin publishEvent event summary: "+eventSummary+" severity: "+ severity +" event type: "+ eventType);
-        AppdynamicsAgent.getEventPublisher().publishEvent(eventSummary, severity, eventType, details);
-        this.getLogger().debug("Finish publishEvent event summary: "+eventSummary+" severity: "+ severity +" event type: "+ eventType);
+        debug("Queue publishEvent event summary: %s severity: %s event type: %s", eventSummary, severity, eventType);
+        AsyncPublisher.getInstance().publishEvent(eventSummary, severity, eventType, details); //never blocks, the publisher thread sends it
     }
 
     /*
@@ -224,8 +333,8 @@ public abstract class MyBaseInterceptor extends AGenericInterceptor {
             "clusterRollupType": "Values allowed: [INDIVIDUAL, COLLECTIVE]" }
      */
     protected  void reportMetric( String metricName, long metricValue, String aggregationType, String timeRollupType, String clusterRollupType ) {
-        this.getLogger().debug("Begin reportMetric name: "+ metricName +" = "+ metricValue +" aggregation type: "+ aggregationType + " time rollup type: "+ timeRollupType +" cluster rollup type: "+ clusterRollupType);
-        AppdynamicsAgent.getMetricPublisher().reportMetric(metricName, metricValue, aggregationType, timeRollupType, clusterRollupType );
-        this.getLogger().debug("Finish reportMetric name: "+ metricName +" = "+ metricValue +" aggregation type: "+ aggregationType + " time rollup type: "+ timeRollupType +" cluster rollup type: "+ clusterRollupType);
+        if( isDebugEnabled() )
+            getLogger().debug("Queue reportMetric name: "+ metricName +" = "+ metricValue +" aggregation type: "+ aggregationType + " time rollup type: "+ timeRollupType +" cluster rollup type: "+ clusterRollupType);
+        AsyncPublisher.getInstance().reportMetric(metricName, metricValue, aggregationType, timeRollupType, clusterRollupType ); //coalesced by name, guarded and published once a minute
     }
 }
@@ -9,110 +9,160 @@ import com.appdynamics.instrumentation.sdk.SDKStringMatchType;
 import com.appdynamics.instrumentation.sdk.toolbox.reflection.IReflector;
 
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class NiSourceApiClientExitCallInterceptor extends MyBaseInterceptor{
 
-    //private static final ConcurrentHashMap<Object, TransactionDictionary> transactionsMap = new ConcurrentHashMap<>();
-    //Scheduler scheduler;
+    ExitCallTracker exitCallTracker;
     IReflector getBasePath; //ApiClient
     IReflector getCode; //ApiException
-    IReflector accessOriginalRequestAttribute; //okhttp 2.7.5 com.squareup.okhttp.Call Request object
-    IReflector getUrl, getNewBuilder, addHeader, build; //com.squareup.okhttp.Request
+    IReflector accessOriginalRequestAttribute, setOriginalRequestAttribute; //okhttp 2.7.5 com.squareup.okhttp.Call Request object
+    IReflector getUrl, getNewBuilder, setHeader, build; //com.squareup.okhttp.Request
+    BackendDescriptorCache backendDescriptors = new BackendDescriptorCache();
+    BackendLatencyStats backendLatencyStats;
 
     public NiSourceApiClientExitCallInterceptor() {
         super();
-        //scheduler = Scheduler.getInstance(30000L, 120000L, transactionsMap);
+        exitCallTracker = new ExitCallTracker(pluginRuntime, getLogger());
+        backendLatencyStats = new BackendLatencyStats(pluginRuntime);
 
         getBasePath = makeInvokeInstanceMethodReflector("getBasePath"); //String, this should be the url of the target
 
         getCode = makeInvokeInstanceMethodReflector("getCode"); //Integer, on ApiException object called during ApiCallback.onFailure( param 0 )
 
         accessOriginalRequestAttribute = makeAccessFieldValueReflector("originalRequest"); //com.squareup.okhttp.Request
+        setOriginalRequestAttribute = makeFieldSetterReflector("originalRequest"); //not final in okhttp 2.x, read when the call is enqueued
 
         getUrl = makeInvokeInstanceMethodReflector("url"); //java.net.URL
 
         getNewBuilder = makeInvokeInstanceMethodReflector("newBuilder"); //Request
-        addHeader = makeInvokeInstanceMethodReflector("addHeader", String.class.getCanonicalName(), String.class.getCanonicalName()); //Builder
+        setHeader = makeInvokeInstanceMethodReflector("header", String.class.getCanonicalName(), String.class.getCanonicalName()); //Builder, replaces any header of the same name
         build = makeInvokeInstanceMethodReflector("build"); //Request
+
+        onConfigChange( getConfig() );
+        pluginMetrics.registerGauge("Exit Calls|Cached Backend Descriptors", backendDescriptors::size);
     }
 
     @Override
-    public Object onMethodBegin(Object objectIntercepted, String className, String methodName, Object[] params) {
-        /*
-        1 - intercept ApiClient.executeAsync(Call call, final Type returnType, final ApiCallback<T> callback), start exit call and tag callback for finish
-        2 - intercept ApiCallback.onFailure(ApiException, response.code(), response.headers().toMultimap())
-            and ApiCallback.onSuccess(result, response.code(), response.headers().toMultimap())
+    protected void onConfigChange( PluginConfig config ) {
+        super.onConfigChange(config);
+        if( backendDescriptors != null ) backendDescriptors.configure(config); //null while our constructor is still running
+        if( exitCallTracker != null ) exitCallTracker.configure(config);
+    }
 
-         */
-        ExitCall exitCall = null;
-        switch (methodName) {
-            case "executeAsync": {
-                Transaction transaction = AppdynamicsAgent.getTransaction();
-                if( isFakeTransaction(transaction) ) {
-                    getLogger().info(String.format("Oops, No active transaction found, missing BT for exit call!!!"));
-                    return null;
-                }
-                Object request = getReflectiveObject(params[0], accessOriginalRequestAttribute); //first parameter on executeAsync is the okhttpv2.7 Call
-                URL targetURL = (URL) getReflectiveObject(request, getUrl);
-
-                Map<String,String> descriptionMap = new HashMap<>();
-                descriptionMap.put("host", targetURL.getHost());
-                descriptionMap.put("port", String.valueOf(targetURL.getPort()));
-
-                exitCall = transaction.startHttpExitCall(descriptionMap, targetURL, true);
-                addCorrelationHeader( request, exitCall.getCorrelationHeader() );
-                exitCall.stash(params[2]); //stash the ApiCallback, third parameter, object for later callback
-                getLogger().debug(String.format("Stashing ExitCall %s on object %s", exitCall.getCorrelationHeader(), params[2]));
-                break;
+    @Override
+    protected Map<String,String> getListOfCustomProperties() {
+        Map<String,String> customProperties = super.getListOfCustomProperties();
+        customProperties.put(BackendDescriptorCache.BACKEND_ALIASES_PROPERTY, "");
+        customProperties.put(ExitCallTracker.EXIT_CALL_TIMEOUT_PROPERTY, String.valueOf(ExitCallTracker.DEFAULT_TIMEOUT_MS));
+        return customProperties;
+    }
+
+    /*
+    1 - intercept ApiClient.executeAsync(Call call, final Type returnType, final ApiCallback<T> callback), start exit call and tag callback for finish
+    2 - intercept ApiCallback.onFailure(ApiException, response.code(), response.headers().toMultimap())
+        and ApiCallback.onSuccess(result, response.code(), response.headers().toMultimap())
+     */
+    private class ExecuteAsync implements MethodDispatcher.Handler<ExitCall> {
+        @Override
+        public ExitCall begin( Object apiClient, String className, Object[] params ) {
+            Transaction transaction = AppdynamicsAgent.getTransaction();
+            if( isFakeTransaction(transaction) ) {
+                getLogger().info(String.format("Oops, No active transaction found, missing BT for exit call!!!"));
+                return null;
             }
-            case "onFailure": { }
-            case "onSuccess": {
-                exitCall = AppdynamicsAgent.fetchExitCall(objectIntercepted); //this is the ApiCallback stashed earlier, we will continue it
-                break;
+            Object request = getReflectiveObject(params[0], accessOriginalRequestAttribute); //first parameter on executeAsync is the okhttpv2.7 Call
+            URL targetURL = (URL) getReflectiveObject(request, getUrl);
+
+            if( targetURL == null ) {
+                getLogger().info(String.format("Oops, No target URL found on the okhttp request, missing exit call!!!"));
+                return null;
+            }
+
+            BackendDescriptorCache.Descriptor descriptor = backendDescriptors.getDescriptor(targetURL);
+            ExitCall exitCall = transaction.startHttpExitCall(descriptor.properties, targetURL, true);
+            addCorrelationHeader( params[0], request, exitCall.getCorrelationHeader() );
+            if( !exitCallTracker.start(params[2], exitCall, transaction, backendLatencyStats.getBackend(descriptor)) ) { //track the ApiCallback, third parameter, for the completion or the timeout
+                if( isDebugEnabled() ) debug("Exit call tracker is full, ending ExitCall %s now since we can't follow it to onSuccess/onFailure", exitCall.getCorrelationHeader());
+                exitCall.end();
+                return null;
             }
+            if( isDebugEnabled() ) debug("Tracking ExitCall %s on object %s", exitCall.getCorrelationHeader(), params[2]);
+            return exitCall;
         }
-        return exitCall;
-    }
 
-    private void addCorrelationHeader(Object request, String correlationHeader) {
-        getLogger().debug(String.format("Adding Correlation Header to Request: %s",correlationHeader));
-        if( request == null || correlationHeader == null ) return; //do nothing
-        Object builder = getReflectiveObject(request, getNewBuilder ); //Request.newBuilder()
-        builder = getReflectiveObject(builder, addHeader, AppdynamicsAgent.TRANSACTION_CORRELATION_HEADER, correlationHeader); //Request.Builder.addHeader(name, value)
-        request = getReflectiveObject(builder, build); //Request.Builder.build() returns a Request, let's try and swap the one we have for this new one
-        getLogger().debug(String.format("Added  Correlation Header to Request: %s",correlationHeader));
+        @Override
+        public void end( ExitCall exitCall, Object apiClient, String className, Object[] params, Throwable exception, Object returnVal ) {
+            if( exitCall == null || exception == null ) return;
+            TransactionDictionary transactionDictionary = exitCallTracker.complete(params[2]); //enqueue failed, there will be no callback
+            if( transactionDictionary == null ) return;
+            Transaction transaction = transactionDictionary.getTransaction();
+            ExitCall trackedExitCall = transactionDictionary.getExitCall();
+            if( transaction != null ) transaction.markAsError(String.format("ExitCall executeAsync Exception: %s", exception.getMessage()));
+            if( trackedExitCall != null ) trackedExitCall.end();
+            transactionDictionary.finish();
+        }
     }
 
-    @Override
-    public void onMethodEnd(Object state, Object object, String className, String methodName, Object[] params, Throwable exception, Object returnVal) {
-        if( state == null ) return; //nothing to do
-        ExitCall exitCall = (ExitCall) state;
-        switch (methodName) {
-            case "executeAsync": {
-                break;
+    private class Completion implements MethodDispatcher.Handler<TransactionDictionary> {
+        private final boolean failure;
+
+        Completion( boolean failure ) {
+            this.failure = failure;
+        }
+
+        @Override
+        public TransactionDictionary begin( Object callback, String className, Object[] params ) {
+            TransactionDictionary transactionDictionary = exitCallTracker.complete(callback); //null if it already timed out, the tracker ended it
+            if( transactionDictionary != null ) {
+                long latency = System.nanoTime() - transactionDictionary.getStartNanos();
+                int statusCode = failure ? getReflectiveInteger(params[0], getCode, -1) : statusCodeOf(params[1]);
+                ((BackendLatencyStats.Backend) transactionDictionary.getAttachment()).record(statusCode, latency);
             }
-            case "onFailure": {
+            return transactionDictionary;
+        }
+
+        @Override
+        public void end( TransactionDictionary transactionDictionary, Object callback, String className, Object[] params, Throwable exception, Object returnVal ) {
+            if( transactionDictionary == null ) return; //nothing to do
+            ExitCall exitCall = transactionDictionary.getExitCall();
+            Transaction transaction = transactionDictionary.getTransaction();
+            if( failure && transaction != null ) {
                 int responseCode = getReflectiveInteger(params[0], getCode, -1);
                 Throwable apiException = (Throwable) params[0];
-                AppdynamicsAgent.getTransaction().markAsError(String.format("ExitCall Error Code: %d Error Message: %s",responseCode,apiException.getMessage()));
-                getLogger().debug(String.format("Marking Transaction %s with Error: %s", AppdynamicsAgent.getTransaction().getUniqueIdentifier() , apiException.getMessage()));
+                transaction.markAsError(String.format("ExitCall Error Code: %d Error Message: %s",responseCode,(apiException == null ? null : apiException.getMessage())));
+                if( isDebugEnabled() ) debug("Marking Transaction %s with Error: %s", transaction.getUniqueIdentifier() , (apiException == null ? null : apiException.getMessage()));
             }
-            case "onSuccess": {
+            if( exitCall != null ) {
                 exitCall.end();
-                getLogger().debug(String.format("Ending ExitCall %s", exitCall.getCorrelationHeader()));
-                break;
+                if( isDebugEnabled() ) debug("Ending ExitCall %s", exitCall.getCorrelationHeader());
             }
+            transactionDictionary.finish();
         }
     }
 
+    private int statusCodeOf( Object code ) { //onSuccess(T result, int statusCode, Map headers)
+        return code instanceof Integer ? (Integer) code : -1;
+    }
+
+    /*
+    okhttp requests are immutable, so build one with the header and swap it into the Call before executeAsync enqueues it,
+    the Call only reads originalRequest when it runs, so the header goes out on the wire
+     */
+    private void addCorrelationHeader(Object call, Object request, String correlationHeader) {
+        debug("Adding Correlation Header to Request: %s",correlationHeader);
+        if( call == null || request == null || correlationHeader == null ) return; //do nothing
+        Object builder = getReflectiveObject(request, getNewBuilder ); //Request.newBuilder()
+        builder = getReflectiveObject(builder, setHeader, AppdynamicsAgent.TRANSACTION_CORRELATION_HEADER, correlationHeader); //Request.Builder.header(name, value)
+        Object correlatedRequest = getReflectiveObject(builder, build); //Request.Builder.build()
+        if( correlatedRequest != null && setReflectiveObject(call, setOriginalRequestAttribute, correlatedRequest) )
+            debug("Added  Correlation Header to Request: %s",correlationHeader);
+    }
+
     @Override
     public List<Rule> initializeRules() {
-        List<Rule> rules = new ArrayList<>();
+        MethodDispatcher methodDispatcher = new MethodDispatcher();
         /*
         From: com.nisource.remote.rest.generated.ApiClient
         import com.nisource.remote.rest.generated.ApiCallback;
@@ -141,22 +191,16 @@ public class NiSourceApiClientExitCallInterceptor extends MyBaseInterceptor{
             });
         }
          */
-        rules.add( new Rule.Builder(
-                "com.nisource.remote.rest.generated.ApiClient")
-                .classMatchType(SDKClassMatchType.MATCHES_CLASS)
-                .methodMatchString("executeAsync")
-                .methodStringMatchType(SDKStringMatchType.EQUALS)
-                .withParams("com.squareup.okhttp.Call", "java.lang.reflect.Type", "com.nisource.remote.rest.generated.ApiCallback")
-                .build()
-        );
-        rules.add( new Rule.Builder(
-                "com.nisource.remote.rest.generated.ApiClient")
-                .classMatchType(SDKClassMatchType.INHERITS_FROM_CLASS)
-                .methodMatchString("executeAsync")
-                .methodStringMatchType(SDKStringMatchType.EQUALS)
-                .withParams("com.squareup.okhttp.Call", "java.lang.reflect.Type", "com.nisource.remote.rest.generated.ApiCallback")
-                .build()
-        );
+        ExecuteAsync executeAsync = new ExecuteAsync();
+        for( SDKClassMatchType classMatchType : new SDKClassMatchType[]{ SDKClassMatchType.MATCHES_CLASS, SDKClassMatchType.INHERITS_FROM_CLASS } )
+            methodDispatcher.bind( new Rule.Builder(
+                    "com.nisource.remote.rest.generated.ApiClient")
+                    .classMatchType(classMatchType)
+                    .methodMatchString("executeAsync")
+                    .methodStringMatchType(SDKStringMatchType.EQUALS)
+                    .withParams("com.squareup.okhttp.Call", "java.lang.reflect.Type", "com.nisource.remote.rest.generated.ApiCallback")
+                    .build(), executeAsync
+            );
 
         /*
         From: com.nisource.remote.rest.generated.ApiCallback<T>
@@ -170,14 +214,8 @@ public class NiSourceApiClientExitCallInterceptor extends MyBaseInterceptor{
             public void onDownloadProgress(long var1, long var3, boolean var5);
         }
          */
-        for( String method : new String[]{"onSuccess", "onFailure"})
-            rules.add(new Rule.Builder(
-                    "com.nisource.remote.rest.generated.ApiCallback")
-                    .classMatchType(SDKClassMatchType.IMPLEMENTS_INTERFACE)
-                    .methodMatchString(method)
-                    .methodStringMatchType(SDKStringMatchType.EQUALS)
-                    .build()
-            );
-        return rules;
+        methodDispatcher.bind("com.nisource.remote.rest.generated.ApiCallback", SDKClassMatchType.IMPLEMENTS_INTERFACE, "onSuccess", new Completion(false));
+        methodDispatcher.bind("com.nisource.remote.rest.generated.ApiCallback", SDKClassMatchType.IMPLEMENTS_INTERFACE, "onFailure", new Completion(true));
+        return dispatch(methodDispatcher);
     }
 }
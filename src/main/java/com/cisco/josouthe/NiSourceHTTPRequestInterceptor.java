@@ -5,24 +5,22 @@ import com.appdynamics.agent.api.EntryTypes;
 import com.appdynamics.agent.api.Transaction;
 import com.appdynamics.instrumentation.sdk.Rule;
 import com.appdynamics.instrumentation.sdk.SDKClassMatchType;
-import com.appdynamics.instrumentation.sdk.SDKStringMatchType;
 import com.appdynamics.instrumentation.sdk.toolbox.reflection.IReflector;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class NiSourceHTTPRequestInterceptor extends MyBaseInterceptor {
+    private static final String HANDLER_INTERFACE = "com.nisource.remote.rest.handlers.RestResponseHandler";
 
-    private static final ConcurrentHashMap<Object, TransactionDictionary> transactionsMap = new ConcurrentHashMap<>();
-    Scheduler scheduler;
+    TransactionRegistry transactionRegistry;
+    DataCollector.Field handlerClassField, routeField, statusCodeField; //collected per BT, flushed when it ends
     IReflector getRequest; //https://vertx.io/docs/apidocs/io/vertx/ext/web/RoutingContext.html#request--
     IReflector getUri, getScheme, getMethod, getParams, getHost, getHeaders, getHeader; //methods on HttpServerRequest
     IReflector getMapNames, getMapEntry; //methods on MultiMap
 
     public NiSourceHTTPRequestInterceptor() {
         super();
-        scheduler = Scheduler.getInstance(30000L, 120000L, transactionsMap);
+        transactionRegistry = getTransactionRegistry();
 
         getRequest = makeInvokeInstanceMethodReflector("request" ); //returns HttpServerRequest object
 
@@ -37,12 +35,12 @@ public class NiSourceHTTPRequestInterceptor extends MyBaseInterceptor {
         getMapNames = makeInvokeInstanceMethodReflector("names"); //Set<String>
         getMapEntry = makeInvokeInstanceMethodReflector("get", "java.lang.String");
 
+        handlerClassField = dataCollector.declareField("Handler Class", HANDLER_INTERFACE);
+        routeField = dataCollector.declareField("Route", HANDLER_INTERFACE);
+        statusCodeField = dataCollector.declareField("Status Code", HANDLER_INTERFACE);
     }
 
-    @Override
-    public Object onMethodBegin(Object objectIntercepted, String className, String methodName, Object[] params) {
-        getLogger().debug(String.format("%s.%s() onMethodBegin firing",className,methodName));
-        /*
+    /*
         Object request = null;
         if( params.length > 0 ) {
             request = getReflectiveObject(params[0], getRequest);
@@ -55,28 +53,79 @@ public class NiSourceHTTPRequestInterceptor extends MyBaseInterceptor {
             return null;
         }
         Transaction transaction = AppdynamicsAgent.startServletTransaction( buildServletContext(request), EntryTypes.HTTP, getCorrelationHeader(request), false);
+     */
 
-
-         */
-        Transaction transaction = null;
-        switch (methodName) {
-            case "<init>": {
-                transaction = AppdynamicsAgent.startTransactionAndServiceEndPoint("BT-" + className, null, className, EntryTypes.POJO, true);
-                transactionsMap.put(objectIntercepted, new TransactionDictionary(transaction, objectIntercepted));
-                break;
+    /*
+    RestResponseHandler construction starts the BT, named after the vert.x route if one is handling the request, see RouteNamingEngine
+     */
+    private class Init implements MethodDispatcher.Handler<Transaction> {
+        @Override
+        public Transaction begin( Object handler, String className, Object[] params ) {
+            String routeName = RouteNamingEngine.getCurrentRouteName(); //already guarded, set while a vert.x route handler runs
+            if( !samplingEngine.sample(samplingEngine.needsUri() ? (routeName == null ? "BT-" + className : routeName) : null, false) ) { //rules match on the BT name here, there is no uri
+                debug("Request not sampled, no BT started for %s", className);
+                return null;
             }
-            case "onFailure": //fall through
-            case "onSuccess": {
-                TransactionDictionary transactionDictionary = transactionsMap.get(objectIntercepted);
-                transaction = transactionDictionary.getTransaction();
-                break;
+            Transaction transaction = AppdynamicsAgent.startTransactionAndServiceEndPoint((routeName == null ? getBusinessTransactionName(className) : routeName), null, className, EntryTypes.POJO, true);
+            TransactionDictionary transactionDictionary = new TransactionDictionary(transaction, handler);
+            DataCollector.Batch collectedData = dataCollector.newBatch();
+            collectedData.set(handlerClassField, className);
+            if( routeName != null ) collectedData.set(routeField, routeName);
+            transactionDictionary.setCollectedData(collectedData);
+            if( !transactionRegistry.track(handler, transactionDictionary) ) {
+                if( isDebugEnabled() ) debug("Transaction registry is full, ending BT %s now since we can't follow it to onSuccess/onFailure", transaction.getUniqueIdentifier());
+                transaction.end();
+                return null;
             }
-            default: {
-                getLogger().info(String.format("Unknown method handler: %s.%s()", className, methodName));
-                break;
+            transaction.markHandoff(handler); //onSuccess/onFailure pick it up from the handler itself, whatever thread completes it
+            return transaction;
+        }
+
+        @Override
+        public void end( Transaction transaction, Object handler, String className, Object[] params, Throwable exception, Object returnVal ) {
+            if( transaction != null && exception != null ) transaction.markAsError( exception.getMessage() );
+        }
+    }
+
+    /*
+    onSuccess(T result, int statusCode, Map headers) and onFailure(Throwable, int statusCode, Map headers) end the BT
+     */
+    private class Completion implements MethodDispatcher.Handler<Transaction> {
+        private final boolean failure;
+
+        Completion( boolean failure ) {
+            this.failure = failure;
+        }
+
+        @Override
+        public Transaction begin( Object handler, String className, Object[] params ) {
+            Transaction transaction = AppdynamicsAgent.startSegment(handler);
+            if( transaction != null && !isFakeTransaction(transaction) ) return transaction;
+            TransactionDictionary transactionDictionary = transactionRegistry.lookup(handler); //no handoff, e.g. the weak registry ended it already
+            return transactionDictionary == null ? null : transactionDictionary.getTransaction();
+        }
+
+        @Override
+        public void end( Transaction transaction, Object handler, String className, Object[] params, Throwable exception, Object returnVal ) {
+            if( isDebugEnabled() ) debug("%s.%s() onMethodEnd attempting to end transaction with uid: %s and error: %s",
+                    className, (failure ? "onFailure" : "onSuccess"),
+                    (transaction == null ? "transaction is null" : transaction.getUniqueIdentifier()),
+                    (exception == null ? "no exception passed" : exception.getMessage())
+            );
+            if( transaction == null ) return;
+            if( exception != null ) transaction.markAsError( exception.getMessage() );
+            TransactionDictionary transactionDictionary = transactionRegistry.take(handler);
+            DataCollector.Batch collectedData = transactionDictionary == null ? null : transactionDictionary.getCollectedData();
+            if( failure ) {
+                Throwable throwable = (Throwable) params[0];
+                Integer statusCode = (Integer) params[1];
+                transaction.markAsError(String.format("onFailure Status Code %s, Exception: %s",statusCode,throwable.getMessage()));
+                if( collectedData != null ) collectedData.set(statusCodeField, String.valueOf(statusCode));
             }
+            dataCollector.flush(transaction, collectedData);
+            transaction.end();
+            if( transactionDictionary != null ) transactionDictionary.finish();
         }
-        return transaction;
     }
 
     /*
@@ -134,50 +183,12 @@ public class NiSourceHTTPRequestInterceptor extends MyBaseInterceptor {
 
      */
 
-    @Override
-    public void onMethodEnd(Object state, Object object, String className, String methodName, Object[] params, Throwable exception, Object returnVal) {
-        Transaction transaction = (Transaction) state;
-        getLogger().debug(String.format("%s.%s() onMethodEnd attempting to end transaction with uid: %s and error: %s",
-                className, methodName,
-                (transaction == null ? "transaction is null" : transaction.getUniqueIdentifier()),
-                (exception == null ? "no exception passed" : exception.getMessage())
-        ));
-        if( transaction == null ) return;
-
-        if( exception != null ) transaction.markAsError( exception.getMessage() );
-        switch (methodName) {
-            case "<init>": {
-                break;
-            }
-            case "onFailure": { //fall through
-                Throwable throwable = (Throwable) params[0];
-                Integer statusCode = (Integer) params[1];
-                transaction.markAsError(String.format("onFailure Status Code %s, Exception: %s",statusCode,throwable.getMessage()));
-            }
-            case "onSuccess": {
-                transaction.end();
-                transactionsMap.get(object).finish();
-                break;
-            }
-            default: {
-                getLogger().info(String.format("Unknown method handler: %s.%s()", className, methodName));
-                break;
-            }
-        }
-
-    }
-
     @Override
     public List<Rule> initializeRules() {
-        List<Rule> rules = new ArrayList<>();
-        for( String method : new String[]{ "<init>", "onSuccess", "onFailure"} )
-            rules.add(new Rule.Builder(
-                    "com.nisource.remote.rest.handlers.RestResponseHandler")
-                    .classMatchType(SDKClassMatchType.IMPLEMENTS_INTERFACE)
-                    .methodMatchString(method)
-                    .methodStringMatchType(SDKStringMatchType.EQUALS)
-                    .build()
-            );
+        MethodDispatcher methodDispatcher = new MethodDispatcher()
+                .bind(HANDLER_INTERFACE, SDKClassMatchType.IMPLEMENTS_INTERFACE, "<init>", new Init())
+                .bind(HANDLER_INTERFACE, SDKClassMatchType.IMPLEMENTS_INTERFACE, "onSuccess", new Completion(false))
+                .bind(HANDLER_INTERFACE, SDKClassMatchType.IMPLEMENTS_INTERFACE, "onFailure", new Completion(true));
         /* nope
         rules.add(new Rule.Builder(
                 "com.nisource.endpoints.NisourceRouteHandlersBase")
@@ -204,6 +215,6 @@ public class NiSourceHTTPRequestInterceptor extends MyBaseInterceptor {
             );
         }
         */
-        return rules;
+        return dispatch(methodDispatcher);
     }
 }
@@ -0,0 +1,65 @@
+package com.cisco.josouthe;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+Immutable, already parsed snapshot of CustomPlugin.properties, a reload builds a whole new one and swaps the reference,
+so readers never lock and never see a half applied change
+ */
+public final class PluginConfig {
+    public static final String ANALYTICS_PROPERTY_SUFFIX = "-enableAnalyticsData";
+
+    private final Map<String,String> values;
+    private final Map<String,Boolean> analyticsEnabledByClass;
+    private final long lastModified;
+
+    public PluginConfig( Properties properties, long lastModified ) {
+        Map<String,String> values = new HashMap<>();
+        Map<String,Boolean> analyticsEnabledByClass = new HashMap<>();
+        for( String name : properties.stringPropertyNames() ) {
+            String value = properties.getProperty(name).trim();
+            values.put(name, value);
+            if( name.endsWith(ANALYTICS_PROPERTY_SUFFIX) )
+                analyticsEnabledByClass.put( name.substring(0, name.length() - ANALYTICS_PROPERTY_SUFFIX.length()), "true".equalsIgnoreCase(value) );
+        }
+        this.values = Collections.unmodifiableMap(values);
+        this.analyticsEnabledByClass = Collections.unmodifiableMap(analyticsEnabledByClass);
+        this.lastModified = lastModified;
+    }
+
+    public long getLastModified() { return lastModified; }
+
+    public String getString( String name, String defaultValue ) {
+        String value = values.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    public boolean getBoolean( String name, boolean defaultValue ) {
+        String value = values.get(name);
+        return value == null ? defaultValue : "true".equalsIgnoreCase(value);
+    }
+
+    public long getLong( String name, long defaultValue ) {
+        String value = values.get(name);
+        if( value == null ) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public boolean isAnalyticsEnabledForClass( String className ) {
+        Boolean enabled = analyticsEnabledByClass.get(className);
+        return enabled == null || enabled;
+    }
+
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.putAll(values);
+        return properties;
+    }
+}
@@ -0,0 +1,121 @@
+package com.cisco.josouthe;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+Self instrumentation of the plugin, interceptors record into thread striped histograms and counters that are only ever aggregated
+and published from the Scheduler thread once a minute, nothing here publishes a per request value
+    Custom Metrics|NiSource Plugin|<Interceptor>|onMethodBegin|Overhead Average (ns), Overhead 99th Percentile (ns), Overhead Max (ns), Calls
+    Custom Metrics|NiSource Plugin|<gauge name>, e.g. Transaction Registry|In-Flight Transactions, Plugin Runtime|Config File Reads
+    Custom Metrics|NiSource Plugin|<counter name>, e.g. Sampling|Skipped Requests
+    Custom Metrics|NiSource Plugin|Reflection Failures
+ */
+public class PluginMetrics {
+    public static final String METRIC_PREFIX = "Custom Metrics|NiSource Plugin|";
+    private static final long FLUSH_INTERVAL_MS = 60000;
+    private static PluginMetrics instance = null;
+
+    private final AsyncPublisher publisher = AsyncPublisher.getInstance();
+    private final ConcurrentHashMap<String, OverheadRecorder> overheadRecorders = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final LongAdder reflectionFailures = new LongAdder();
+    private final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot(); //only used on the Scheduler thread
+
+    public synchronized static PluginMetrics getInstance( Scheduler scheduler ) {
+        if( instance == null ) {
+            instance = new PluginMetrics();
+            scheduler.addPeriodicTask(instance::flush, FLUSH_INTERVAL_MS);
+        }
+        return instance;
+    }
+
+    public OverheadRecorder getOverheadRecorder( String interceptorName, String phase ) {
+        return overheadRecorders.computeIfAbsent(interceptorName +"|"+ phase, name -> new OverheadRecorder());
+    }
+
+    public void registerGauge( String name, LongSupplier supplier ) {
+        gauges.putIfAbsent(name, supplier);
+    }
+
+    /*
+    counters are summed per interval, the value is reset every time it is published
+     */
+    public LongAdder getCounter( String name ) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public long getGaugeValue( String name ) {
+        LongSupplier supplier = gauges.get(name);
+        return supplier == null ? 0 : supplier.getAsLong();
+    }
+
+    /*
+    worst interceptor overhead percentile so far this interval, read without draining so the next flush still publishes it
+    only call this from the Scheduler thread, it shares the flush snapshot
+     */
+    long peekOverheadPercentile( double percentile ) {
+        long worst = 0;
+        for( OverheadRecorder recorder : overheadRecorders.values() ) {
+            snapshot.reset();
+            recorder.copyTo(snapshot);
+            worst = Math.max(worst, snapshot.getPercentile(percentile));
+        }
+        return worst;
+    }
+
+    public void reflectionFailure() {
+        reflectionFailures.increment();
+    }
+
+    void flush() {
+        for( Map.Entry<String, OverheadRecorder> entry : overheadRecorders.entrySet() ) {
+            snapshot.reset();
+            entry.getValue().drainTo(snapshot);
+            if( snapshot.getCount() == 0 ) continue;
+            String name = METRIC_PREFIX + entry.getKey();
+            publisher.reportMetric(name +"|Overhead Average (ns)", snapshot.getAverage(), "AVERAGE", "AVERAGE", "INDIVIDUAL");
+            publisher.reportMetric(name +"|Overhead 99th Percentile (ns)", snapshot.getPercentile(99), "OBSERVATION", "CURRENT", "INDIVIDUAL");
+            publisher.reportMetric(name +"|Overhead Max (ns)", snapshot.getMax(), "OBSERVATION", "CURRENT", "INDIVIDUAL");
+            publisher.reportMetric(name +"|Calls", snapshot.getCount(), "SUM", "SUM", "COLLECTIVE");
+        }
+        for( Map.Entry<String, LongSupplier> entry : gauges.entrySet() )
+            publisher.reportMetric(METRIC_PREFIX + entry.getKey(), entry.getValue().getAsLong(), "OBSERVATION", "CURRENT", "COLLECTIVE");
+        for( Map.Entry<String, LongAdder> entry : counters.entrySet() )
+            publisher.reportMetric(METRIC_PREFIX + entry.getKey(), entry.getValue().sumThenReset(), "SUM", "SUM", "COLLECTIVE");
+        publisher.reportMetric(METRIC_PREFIX +"Reflection Failures", reflectionFailures.sumThenReset(), "SUM", "SUM", "COLLECTIVE");
+    }
+
+    /*
+    a fixed set of histograms striped by thread id, sized for the event loops (2 per core) so they rarely share one, recording is
+    lock free so sharing a stripe is only a cache line bounce, memory stays the same however many pool threads come and go
+     */
+    public static class OverheadRecorder {
+        private static final int MAX_STRIPES = 64;
+        private final LatencyHistogram[] stripes;
+        private final int stripeMask;
+
+        OverheadRecorder() {
+            int stripeCount = 1;
+            while( stripeCount < Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors() * 2) ) stripeCount <<= 1;
+            stripes = new LatencyHistogram[stripeCount];
+            for( int i=0; i< stripeCount; i++ ) stripes[i] = new LatencyHistogram();
+            stripeMask = stripeCount -1;
+        }
+
+        public void record( long nanos ) {
+            stripes[ (int) Thread.currentThread().getId() & stripeMask ].record(nanos);
+        }
+
+        void drainTo( LatencyHistogram.Snapshot snapshot ) {
+            for( LatencyHistogram histogram : stripes ) histogram.drainTo(snapshot);
+        }
+
+        void copyTo( LatencyHistogram.Snapshot snapshot ) {
+            for( LatencyHistogram histogram : stripes ) histogram.copyTo(snapshot);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.apm.appagent.api.DataScope;
+import com.appdynamics.instrumentation.sdk.logging.ISDKLogger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Everything the interceptors share, created exactly once per JVM by whichever interceptor is constructed first:
+reads CustomPlugin.properties once, builds the DataScope sets once, and starts the Scheduler, publisher and metrics once
+each interceptor then registers its own defaults, keys missing from the file get written back once from the Scheduler thread
+instead of every interceptor rewriting the whole file during agent startup
+ */
+public final class PluginRuntime {
+    public static final String DISABLE_ANALYTICS_COLLECTION_PROPERTY = "disablePluginAnalytics";
+    public static final String PLUGIN_PROPERTIES_FILE_NAME = "CustomPlugin.properties";
+    private static final long CONFIG_CHECK_MS = 10000;
+    private static final long LOG_LEVEL_REFRESH_MS = 30000;
+    private static final long SAVE_CHECK_MS = 5000;
+    private static volatile PluginRuntime instance = null;
+    private static PluginConfig startupSnapshot = null; //what getStartupConfig() read before the runtime existed, guarded by PluginRuntime.class
+    private static File startupSnapshotFile = null;
+    private static int startupSnapshotReads = 0; //file reads getStartupConfig() made, the runtime counts them as its own
+
+    private final File configFile;
+    private final ISDKLogger logger;
+    private final Set<DataScope> dataScopes;
+    private final Set<DataScope> snapshotDataScopeOnly;
+    private final Scheduler scheduler;
+    private final PluginMetrics pluginMetrics;
+    private final Properties defaultProperties = new Properties(); //guarded by this
+    private final CopyOnWriteArrayList<MyBaseInterceptor> interceptors = new CopyOnWriteArrayList<>();
+    private final AtomicInteger configReadCount = new AtomicInteger();
+    private final AtomicInteger configWriteCount = new AtomicInteger();
+    private final long startupTimeMS;
+    private volatile PluginConfig config;
+    private volatile boolean saveNeeded = false;
+
+    public static PluginRuntime getInstance( String agentPluginDirectory, ISDKLogger logger ) {
+        PluginRuntime runtime = instance;
+        if( runtime == null ) {
+            synchronized (PluginRuntime.class) {
+                runtime = instance;
+                if( runtime == null ) instance = runtime = new PluginRuntime(agentPluginDirectory, logger);
+            }
+        }
+        return runtime;
+    }
+
+    /*
+    forget the runtime and the startup snapshot, so a test can start the plugin over against a fresh config file, the Scheduler,
+    publisher and metrics stay, like everything else created once per jvm
+     */
+    static synchronized void reset() {
+        instance = null;
+        startupSnapshot = null;
+        startupSnapshotFile = null;
+        startupSnapshotReads = 0;
+    }
+
+    private PluginRuntime( String agentPluginDirectory, ISDKLogger logger ) {
+        long start = System.nanoTime();
+        this.logger = logger;
+        this.configFile = configFileIn(agentPluginDirectory);
+        Set<DataScope> dataScopes = EnumSet.of(DataScope.SNAPSHOTS);
+        if( System.getProperty(DISABLE_ANALYTICS_COLLECTION_PROPERTY,"false").equalsIgnoreCase("false") ) {
+            dataScopes.add(DataScope.ANALYTICS);
+            logger.info("Enabling Analytics Collection of Plugin Custom Data, to disable add JVM property -D"+ DISABLE_ANALYTICS_COLLECTION_PROPERTY +"=true");
+        }
+        this.dataScopes = Collections.unmodifiableSet(dataScopes);
+        this.snapshotDataScopeOnly = Collections.unmodifiableSet(EnumSet.of(DataScope.SNAPSHOTS));
+        this.config = takeStartupSnapshot();
+        if( this.config == null ) this.config = readConfig();
+        this.scheduler = Scheduler.getInstance(config.getLong(Scheduler.TICK_TIME_PROPERTY, Scheduler.DEFAULT_TICK_TIME_MS), Scheduler.DEFAULT_AGE_TO_DISCARD_MS); //tick is read once, the wheel can't change it
+        AsyncPublisher.getInstance();
+        this.pluginMetrics = PluginMetrics.getInstance(scheduler);
+        scheduler.addPeriodicTask(this::checkForConfigChange, CONFIG_CHECK_MS);
+        scheduler.addPeriodicTask(this::refreshLogLevels, LOG_LEVEL_REFRESH_MS);
+        scheduler.addPeriodicTask(this::saveIfNeeded, SAVE_CHECK_MS);
+        this.startupTimeMS = (System.nanoTime() - start) / 1000000L;
+        pluginMetrics.registerGauge("Plugin Runtime|Config File Reads", configReadCount::get);
+        pluginMetrics.registerGauge("Plugin Runtime|Config File Writes", configWriteCount::get);
+        pluginMetrics.registerGauge("Plugin Runtime|Startup Time (ms)", () -> startupTimeMS);
+        pluginMetrics.registerGauge("Plugin Runtime|Cleaner Failed Ticks", scheduler::getFailedTicks);
+        pluginMetrics.registerGauge("Plugin Runtime|Cleaner Failed Expiries", scheduler::getFailedExpiries);
+        logger.info(String.format("Initialized plugin runtime in %dms version %s build date %s", startupTimeMS, MetaData.VERSION, MetaData.BUILDTIMESTAMP));
+    }
+
+    private static File configFileIn( String agentPluginDirectory ) {
+        return new File(agentPluginDirectory + System.getProperty("file.separator", "/") + PLUGIN_PROPERTIES_FILE_NAME);
+    }
+
+    /*
+    for decisions made in initializeRules(), which runs in the ASDKPlugin constructor before there is a logger to build the runtime with,
+    the running config if the runtime exists already, otherwise just what the file says, callers supply their own defaults
+     */
+    public static PluginConfig getStartupConfig( String agentPluginDirectory ) {
+        PluginRuntime runtime = instance;
+        if( runtime != null ) return runtime.getConfig();
+        synchronized (PluginRuntime.class) {
+            if( instance != null ) return instance.getConfig();
+            File configFile = configFileIn(agentPluginDirectory);
+            if( startupSnapshot != null && configFile.equals(startupSnapshotFile) ) return startupSnapshot;
+            Properties properties = new Properties();
+            long lastModified = configFile.lastModified();
+            if( configFile.canRead() ) {
+                startupSnapshotReads++;
+                try (InputStream is = new FileInputStream(configFile)) {
+                    properties.load(is);
+                } catch (Exception e) {
+                    //defaults it is, the runtime logs the read error when it loads the file itself
+                }
+            }
+            startupSnapshotFile = configFile;
+            return startupSnapshot = new PluginConfig(properties, lastModified);
+        }
+    }
+
+    /*
+    the constructor's config, the snapshot getStartupConfig() read if the file hasn't changed since, so startup reads it once either
+    way, null when there is no usable snapshot, the reads getStartupConfig() made are counted as this runtime's
+     */
+    private PluginConfig takeStartupSnapshot() {
+        synchronized (PluginRuntime.class) {
+            PluginConfig snapshot = startupSnapshot;
+            File snapshotFile = startupSnapshotFile;
+            configReadCount.addAndGet(startupSnapshotReads);
+            startupSnapshot = null;
+            startupSnapshotFile = null;
+            startupSnapshotReads = 0;
+            if( snapshot == null || !configFile.equals(snapshotFile) || configFile.lastModified() != snapshot.getLastModified() ) return null;
+            return snapshot;
+        }
+    }
+
+    /*
+    add an interceptor's defaults under whatever the file already says, and start telling it about config changes
+     */
+    public void register( MyBaseInterceptor interceptor, Properties interceptorDefaults ) {
+        synchronized (this) {
+            PluginConfig current = this.config;
+            for( String name : interceptorDefaults.stringPropertyNames() ) {
+                if( defaultProperties.getProperty(name) == null ) defaultProperties.setProperty(name, interceptorDefaults.getProperty(name));
+                if( current.getString(name, null) == null ) saveNeeded = true;
+            }
+            this.config = merge(current);
+        }
+        interceptors.add(interceptor);
+    }
+
+    public PluginConfig getConfig() { return config; }
+    public Set<DataScope> getDataScopes() { return dataScopes; }
+    public Set<DataScope> getSnapshotDataScopeOnly() { return snapshotDataScopeOnly; }
+    public Scheduler getScheduler() { return scheduler; }
+    public PluginMetrics getPluginMetrics() { return pluginMetrics; }
+    public int getConfigReadCount() { return configReadCount.get(); }
+    public int getConfigWriteCount() { return configWriteCount.get(); }
+    public long getStartupTimeMS() { return startupTimeMS; }
+
+    private PluginConfig merge( PluginConfig fileConfig ) {
+        Properties properties = new Properties();
+        properties.putAll(defaultProperties);
+        properties.putAll(fileConfig.toProperties());
+        return new PluginConfig(properties, fileConfig.getLastModified());
+    }
+
+    /*
+    defaults overlaid with whatever is in the file right now, parsed into a new immutable snapshot
+     */
+    private PluginConfig readConfig() {
+        Properties properties = new Properties();
+        synchronized (this) {
+            properties.putAll(defaultProperties);
+        }
+        long lastModified = configFile.lastModified();
+        if( configFile.canRead() ) {
+            configReadCount.incrementAndGet();
+            try (InputStream is = new FileInputStream(configFile)) {
+                properties.load(is);
+            } catch (Exception e) {
+                logger.info("Error reading properties file, exception: "+ e.getMessage(), e);
+            }
+        }
+        return new PluginConfig(properties, lastModified);
+    }
+
+    /*
+    runs on the Scheduler thread, polls the file modification time and swaps in a new snapshot when it changes
+     */
+    void checkForConfigChange() {
+        PluginConfig newConfig;
+        synchronized (this) { //same lock as register(), so defaults registered while we read can't be lost by the swap
+            if( configFile.lastModified() == config.getLastModified() ) return;
+            newConfig = readConfig();
+            this.config = newConfig;
+        }
+        logger.info(String.format("Reloaded %s", PLUGIN_PROPERTIES_FILE_NAME));
+        for( MyBaseInterceptor interceptor : interceptors ) interceptor.onConfigChange(newConfig);
+    }
+
+    private void refreshLogLevels() {
+        for( MyBaseInterceptor interceptor : interceptors ) interceptor.refreshLogLevels();
+    }
+
+    synchronized void saveIfNeeded() {
+        if( !saveNeeded ) return;
+        saveNeeded = false;
+        try {
+            if( !configFile.canRead() ) configFile.createNewFile();
+            try (OutputStream out = new FileOutputStream(configFile)) {
+                config.toProperties().store(out, "Writing current properties to file for next load");
+            }
+            configWriteCount.incrementAndGet();
+            this.config = new PluginConfig(config.toProperties(), configFile.lastModified()); //don't reload our own write
+        } catch (Exception e) {
+            logger.info("Error saving properties file, exception: "+ e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.cisco.josouthe;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+BT names from the vert.x web route that is handling the request, e.g. "GET /customers/:id", instead of a class name or the raw uri
+    the route's path template is read once per Route object and kept in a copy on write identity map, routes are created at startup,
+        past MAX_ROUTES (routes built per request by an app) paths are resolved on every call instead of cached
+    while a route's handler runs, its name is the current route name of that thread, so anything that starts a BT underneath it
+        (RestResponseHandler.<init>) can use it, nested routes (ctx.next()) save and restore the outer name
+    routes without a path (regex routes, router.route() catch alls) fall back to a trie of routePatterns from CustomPlugin.properties,
+        e.g. routePatterns=/customers/:id,/customers/:id/orders,/static/*, matched one path segment at a time, O(path length)
+ */
+public class RouteNamingEngine {
+    public static final String ROUTE_NAMING_PROPERTY = "routeNaming";
+    public static final String ROUTE_PATTERNS_PROPERTY = "routePatterns";
+    private static final String NO_PATH = new String(""); //cached for routes with no path template, compared by identity
+    private static final int MAX_ROUTES = 1000;
+    private static final ThreadLocal<String> currentRouteName = new ThreadLocal<>();
+    private static RouteNamingEngine instance = null;
+
+    private volatile IdentityHashMap<Object, String> routePaths = new IdentityHashMap<>(); //never modified once published
+    private volatile PatternTrie patternTrie = new PatternTrie("");
+
+    public synchronized static RouteNamingEngine getInstance() {
+        if( instance == null ) instance = new RouteNamingEngine();
+        return instance;
+    }
+
+    /*
+    the name of the route currently handling a request on this thread, null outside of a route handler
+     */
+    public static String getCurrentRouteName() {
+        return currentRouteName.get();
+    }
+
+    public void configure( PluginConfig config ) {
+        String patterns = config.getString(ROUTE_PATTERNS_PROPERTY, "");
+        if( !patterns.equals(patternTrie.source) ) patternTrie = new PatternTrie(patterns);
+    }
+
+    /*
+    cached path template of this route, resolving it with the supplied lookup the first time we see the route
+     */
+    public String getRoutePath( Object route, PathResolver resolver ) {
+        String path = routePaths.get(route);
+        if( path == null ) {
+            path = resolver.getPath(route);
+            if( path == null || path.isEmpty() ) path = NO_PATH;
+            if( routePaths.size() < MAX_ROUTES ) {
+                synchronized (this) {
+                    if( routePaths.size() < MAX_ROUTES ) {
+                        IdentityHashMap<Object, String> copy = new IdentityHashMap<>(routePaths);
+                        copy.put(route, path);
+                        routePaths = copy;
+                    }
+                }
+            }
+        }
+        return path == NO_PATH ? null : path;
+    }
+
+    public int size() { return routePaths.size(); }
+
+    /*
+    "METHOD template", from the route's own path if it has one, otherwise from the pattern trie, null if neither knows this request
+     */
+    public String nameFor( String method, String routePath, String requestPath ) {
+        String template = routePath != null ? routePath : patternTrie.match(requestPath);
+        if( template == null ) return null;
+        return method == null ? template : method +" "+ template;
+    }
+
+    /*
+    returns the previous name, hand it back to exit() when the route handler returns
+     */
+    public String enter( String routeName ) {
+        String previous = currentRouteName.get();
+        currentRouteName.set(routeName);
+        return previous;
+    }
+
+    public void exit( String previousRouteName ) {
+        if( previousRouteName == null ) {
+            currentRouteName.remove();
+        } else {
+            currentRouteName.set(previousRouteName);
+        }
+    }
+
+    public interface PathResolver {
+        String getPath( Object route );
+    }
+
+    /*
+    one node per path segment, literal children in a map, ":name" segments become the node's parameter child and a trailing "*"
+    matches the rest of the path, literals win over parameters, immutable once built
+     */
+    static class PatternTrie {
+        final String source;
+        private final Node root = new Node();
+
+        PatternTrie( String source ) {
+            this.source = source;
+            for( String pattern : source.split(",") ) {
+                pattern = pattern.trim();
+                if( !pattern.isEmpty() ) add(pattern);
+            }
+        }
+
+        private void add( String pattern ) {
+            Node node = root;
+            int start = 0;
+            int length = pattern.length();
+            while( start < length ) {
+                if( pattern.charAt(start) == '/' ) {
+                    start++;
+                    continue;
+                }
+                int end = pattern.indexOf('/', start);
+                if( end < 0 ) end = length;
+                String segment = pattern.substring(start, end);
+                if( "*".equals(segment) ) {
+                    node.wildcard = pattern;
+                    return;
+                }
+                if( segment.charAt(0) == ':' ) {
+                    if( node.parameter == null ) node.parameter = new Node();
+                    node = node.parameter;
+                } else {
+                    Node child = node.children.get(segment);
+                    if( child == null ) node.children.put(segment, child = new Node());
+                    node = child;
+                }
+                start = end;
+            }
+            node.pattern = pattern;
+        }
+
+        String match( String path ) {
+            if( path == null ) return null;
+            return match(root, path, 0);
+        }
+
+        private String match( Node node, String path, int start ) {
+            int length = path.length();
+            while( start < length && path.charAt(start) == '/' ) start++;
+            if( start >= length ) return node.pattern != null ? node.pattern : node.wildcard;
+            int end = path.indexOf('/', start);
+            if( end < 0 ) end = length;
+            if( !node.children.isEmpty() ) {
+                Node child = node.children.get( path.substring(start, end) );
+                if( child != null ) {
+                    String match = match(child, path, end);
+                    if( match != null ) return match;
+                }
+            }
+            if( node.parameter != null ) {
+                String match = match(node.parameter, path, end);
+                if( match != null ) return match;
+            }
+            return node.wildcard;
+        }
+
+        private static class Node {
+            final Map<String, Node> children = new HashMap<>();
+            Node parameter = null;
+            String pattern = null; //set on the node a pattern ends at
+            String wildcard = null; //pattern ending in /* at this node
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.instrumentation.sdk.logging.ISDKLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Decides whether a new request gets a BT at all, so under peak load we can stop paying for servlet context reflection,
+transaction start and registry insertion on every single request
+    samplingRate=1.0 fixed fraction of requests that start a BT, 1.0 keeps everything and never touches the random generator
+    samplingRules=/health*=0,/api/customers*=0.25 per uri rates, first match wins, a trailing * is a prefix match, anything else must be equal
+    samplingAdaptive=false when true the rate is halved every adjustment while the p99 interceptor overhead is above
+        samplingOverheadThresholdNS or the in-flight transaction count is above samplingInFlightThreshold, and creeps back up
+        toward the configured rate when both are below, it never drops under samplingMinimumRate, per uri rates are scaled by the same factor
+requests that arrive with a correlation header are always kept, dropping them would break the caller's distributed trace
+ */
+public class SamplingEngine {
+    public static final String SAMPLING_RATE_PROPERTY = "samplingRate";
+    public static final String SAMPLING_RULES_PROPERTY = "samplingRules";
+    public static final String ADAPTIVE_PROPERTY = "samplingAdaptive";
+    public static final String OVERHEAD_THRESHOLD_PROPERTY = "samplingOverheadThresholdNS";
+    public static final String IN_FLIGHT_THRESHOLD_PROPERTY = "samplingInFlightThreshold";
+    public static final String MINIMUM_RATE_PROPERTY = "samplingMinimumRate";
+    private static final String IN_FLIGHT_GAUGE = "Transaction Registry|In-Flight Transactions";
+    private static final long ADJUST_INTERVAL_MS = 5000;
+    private static final int SCALE = 1000000; //rates are kept as parts per million so the hot path compares ints
+    private static SamplingEngine instance = null;
+
+    private final PluginRuntime pluginRuntime;
+    private final ISDKLogger logger;
+    private final LongAdder sampledRequests, skippedRequests;
+    private volatile Settings settings;
+    private volatile int effectiveRate; //samplingRate after adaptive adjustment
+
+    public synchronized static SamplingEngine getInstance( PluginRuntime pluginRuntime, ISDKLogger logger ) {
+        if( instance == null ) {
+            instance = new SamplingEngine(pluginRuntime, logger);
+            pluginRuntime.getScheduler().addPeriodicTask(instance::adjust, ADJUST_INTERVAL_MS);
+        }
+        return instance;
+    }
+
+    private SamplingEngine( PluginRuntime pluginRuntime, ISDKLogger logger ) {
+        this.pluginRuntime = pluginRuntime;
+        this.logger = logger;
+        this.settings = new Settings(pluginRuntime.getConfig());
+        this.effectiveRate = settings.rate;
+        PluginMetrics pluginMetrics = pluginRuntime.getPluginMetrics();
+        this.sampledRequests = pluginMetrics.getCounter("Sampling|Sampled Requests");
+        this.skippedRequests = pluginMetrics.getCounter("Sampling|Skipped Requests");
+        pluginMetrics.registerGauge("Sampling|Effective Rate (%)", () -> effectiveRate / (SCALE / 100));
+    }
+
+    /*
+    true when getting the uri costs something and the answer depends on it, callers pass null otherwise
+     */
+    public boolean needsUri() {
+        return settings.patterns.length > 0;
+    }
+
+    public boolean sample( String uri, boolean correlated ) {
+        if( correlated ) {
+            sampledRequests.increment();
+            return true;
+        }
+        int rate = rateFor(uri);
+        boolean keep = rate >= SCALE || ( rate > 0 && ThreadLocalRandom.current().nextInt(SCALE) < rate );
+        if( keep ) {
+            sampledRequests.increment();
+        } else {
+            skippedRequests.increment();
+        }
+        return keep;
+    }
+
+    private int rateFor( String uri ) {
+        Settings settings = this.settings;
+        if( uri != null ) {
+            for( int i=0; i< settings.patterns.length; i++ ) {
+                String pattern = settings.patterns[i];
+                boolean matches = settings.prefixes[i] ? uri.startsWith(pattern) : uri.equals(pattern);
+                if( !matches ) continue;
+                if( settings.rate == 0 || effectiveRate == settings.rate ) return settings.rates[i];
+                return (int) ( (long) settings.rates[i] * effectiveRate / settings.rate ); //shed load on matched uris by the same factor
+            }
+        }
+        return effectiveRate;
+    }
+
+    /*
+    runs on the Scheduler thread, picks up config changes and, in adaptive mode, multiplicative decrease / additive increase of the rate
+     */
+    void adjust() {
+        PluginConfig config = pluginRuntime.getConfig();
+        Settings settings = this.settings;
+        if( config != settings.config ) {
+            settings = new Settings(config);
+            this.settings = settings;
+            if( !settings.adaptive ) effectiveRate = settings.rate;
+        }
+        if( !settings.adaptive ) return;
+        PluginMetrics pluginMetrics = pluginRuntime.getPluginMetrics();
+        long overhead = pluginMetrics.peekOverheadPercentile(99);
+        long inFlight = pluginMetrics.getGaugeValue(IN_FLIGHT_GAUGE);
+        int rate = effectiveRate;
+        int newRate;
+        if( overhead > settings.overheadThresholdNS || inFlight > settings.inFlightThreshold ) {
+            newRate = Math.max(settings.minimumRate, rate / 2);
+        } else {
+            newRate = Math.min(settings.rate, rate + SCALE / 20);
+        }
+        if( newRate != rate ) {
+            effectiveRate = newRate;
+            logger.info(String.format("Adaptive sampling rate changed from %.4f to %.4f, p99 overhead %dns in-flight transactions %d", rate / (double) SCALE, newRate / (double) SCALE, overhead, inFlight));
+        }
+    }
+
+    private static int toRate( String value, int defaultRate ) {
+        try {
+            double rate = Double.parseDouble(value.trim());
+            if( rate <= 0 ) return 0;
+            if( rate >= 1 ) return SCALE;
+            return (int) (rate * SCALE);
+        } catch (NumberFormatException | NullPointerException e) {
+            return defaultRate;
+        }
+    }
+
+    /*
+    parsed once per config snapshot, never modified after construction
+     */
+    private static class Settings {
+        final PluginConfig config;
+        final int rate, minimumRate;
+        final boolean adaptive;
+        final long overheadThresholdNS, inFlightThreshold;
+        final String[] patterns;
+        final boolean[] prefixes;
+        final int[] rates;
+
+        Settings( PluginConfig config ) {
+            this.config = config;
+            this.rate = toRate(config.getString(SAMPLING_RATE_PROPERTY, "1.0"), SCALE);
+            this.minimumRate = Math.min(rate, toRate(config.getString(MINIMUM_RATE_PROPERTY, "0.01"), SCALE / 100));
+            this.adaptive = config.getBoolean(ADAPTIVE_PROPERTY, false);
+            this.overheadThresholdNS = config.getLong(OVERHEAD_THRESHOLD_PROPERTY, 100000L);
+            this.inFlightThreshold = config.getLong(IN_FLIGHT_THRESHOLD_PROPERTY, 100000L);
+            List<String> patterns = new ArrayList<>();
+            List<Integer> rates = new ArrayList<>();
+            for( String rule : config.getString(SAMPLING_RULES_PROPERTY, "").split(",") ) {
+                int equals = rule.lastIndexOf('=');
+                if( equals <= 0 ) continue;
+                patterns.add(rule.substring(0, equals).trim());
+                rates.add(toRate(rule.substring(equals +1), SCALE));
+            }
+            this.patterns = new String[patterns.size()];
+            this.prefixes = new boolean[patterns.size()];
+            this.rates = new int[patterns.size()];
+            for( int i=0; i< patterns.size(); i++ ) {
+                String pattern = patterns.get(i);
+                this.prefixes[i] = pattern.endsWith("*");
+                this.patterns[i] = prefixes[i] ? pattern.substring(0, pattern.length() -1) : pattern;
+                this.rates[i] = rates.get(i);
+            }
+        }
+    }
+}
@@ -1,30 +1,61 @@
 package com.cisco.josouthe;
 
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/*
+Hashed timing wheel for expiring TransactionDictionary entries, each tick only looks at the one bucket whose deadline has come up
+instead of walking every map, entries that were touched since they were scheduled get pushed forward to their new deadline bucket
+entries expire after ageToDiscard unless they carry their own timeout, and an entry's ExpiryHandler can act on it or keep it
+concurrency, schedule() runs on any thread while this thread drains buckets:
+    every copy of an entry in the wheel remembers the tick it was scheduled for and the entry remembers its latest one, so a copy
+        that isn't the latest is stale and skipped, that makes it safe to schedule an entry again whenever in doubt
+    drainingTick is published before a bucket is drained, schedule() re-reads it after adding and schedules again if its bucket
+        may already have been drained, so no entry is stranded in a bucket this thread won't look at for a whole rotation
+    entries that go back on the wheel are held until the bucket is empty, so a drain always ends
+    an entry dropped here is removed from its registry with remove(key, entry), only one of that and the owner's take() can win,
+        whoever wins ends it, see TransactionRegistry.abandon()
+    nothing a tick does can kill this thread, a failing tick is counted and the next one runs as usual
+ */
 public class Scheduler extends Thread {
+    public static final String TICK_TIME_PROPERTY = "cleanerTickMS";
+    public static final long DEFAULT_TICK_TIME_MS = 5000;
+    public static final long DEFAULT_AGE_TO_DISCARD_MS = 120000;
     private static final String THREAD_NAME = "AppDynamics NiSource Gateway Transaction Cleaner Thread";
-    ArrayList<ConcurrentHashMap<Object, TransactionDictionary>> maps = new ArrayList<>();
-    long sleepTime = 30000;
-    long ageToDiscard = 120000;
+    private static final int WHEEL_SIZE = 512; //must be a power of two
+    private static final int WHEEL_MASK = WHEEL_SIZE -1;
+    private static final long MINIMUM_TICK_TIME = 1000;
+    private final AtomicReferenceArray<ConcurrentLinkedQueue<Scheduled>> wheel = new AtomicReferenceArray<>(WHEEL_SIZE);
+    long tickTime = DEFAULT_TICK_TIME_MS;
+    volatile long ageToDiscard = DEFAULT_AGE_TO_DISCARD_MS;
+    private volatile long processedTick;
+    private volatile long drainingTick; //the bucket being drained right now, or the last one drained
+    private volatile long failedTicks = 0, failedExpiries = 0; //only written by this thread
+    private final List<Scheduled> laterRotations = new ArrayList<>(); //only used on this thread, put back after a drain
+    private final List<TransactionDictionary> rescheduled = new ArrayList<>(); //same
+    private final CopyOnWriteArrayList<PeriodicTask> periodicTasks = new CopyOnWriteArrayList<>();
     private static Scheduler instance = null;
 
-    public synchronized static Scheduler getInstance(long sleepTimeMS, long ageToDiscardMS, ConcurrentHashMap<Object, TransactionDictionary> concurrentHashMap ) {
+    public synchronized static Scheduler getInstance(long tickTimeMS, long ageToDiscardMS ) {
         boolean start = false;
         if( instance == null ) {
-            instance = new Scheduler();
+            instance = new Scheduler( Math.max(tickTimeMS, MINIMUM_TICK_TIME) ); //tick is fixed once the wheel is running, bucket math depends on it
             start = true;
         }
-        if( sleepTimeMS > 30000 ) instance.sleepTime = sleepTimeMS; //safety check, we aren't going faster than this
         if( ageToDiscardMS < instance.ageToDiscard ) instance.ageToDiscard = ageToDiscardMS; //safety check, we aren't keeping longer than this
-        instance.maps.add(concurrentHashMap);
         if( start ) instance.start();
         return instance;
     }
 
-    private Scheduler() {
+    Scheduler( long tickTime ) { //getInstance() for the plugin, tests run their own wheel on a short tick
+        this.tickTime = tickTime;
+        for( int i=0; i< WHEEL_SIZE; i++ )
+            wheel.set(i, new ConcurrentLinkedQueue<Scheduled>());
+        this.processedTick = now() / tickTime; //also primes the clock before the first dictionary is created
+        this.drainingTick = processedTick;
         setDaemon(true);
         try {
             setPriority( (int)getPriority()/2 );
@@ -34,6 +65,105 @@ public class Scheduler extends Thread {
         setName(THREAD_NAME);
     }
 
+    private static long now() {
+        return MonotonicClock.tick();
+    }
+
+    /*
+    schedule a tracked dictionary for expiry, finished entries are removed from the registry by the caller when they
+    finish, the wheel will just drop them when their bucket comes up
+    the first look is a tick out rather than at the deadline, most requests are finished by then and their copy is dropped,
+    instead of every finished request sitting on the wheel for all of ageToDiscard, the ones still running go on to their deadline
+     */
+    public void schedule( TransactionDictionary transactionDictionary ) {
+        long earliestTick = drainingTick +1;
+        while( true ) {
+            long tick = schedule(transactionDictionary, earliestTick, earliestTick +1);
+            long drained = drainingTick;
+            if( drained < tick ) return;
+            earliestTick = drained +1; //our bucket may have been drained before the add landed, the copy left there is stale now
+        }
+    }
+
+    private long schedule( TransactionDictionary transactionDictionary, long earliestTick ) {
+        return schedule(transactionDictionary, earliestTick, Long.MAX_VALUE);
+    }
+
+    private long schedule( TransactionDictionary transactionDictionary, long earliestTick, long latestTick ) {
+        long deadlineTick = (transactionDictionary.getLastTouchTime() + transactionDictionary.getTimeout(ageToDiscard)) / tickTime;
+        if( deadlineTick > latestTick ) deadlineTick = latestTick;
+        if( deadlineTick < earliestTick ) deadlineTick = earliestTick;
+        transactionDictionary.scheduledTick = deadlineTick;
+        wheel.get( (int)(deadlineTick & WHEEL_MASK) ).add( new Scheduled(transactionDictionary, deadlineTick) );
+        return deadlineTick;
+    }
+
+    public long getFailedTicks() { return failedTicks; }
+
+    public long getFailedExpiries() { return failedExpiries; }
+
+    /*
+    run some background housekeeping on this thread every periodMS, rounded up to the next tick
+     */
+    public void addPeriodicTask( Runnable runnable, long periodMS ) {
+        periodicTasks.add( new PeriodicTask(runnable, periodMS, MonotonicClock.now() + periodMS) );
+    }
+
+    private void runPeriodicTasks( long now ) {
+        for( PeriodicTask periodicTask : periodicTasks ) {
+            if( now < periodicTask.nextRun ) continue;
+            periodicTask.nextRun = now + periodicTask.period;
+            try {
+                periodicTask.runnable.run();
+            } catch (Throwable t) {
+                //a misbehaving task must not kill the cleaner
+            }
+        }
+    }
+
+    private void expireBucket( long tick, long now, long currentTick ) {
+        drainingTick = tick;
+        ConcurrentLinkedQueue<Scheduled> bucket = wheel.get( (int)(tick & WHEEL_MASK) );
+        try {
+            Scheduled scheduled;
+            while( (scheduled = bucket.poll()) != null ) {
+                TransactionDictionary transactionDictionary = scheduled.transactionDictionary;
+                if( transactionDictionary.isFinished() || transactionDictionary.scheduledTick != scheduled.tick ) continue; //done, or a newer copy is on the wheel
+                if( scheduled.tick > tick ) { //deadline is a later rotation of this bucket
+                    laterRotations.add(scheduled);
+                } else if( now > transactionDictionary.getLastTouchTime() + transactionDictionary.getTimeout(ageToDiscard) ) {
+                    expire(transactionDictionary);
+                } else {
+                    rescheduled.add(transactionDictionary); //touched since it was scheduled
+                }
+            }
+        } finally {
+            for( Scheduled later : laterRotations ) bucket.add(later);
+            laterRotations.clear();
+            for( TransactionDictionary transactionDictionary : rescheduled ) schedule(transactionDictionary, currentTick +1);
+            rescheduled.clear();
+        }
+    }
+
+    private void expire( TransactionDictionary transactionDictionary ) {
+        Object key = transactionDictionary.futureTask;
+        boolean drop = true;
+        try {
+            drop = transactionDictionary.expire();
+        } catch (Throwable t) {
+            failedExpiries++; //a failing expiry action still gets the entry dropped
+        }
+        if( !drop ) {
+            rescheduled.add(transactionDictionary);
+        } else if( key != null && transactionDictionary.registry.remove(key, transactionDictionary) ) {
+            try {
+                transactionDictionary.registry.abandon(transactionDictionary, "BT abandoned, no activity for "+ transactionDictionary.getTimeout(ageToDiscard) +"ms");
+            } catch (Throwable t) {
+                failedExpiries++; //it is out of the registry and finished either way
+            }
+        }
+    }
+
     /**
      * When an object implementing interface <code>Runnable</code> is used
      * to create a thread, starting the thread causes the object's
@@ -48,22 +178,54 @@ public class Scheduler extends Thread {
     @Override
     public void run() {
         while(true) {
-            for( ConcurrentHashMap<Object, TransactionDictionary> map : maps ) {
-                long now = new Date().getTime();
-                long numTransactions = map.size();
-                long numRemoved = 0;
-                for (TransactionDictionary transactionDictionary : map.values()) {
-                    if( transactionDictionary.isFinished() || now > (transactionDictionary.getLastTouchTime() + ageToDiscard) ) {
-                        numRemoved++;
-                        map.remove( transactionDictionary.futureTask );
-                    }
-                }
-            }
             try {
-                Thread.sleep(sleepTime);
+                Thread.sleep(tickTime);
             } catch (InterruptedException e) {
                 //no op
             }
+            tick(now());
+        }
+    }
+
+    /*
+    drain every bucket that has come due up to now and run the periodic tasks, only ever on this thread, or in a benchmark
+    driving a wheel that was never started
+     */
+    void tick( long now ) {
+        long currentTick = now / tickTime;
+        try {
+            long firstTick = Math.max(processedTick +1, currentTick - WHEEL_MASK); //if we fell behind a whole rotation, each bucket only needs one pass
+            for( long tick = firstTick; tick <= currentTick; tick++ )
+                expireBucket(tick, now, currentTick);
+        } catch (Throwable t) {
+            failedTicks++; //entries left in a bucket are picked up on its next rotation
+        }
+        processedTick = currentTick;
+        runPeriodicTasks(now);
+    }
+
+    /*
+    one copy of an entry on the wheel, see the class comment for why there can be more than one
+     */
+    private static final class Scheduled {
+        final TransactionDictionary transactionDictionary;
+        final long tick;
+
+        Scheduled( TransactionDictionary transactionDictionary, long tick ) {
+            this.transactionDictionary = transactionDictionary;
+            this.tick = tick;
+        }
+    }
+
+    private static class PeriodicTask {
+        final Runnable runnable;
+        final long period;
+        volatile long nextRun;
+
+        PeriodicTask( Runnable runnable, long period, long nextRun ) {
+            this.runnable = runnable;
+            this.period = period;
+            this.nextRun = nextRun;
         }
     }
-}
\ No newline at end of file
+}
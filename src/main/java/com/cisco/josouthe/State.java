@@ -8,6 +8,14 @@ public class State {
         this.transaction = t;
         this.exitCall = e;
     }
+    public State(Transaction t ) {
+        this.transaction = t;
+    }
+    public State(Transaction t, TransactionDictionary d ) {
+        this.transaction = t;
+        this.transactionDictionary = d;
+    }
     public Transaction transaction;
     public ExitCall exitCall;
+    public TransactionDictionary transactionDictionary; //set when onMethodEnd has to finish the tracked entry
 }
@@ -0,0 +1,94 @@
+package com.cisco.josouthe;
+
+import java.util.IdentityHashMap;
+
+/*
+Default "strong" tracking mode, keyed on object identity in IdentityHashMap stripes so we never run the hashCode/equals of the
+objects we intercept; the Scheduler wheel expires entries that are never finished
+ */
+public class StripedTransactionRegistry extends TransactionRegistry {
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int capacityPerStripe;
+    private final Scheduler scheduler;
+
+    StripedTransactionRegistry( int capacity, Scheduler scheduler ) {
+        int stripeCount = stripeCount();
+        this.stripes = new Stripe[stripeCount];
+        for( int i=0; i< stripeCount; i++ ) stripes[i] = new Stripe();
+        this.stripeMask = stripeCount -1;
+        this.capacityPerStripe = Math.max(1, capacity / stripeCount);
+        this.scheduler = scheduler;
+    }
+
+    private Stripe stripeFor( Object key ) {
+        return stripes[ spread(key) & stripeMask ];
+    }
+
+    @Override
+    public boolean track( Object key, TransactionDictionary transactionDictionary ) {
+        if( key == null || transactionDictionary == null ) return false;
+        Stripe stripe = stripeFor(key);
+        TransactionDictionary displaced;
+        synchronized (stripe) {
+            if( stripe.map.size() >= capacityPerStripe && !stripe.map.containsKey(key) ) {
+                rejected();
+                return false;
+            }
+            transactionDictionary.registry = this;
+            displaced = stripe.map.put(key, transactionDictionary);
+            stripe.size = stripe.map.size();
+        }
+        if( displaced != transactionDictionary ) displaced(displaced);
+        scheduler.schedule(transactionDictionary);
+        return true;
+    }
+
+    @Override
+    public TransactionDictionary lookup( Object key ) {
+        if( key == null ) return null;
+        Stripe stripe = stripeFor(key);
+        TransactionDictionary transactionDictionary;
+        synchronized (stripe) {
+            transactionDictionary = stripe.map.get(key);
+        }
+        if( transactionDictionary != null ) transactionDictionary.update();
+        return transactionDictionary;
+    }
+
+    @Override
+    public TransactionDictionary take( Object key ) {
+        if( key == null ) return null;
+        Stripe stripe = stripeFor(key);
+        TransactionDictionary transactionDictionary;
+        synchronized (stripe) {
+            transactionDictionary = stripe.map.remove(key);
+            stripe.size = stripe.map.size();
+        }
+        return transactionDictionary;
+    }
+
+    @Override
+    public boolean remove( Object key, TransactionDictionary transactionDictionary ) {
+        if( key == null ) return false;
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            if( stripe.map.get(key) != transactionDictionary ) return false;
+            stripe.map.remove(key);
+            stripe.size = stripe.map.size();
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for( Stripe stripe : stripes ) size += stripe.size;
+        return size;
+    }
+
+    private static class Stripe {
+        final IdentityHashMap<Object, TransactionDictionary> map = new IdentityHashMap<>();
+        volatile int size = 0;
+    }
+}
@@ -2,17 +2,35 @@ package com.cisco.josouthe;
 
 import com.appdynamics.agent.api.ExitCall;
 import com.appdynamics.agent.api.Transaction;
-import java.util.Date;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public class TransactionDictionary {
+    public static final int OUTCOME_PENDING = 0;
+    public static final int OUTCOME_COMPLETED = 1;
+    public static final int OUTCOME_TIMED_OUT = 2;
+    private static final AtomicIntegerFieldUpdater<TransactionDictionary> OUTCOME = AtomicIntegerFieldUpdater.newUpdater(TransactionDictionary.class, "outcome");
+
     private Transaction appdTransaction = null;
     private ExitCall appdExitCall = null;
     public Object futureTask = null;
-    private Long lastTouchTime = null;
-    private boolean finished = false;
+    private volatile long lastTouchTime;
+    private volatile boolean finished = false;
+    TransactionRegistry registry = null; //set when tracked, so the Scheduler knows where to remove an expired entry from
+    volatile long scheduledTick = -1; //the Scheduler wheel tick of this entry's latest copy on the wheel
+    private long timeoutMS = 0; //0 means the Scheduler's ageToDiscard
+    private ExpiryHandler expiryHandler = null;
+    private volatile int outcome = OUTCOME_PENDING;
+    private long startNanos = System.nanoTime();
+    private Object attachment = null; //whatever the owner needs back at completion, e.g. the backend's latency histograms
+    private DataCollector.Batch collectedData = null; //flushed to the BT just before it ends
 
-    private static Long now() {
-        return new Date().getTime();
+    /*
+    called on the Scheduler thread when an entry has gone timeoutMS without a touch, return true to drop it from its registry,
+    false to keep it, in which case it is rescheduled from its last touch time
+     */
+    public interface ExpiryHandler {
+        boolean onExpired( TransactionDictionary transactionDictionary );
     }
 
     public TransactionDictionary(Transaction appTransaction, Object futureTask) {
@@ -28,10 +46,53 @@ public class TransactionDictionary {
     }
 
     public boolean isFinished() { return finished; }
-    public void finish() { finished = true; }
+    public void finish() { //the Scheduler wheel may still hold this until its bucket comes up, so let go of everything heavy now
+        finished = true;
+        futureTask = null;
+        appdTransaction = null;
+        appdExitCall = null;
+        attachment = null;
+        collectedData = null;
+    }
+
+    /*
+    per entry timeout and expiry action, set these before the entry is tracked
+     */
+    public void setTimeout( long timeoutMS, ExpiryHandler expiryHandler ) {
+        this.timeoutMS = timeoutMS;
+        this.expiryHandler = expiryHandler;
+    }
+
+    public long getTimeout( long defaultTimeoutMS ) {
+        return timeoutMS > 0 ? timeoutMS : defaultTimeoutMS;
+    }
+
+    boolean expire() {
+        return expiryHandler == null || expiryHandler.onExpired(this);
+    }
+
+    /*
+    exactly one of the completion and the timeout wins, whoever gets true here owns ending the exit call or BT
+     */
+    public boolean settle( int outcome ) {
+        return OUTCOME.compareAndSet(this, OUTCOME_PENDING, outcome);
+    }
+
+    public int getOutcome() { return outcome; }
+
+    public long getStartNanos() { return startNanos; }
+
+    public Object getAttachment() { return attachment; }
+
+    public void setAttachment( Object attachment ) { this.attachment = attachment; }
+
+    public DataCollector.Batch getCollectedData() { return collectedData; }
+
+    public void setCollectedData( DataCollector.Batch collectedData ) { this.collectedData = collectedData; }
 
     public void update() {
-        lastTouchTime = now();
+        long now = MonotonicClock.now();
+        if( lastTouchTime != now ) lastTouchTime = now; //skip the volatile write when the clock hasn't moved since the last touch
     }
 
     public Transaction getTransaction() {
@@ -54,7 +115,7 @@ public class TransactionDictionary {
         this.appdExitCall = appdExitCall;
     }
 
-    public Long getLastTouchTime() {
+    public long getLastTouchTime() {
         return this.lastTouchTime;
     }
 
@@ -0,0 +1,119 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.agent.api.ExitCall;
+import com.appdynamics.agent.api.Transaction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+In-flight TransactionDictionary registry shared by every interceptor, keyed on object identity so we never run the
+hashCode/equals of the vert.x and nisource objects we intercept, striped so the event loop threads don't contend on one lock,
+and capped so a flood of requests that never finish can't grow it without bound
+
+mode is chosen once per JVM by the first interceptor to ask, from the transactionTrackingMode property:
+    strong - StripedTransactionRegistry, the Scheduler wheel expires abandoned entries (default)
+    weak - WeakTransactionRegistry, entries are reclaimed and their BT ended as soon as the intercepted object is collected,
+        with a slow age based sweep on the Scheduler as a fallback
+
+every entry leaves exactly once: through take() by its owner, or through remove(key, entry) by whatever reclaims it, both under
+the key's stripe lock, the owner ends what it holds when take() returns it, the reclaimer calls abandon() when remove() returns true
+tracking a key again while it is still tracked abandons the entry it displaces, nothing could find that one any more
+ */
+public abstract class TransactionRegistry {
+    public static final String TRACKING_MODE_PROPERTY = "transactionTrackingMode";
+    public static final String TRACKING_MODE_STRONG = "strong";
+    public static final String TRACKING_MODE_WEAK = "weak";
+    private static final int DEFAULT_CAPACITY = 200000;
+    private static final int EVENT_LOOPS_PER_CORE = 2; //vert.x default event loop pool size is 2 * cores
+    private static TransactionRegistry instance = null;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong abandonedCount = new AtomicLong();
+    private final AtomicLong displacedCount = new AtomicLong();
+
+    public synchronized static TransactionRegistry getInstance( String trackingMode, Scheduler scheduler ) {
+        if( instance == null ) {
+            if( TRACKING_MODE_WEAK.equalsIgnoreCase(trackingMode) ) {
+                instance = new WeakTransactionRegistry(DEFAULT_CAPACITY, scheduler);
+            } else {
+                instance = new StripedTransactionRegistry(DEFAULT_CAPACITY, scheduler);
+            }
+        }
+        return instance;
+    }
+
+    protected static int stripeCount() {
+        int stripeCount = 1;
+        while( stripeCount < Runtime.getRuntime().availableProcessors() * EVENT_LOOPS_PER_CORE * 2 ) stripeCount <<= 1;
+        return stripeCount;
+    }
+
+    protected static int spread( Object key ) {
+        int hash = System.identityHashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    protected void rejected() { rejectedCount.incrementAndGet(); }
+
+    public long getRejectedCount() { return rejectedCount.get(); }
+
+    public long getAbandonedCount() { return abandonedCount.get(); }
+
+    public long getDisplacedCount() { return displacedCount.get(); }
+
+    /*
+    nothing can find the displaced entry any more, so it is abandoned like an expired one, counted in both totals
+     */
+    protected void displaced( TransactionDictionary transactionDictionary ) {
+        if( transactionDictionary == null ) return;
+        displacedCount.incrementAndGet();
+        abandon(transactionDictionary, "BT abandoned, its request object was tracked again before it completed");
+    }
+
+    /*
+    only for an entry this registry no longer holds, that was never finished, end whatever it still holds so the agent doesn't
+    keep the BT or exit call open forever, an exit call entry only marks its BT in error, the BT has its own entry that ends it
+     */
+    void abandon( TransactionDictionary transactionDictionary, String reason ) {
+        if( transactionDictionary == null || transactionDictionary.isFinished() ) return;
+        Transaction transaction = transactionDictionary.getTransaction();
+        ExitCall exitCall = transactionDictionary.getExitCall();
+        transactionDictionary.finish();
+        if( exitCall != null ) exitCall.end();
+        if( transaction != null ) {
+            transaction.markAsError(reason);
+            if( exitCall == null ) transaction.end();
+        }
+        abandonedCount.incrementAndGet();
+    }
+
+    /*
+    returns false if the registry is at capacity, the caller can't expect to find this key again
+     */
+    public abstract boolean track( Object key, TransactionDictionary transactionDictionary );
+
+    public abstract TransactionDictionary lookup( Object key );
+
+    /*
+    remove the key and mark its dictionary finished, returns false if it was not tracked (never started, rejected, or expired)
+     */
+    public boolean finish( Object key ) {
+        TransactionDictionary transactionDictionary = take(key);
+        if( transactionDictionary == null ) return false;
+        transactionDictionary.finish();
+        return true;
+    }
+
+    /*
+    remove the key and hand back its dictionary still intact, the caller ends what it holds and then calls finish() on it,
+    null if it was not tracked, this is the one keyed operation for a caller that needs the entry on its way out
+     */
+    public abstract TransactionDictionary take( Object key );
+
+    /*
+    only removes the key if it still maps to this exact dictionary, used by the Scheduler when an entry goes stale
+     */
+    public abstract boolean remove( Object key, TransactionDictionary transactionDictionary );
+
+    public abstract int size();
+}
@@ -0,0 +1,147 @@
+package com.cisco.josouthe;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+Turns request paths into something safe to name BTs with, without java.net.URI and without exceptions for control flow
+    query strings and fragments are cut off
+    numeric path segments become {id} and UUID segments become {uuid}, so /customers/1234/orders and /customers/5678/orders are one BT
+normalized paths are cached in a small striped LRU keyed by the raw path, a hit costs one hash lookup and allocates nothing,
+and a path that needs no templating is handed back as the same String instance
+ */
+public class UrlNormalizer {
+    public static final String URL_TEMPLATING_PROPERTY = "urlTemplating";
+    public static final String ID_TEMPLATE = "{id}";
+    public static final String UUID_TEMPLATE = "{uuid}";
+    private static final int DEFAULT_CACHE_SIZE = 4096;
+    private static final int MAX_CACHED_PATH_LENGTH = 512; //don't let one giant path push out hundreds of normal ones
+    private static UrlNormalizer instance = null;
+
+    private final LruStripe[] stripes;
+    private final int stripeMask;
+
+    public synchronized static UrlNormalizer getInstance() {
+        if( instance == null ) instance = new UrlNormalizer(DEFAULT_CACHE_SIZE);
+        return instance;
+    }
+
+    UrlNormalizer( int cacheSize ) {
+        int stripeCount = TransactionRegistry.stripeCount();
+        this.stripes = new LruStripe[stripeCount];
+        for( int i=0; i< stripeCount; i++ ) stripes[i] = new LruStripe( Math.max(16, cacheSize / stripeCount) );
+        this.stripeMask = stripeCount -1;
+    }
+
+    /*
+    everything before the first '?' or '#', the original String if there is neither
+     */
+    public static String stripQuery( String url ) {
+        if( url == null ) return null;
+        int end = url.length();
+        for( int i=0; i< end; i++ ) {
+            char c = url.charAt(i);
+            if( c == '?' || c == '#' ) {
+                end = i;
+                break;
+            }
+        }
+        return end == url.length() ? url : url.substring(0, end);
+    }
+
+    /*
+    scheme://host/path with exactly one slash between the host and the path, the path is used as is
+     */
+    public static String buildUrl( String scheme, String host, String path ) {
+        StringBuilder sb = new StringBuilder(scheme.length() + host.length() + path.length() + 4);
+        sb.append(scheme).append("://").append(host);
+        if( path.isEmpty() || path.charAt(0) != '/' ) sb.append('/');
+        return sb.append(path).toString();
+    }
+
+    /*
+    query stripped and id segments templated, cached by the raw path
+     */
+    public String normalizePath( String rawPath ) {
+        if( rawPath == null ) return null;
+        if( rawPath.length() > MAX_CACHED_PATH_LENGTH ) return templatePath(stripQuery(rawPath));
+        int hash = rawPath.hashCode();
+        LruStripe stripe = stripes[ (hash ^ (hash >>> 16)) & stripeMask ];
+        synchronized (stripe) {
+            String normalized = stripe.get(rawPath);
+            if( normalized != null ) return normalized;
+        }
+        String normalized = templatePath(stripQuery(rawPath));
+        synchronized (stripe) {
+            stripe.put(rawPath, normalized);
+        }
+        return normalized;
+    }
+
+    static String templatePath( String path ) {
+        int length = path.length();
+        StringBuilder sb = null;
+        int segmentStart = 0;
+        for( int i=0; i<= length; i++ ) {
+            if( i < length && path.charAt(i) != '/' ) continue;
+            String template = templateFor(path, segmentStart, i);
+            if( template != null && sb == null ) {
+                sb = new StringBuilder(length);
+                sb.append(path, 0, segmentStart);
+            }
+            if( sb != null ) {
+                if( template != null ) {
+                    sb.append(template);
+                } else {
+                    sb.append(path, segmentStart, i);
+                }
+                if( i < length ) sb.append('/');
+            }
+            segmentStart = i +1;
+        }
+        return sb == null ? path : sb.toString();
+    }
+
+    private static String templateFor( String path, int start, int end ) {
+        int length = end - start;
+        if( length == 0 ) return null;
+        if( isDigits(path, start, end) ) return ID_TEMPLATE;
+        if( length == 36 && isUuid(path, start) ) return UUID_TEMPLATE;
+        return null;
+    }
+
+    private static boolean isDigits( String path, int start, int end ) {
+        for( int i=start; i< end; i++ ) {
+            char c = path.charAt(i);
+            if( c < '0' || c > '9' ) return false;
+        }
+        return true;
+    }
+
+    private static boolean isUuid( String path, int start ) { //8-4-4-4-12 hex digits
+        for( int i=0; i< 36; i++ ) {
+            char c = path.charAt(start + i);
+            if( i == 8 || i == 13 || i == 18 || i == 23 ) {
+                if( c != '-' ) return false;
+            } else if( Character.digit(c, 16) < 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class LruStripe extends LinkedHashMap<String,String> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        LruStripe( int maxSize ) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String,String> eldest ) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -6,29 +6,33 @@ import com.appdynamics.agent.api.ServletContext;
 import com.appdynamics.agent.api.Transaction;
 import com.appdynamics.instrumentation.sdk.Rule;
 import com.appdynamics.instrumentation.sdk.SDKClassMatchType;
-import com.appdynamics.instrumentation.sdk.SDKStringMatchType;
 import com.appdynamics.instrumentation.sdk.toolbox.reflection.IReflector;
 
 import java.net.MalformedURLException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class VertexHTTP_ver363_Interceptor extends MyBaseInterceptor{
+    private static final String HEADER_ALLOW_LIST_PROPERTY = "vertxServletContextHeaders";
+    private static final String PARAMETER_ALLOW_LIST_PROPERTY = "vertxServletContextParameters";
+    private static final String ALLOW_ALL = "*";
 
-    private static final ConcurrentHashMap<Object, TransactionDictionary> transactionsMap = new ConcurrentHashMap<>();
-    Scheduler scheduler;
-    IReflector getRequest, getRawMethod, getUri, getHost, getHeaders, getHeader, getParams, getScheme, getRemoteAddress, getLocalAddress; //io.vertx.core.http.HttpServerRequest
+    TransactionRegistry transactionRegistry;
+    IReflector getRequest, getRawMethod, getUri, getPath, getHost, getHeaders, getHeader, getParams, getScheme, getRemoteAddress, getLocalAddress; //io.vertx.core.http.HttpServerRequest
     IReflector getMultiMapNames, getMultiMapValues; //io.vertx.core.MultiMap
     IReflector getSocketAddressHost, getSocketAddressPort; //io.vertx.core.net.SocketAddress
+    volatile String[] headerAllowList, parameterAllowList; //null means copy everything
+    volatile boolean urlTemplating = true;
+    UrlNormalizer urlNormalizer = UrlNormalizer.getInstance();
 
     public VertexHTTP_ver363_Interceptor() {
         super();
-        scheduler = Scheduler.getInstance(30000L, 120000L, transactionsMap);
+        transactionRegistry = getTransactionRegistry();
 
         //io.vertx.core.http.HttpServerRequest methods:
         getRequest = makeInvokeInstanceMethodReflector("getRequest"); //io.netty.handler.codec.http.DefaultHttpRequest
         getRawMethod = makeInvokeInstanceMethodReflector( "rawMethod"); //String
         getUri = makeInvokeInstanceMethodReflector("uri"); //String
+        getPath = makeInvokeInstanceMethodReflector("path"); //String, uri without the query, parsed once and kept by vert.x
         getHost = makeInvokeInstanceMethodReflector("host"); //String
         getHeaders = makeInvokeInstanceMethodReflector("headers"); //io.vertx.core.MultiMap
         getHeader = makeInvokeInstanceMethodReflector("getHeader", "java.lang.String"); //String
@@ -45,82 +49,147 @@ public class VertexHTTP_ver363_Interceptor extends MyBaseInterceptor{
         getSocketAddressHost = makeInvokeInstanceMethodReflector("host"); //String
         getSocketAddressPort = makeInvokeInstanceMethodReflector("port"); //Integer (autoboxed int)
 
+        onConfigChange( getConfig() );
     }
 
     @Override
-    public Object onMethodBegin(Object objectIntercepted, String className, String methodName, Object[] params) {
-        getLogger().debug(String.format("Begin onMethodBegin %s.%s() ",className,methodName));
-        Transaction transaction = null;
-        switch (methodName) {
-            case "handleBegin": { //start a BT
-                transaction = AppdynamicsAgent.getTransaction();
-                if (isFakeTransaction(transaction)) {
-                    transaction = AppdynamicsAgent.startServletTransaction(buildServletContext(objectIntercepted), EntryTypes.HTTP, getCorrelationHeader(objectIntercepted), true);
-                    getLogger().debug(String.format("Transaction not active, started BT: %s", transaction.getUniqueIdentifier()));
-                } else {
-                    getLogger().debug(String.format("Transaction already active, using BT: %s", transaction.getUniqueIdentifier()));
-                }
-                transactionsMap.put(objectIntercepted, new TransactionDictionary(transaction, objectIntercepted));
-                transaction.markHandoff(objectIntercepted);
-                break;
-            }
-            case "handler": { //just FYI for now
-                getLogger().debug(String.format("Handler called: %s",params[0].toString()));
-            }
-            case "handleException": { //mark current bt as error
-                if( transactionsMap.contains(objectIntercepted) ) {
-                    transaction = transactionsMap.get(objectIntercepted).getTransaction();
-                    transaction.markAsError(String.format("HTTP Connection Exception: %s", params[0].toString()));
+    protected void onConfigChange( PluginConfig config ) {
+        super.onConfigChange(config);
+        headerAllowList = parseAllowList( config.getString(HEADER_ALLOW_LIST_PROPERTY, ALLOW_ALL) );
+        parameterAllowList = parseAllowList( config.getString(PARAMETER_ALLOW_LIST_PROPERTY, ALLOW_ALL) );
+        urlTemplating = config.getBoolean(UrlNormalizer.URL_TEMPLATING_PROPERTY, true);
+    }
+
+    @Override
+    protected Map<String,String> getListOfCustomProperties() {
+        Map<String,String> customProperties = super.getListOfCustomProperties();
+        customProperties.put(HEADER_ALLOW_LIST_PROPERTY, ALLOW_ALL);
+        customProperties.put(PARAMETER_ALLOW_LIST_PROPERTY, ALLOW_ALL);
+        customProperties.put(UrlNormalizer.URL_TEMPLATING_PROPERTY, "true");
+        return customProperties;
+    }
+
+    /*
+    "*" copies every name like we always have, an empty value copies nothing, otherwise a comma separated list of the only names
+    BT match rules and data collectors need, those are fetched one at a time and the MultiMap names() set is never built
+     */
+    private String[] parseAllowList( String value ) {
+        if( value == null || ALLOW_ALL.equals(value.trim()) ) return null;
+        List<String> names = new ArrayList<>();
+        for( String name : value.split(",") )
+            if( !name.trim().isEmpty() ) names.add(name.trim());
+        return names.toArray(new String[0]);
+    }
+
+    /*
+    request lifecycle, each phase resolves the request's entry with exactly one keyed registry operation and hands it to its end() in a State
+        handleBegin - start or join the BT, track it, mark the handoff so later phases on any thread can start a segment
+        handleContent - lookup, segment for the duration of the content handler
+        handleException - take, the BT is marked in error and ended here, vert.x does not always call handleEnd after an exception
+        handleEnd - take, the BT is ended and the entry finished
+    take() removes the entry, so whichever of handleException and handleEnd comes first ends the BT and the other one finds nothing
+     */
+    private class HandleBegin implements MethodDispatcher.Handler<State> {
+        @Override
+        public State begin( Object request, String className, Object[] params ) {
+            Transaction transaction = AppdynamicsAgent.getTransaction();
+            boolean startedHere = isFakeTransaction(transaction);
+            if (startedHere) {
+                String correlationHeader = getCorrelationHeader(request);
+                String uri = samplingEngine.needsUri() ? getReflectiveString(request, getPath, null) : null;
+                if( !samplingEngine.sample(uri, correlationHeader != null) ) { //skip the servlet context, the BT and the registry
+                    debug("Request not sampled, no BT started");
+                    return null;
                 }
+                transaction = AppdynamicsAgent.startServletTransaction(buildServletContext(request), EntryTypes.HTTP, correlationHeader, true);
+                if( isDebugEnabled() ) debug("Transaction not active, started BT: %s", transaction.getUniqueIdentifier());
+            } else {
+                if( isDebugEnabled() ) debug("Transaction already active, using BT: %s", transaction.getUniqueIdentifier());
             }
-            case "handleContent":
-            case "handleEnd": {
-                transaction = AppdynamicsAgent.startSegment(objectIntercepted);
-                break;
+            if( !transactionRegistry.track(request, new TransactionDictionary(transaction, request)) ) {
+                if( isDebugEnabled() ) debug("Transaction registry is full, not following BT %s to handleEnd", transaction.getUniqueIdentifier());
+                if( startedHere ) transaction.end();
+                return null;
             }
+            transaction.markHandoff(request);
+            return new State(transaction);
+        }
+
+        @Override
+        public void end( State state, Object request, String className, Object[] params, Throwable exception, Object returnVal ) {
+            endSegment(state, className, "handleBegin", exception);
         }
-        getLogger().debug(String.format("Finish onMethodBegin %s.%s() ",className,methodName));
-        return transaction;
     }
 
-    @Override
-    public void onMethodEnd(Object state, Object object, String className, String methodName, Object[] params, Throwable exception, Object returnVal) {
-        if( state == null ) return;
+    private class HandleContent implements MethodDispatcher.Handler<State> {
+        @Override
+        public State begin( Object request, String className, Object[] params ) {
+            if( transactionRegistry.lookup(request) == null ) return null; //not sampled, or already finished
+            return new State(AppdynamicsAgent.startSegment(request));
+        }
 
-        getLogger().debug(String.format("Begin onMethodEnd %s.%s() ",className,methodName));
-        Transaction transaction = (Transaction) state;
-        if( exception != null ) {
-            transaction.markAsError(String.format("%s.%s() Exception: %s",className,methodName,exception.getMessage()));
+        @Override
+        public void end( State state, Object request, String className, Object[] params, Throwable exception, Object returnVal ) {
+            endSegment(state, className, "handleContent", exception);
         }
-        switch (methodName) {
-            case "handleException": { transaction.markAsError(String.format("HTTP Connection Exception: %s", params[0].toString())); }
-            case "handleBegin":
-            case "handleContent": {
-                transaction.endSegment();
-                break;
-            }
-            case "handleEnd": {
-                transaction.end();
-                if( transactionsMap.contains(object) )
-                    transactionsMap.get(object).finish();
-                break;
+    }
+
+    /*
+    handleException marks the BT in error first, otherwise the same as handleEnd
+     */
+    private class HandleEnd implements MethodDispatcher.Handler<State> {
+        private final boolean exceptional;
+
+        HandleEnd( boolean exceptional ) {
+            this.exceptional = exceptional;
+        }
+
+        @Override
+        public State begin( Object request, String className, Object[] params ) {
+            TransactionDictionary transactionDictionary = transactionRegistry.take(request);
+            if( transactionDictionary == null ) return null; //not sampled, or the other one of these already ended it
+            Transaction transaction = transactionDictionary.getTransaction();
+            if( transaction == null ) { //expired by the cleaner while we were getting here
+                transactionDictionary.finish();
+                return null;
             }
+            if( exceptional ) transaction.markAsError(String.format("HTTP Connection Exception: %s", params[0]));
+            Transaction segment = AppdynamicsAgent.startSegment(request);
+            return new State( (segment == null || isFakeTransaction(segment)) ? transaction : segment, transactionDictionary);
         }
-        getLogger().debug(String.format("Finish onMethodEnd %s.%s() ",className,methodName));
+
+        @Override
+        public void end( State state, Object request, String className, Object[] params, Throwable exception, Object returnVal ) {
+            if( state == null ) return;
+            if( exception != null ) markAsError(state.transaction, className, (exceptional ? "handleException" : "handleEnd"), exception);
+            state.transaction.end();
+            state.transactionDictionary.finish();
+        }
+    }
+
+    private void endSegment( State state, String className, String methodName, Throwable exception ) {
+        if( state == null ) return;
+        if( exception != null ) markAsError(state.transaction, className, methodName, exception);
+        state.transaction.endSegment();
+    }
+
+    private void markAsError( Transaction transaction, String className, String methodName, Throwable exception ) {
+        transaction.markAsError(String.format("%s.%s() Exception: %s",className,methodName,exception.getMessage()));
     }
 
     public ServletContext buildServletContext( Object request ) {
-        getLogger().debug(String.format("Begin building servlet context"));
+        debug("Begin building servlet context");
         ServletContext.ServletContextBuilder builder = new ServletContext.ServletContextBuilder();
 
         String scheme = getReflectiveString(request, getScheme, "http");
         String host = getReflectiveString(request, getHost, "UNKNOWN-HOST");
-        String uri = getReflectiveString(request, getUri, "/unknown-uri");
+        String path = getReflectiveString(request, getPath, "/unknown-uri");
+        String url = UrlNormalizer.buildUrl(scheme, host, guardUrlPath(urlTemplating ? urlNormalizer.normalizePath(path) : path));
         try {
-            builder.withURL(String.format("%s://%s/%s",scheme,host,uri));
-            getLogger().debug(String.format("Building servlet context with URL: %s://%s/%s",scheme,host,uri));
+            builder.withURL(url);
+            debug("Building servlet context with URL: %s",url);
         } catch (MalformedURLException exception) {
-            getLogger().info(String.format("Error building servlet context with URL: %s://%s/%s Exception: %s",scheme,host,uri,exception.toString()));
+            getLogger().info(String.format("Error building servlet context with URL: %s Exception: %s",url,exception.toString()));
             return null;
         }
 
@@ -134,44 +203,51 @@ public class VertexHTTP_ver363_Interceptor extends MyBaseInterceptor{
             builder.withHostOriginatingAddress( getReflectiveString(remoteHostSocketAddress,getSocketAddressHost,"UNKNOWN-REMOTEHOST"));
 
         //get headers:
-        Object multimapHeaders = getReflectiveObject(request,getHeaders);
-        Set<String> names = (Set<String>) getReflectiveObject(multimapHeaders, getMultiMapNames);
-        if( multimapHeaders != null && names != null) {
-            Map<String,String> appdHeaders = new HashMap<>();
-            for( String name : names ) {
-                List<String> values = (List<String>) getReflectiveObject(multimapHeaders,getMultiMapValues,name);
-                if( values != null && values.size() >0 )
-                    appdHeaders.put(name, values.get(0));
+        if( headerAllowList == null || headerAllowList.length > 0 ) {
+            Object multimapHeaders = getReflectiveObject(request, getHeaders);
+            if( multimapHeaders != null ) {
+                Map<String, String> appdHeaders = new HashMap<>();
+                for( String name : namesToCopy(multimapHeaders, headerAllowList) ) {
+                    List<String> values = (List<String>) getReflectiveObject(multimapHeaders, getMultiMapValues, name);
+                    if( values != null && values.size() > 0 )
+                        appdHeaders.put(name, values.get(0));
+                }
+                builder.withHeaders(appdHeaders);
             }
-            builder.withHeaders(appdHeaders);
         }
 
         //get parameters:
-        Object multimapParameters = getReflectiveObject(request,getParams);
-        names = (Set<String>) getReflectiveObject(multimapParameters, getMultiMapNames); //reuse names var
-        if( multimapParameters != null && names != null ) {
-            Map<String,String[]> appdParams = new HashMap<>();
-            for( String name : names ) {
-                List<String> values = (List<String>) getReflectiveObject(multimapParameters,getMultiMapValues,name);
-                if( values != null && values.size() >0 ) {
-                    appdParams.put(name, values.toArray(new String[0]));
+        if( parameterAllowList == null || parameterAllowList.length > 0 ) {
+            Object multimapParameters = getReflectiveObject(request, getParams);
+            if( multimapParameters != null ) {
+                Map<String, String[]> appdParams = new HashMap<>();
+                for( String name : namesToCopy(multimapParameters, parameterAllowList) ) {
+                    List<String> values = (List<String>) getReflectiveObject(multimapParameters, getMultiMapValues, name);
+                    if( values != null && values.size() > 0 ) {
+                        appdParams.put(name, values.toArray(new String[0]));
+                    }
                 }
+                builder.withParameters(appdParams);
             }
-            builder.withParameters(appdParams);
         }
 
-        getLogger().debug(String.format("Finish building servlet context"));
+        debug("Finish building servlet context");
         return builder.build();
     }
 
+    private Iterable<String> namesToCopy( Object multimap, String[] allowList ) {
+        if( allowList != null ) return Arrays.asList(allowList);
+        Set<String> names = (Set<String>) getReflectiveObject(multimap, getMultiMapNames);
+        if( names == null ) return Collections.emptySet();
+        return names;
+    }
+
     public String getCorrelationHeader( Object request ) {
         return (String) getReflectiveObject(request, getHeader, AppdynamicsAgent.TRANSACTION_CORRELATION_HEADER);
     }
 
     @Override
     public List<Rule> initializeRules() {
-        List<Rule> rules = new ArrayList<>();
-
         /*
         This should catch: handleBegin,
             handleContent,
@@ -182,14 +258,11 @@ public class VertexHTTP_ver363_Interceptor extends MyBaseInterceptor{
             handleException( Exception ) looks interesting
 
          */
-        rules.add(new Rule.Builder(
-                "io.vertx.core.http.HttpServerRequest")
-                .classMatchType(SDKClassMatchType.IMPLEMENTS_INTERFACE)
-                .methodMatchString("handle")
-                .methodStringMatchType(SDKStringMatchType.STARTSWITH)
-                .build()
+        return dispatch( new MethodDispatcher()
+                .bind("io.vertx.core.http.HttpServerRequest", SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleBegin", new HandleBegin())
+                .bind("io.vertx.core.http.HttpServerRequest", SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleContent", new HandleContent())
+                .bind("io.vertx.core.http.HttpServerRequest", SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleException", new HandleEnd(true))
+                .bind("io.vertx.core.http.HttpServerRequest", SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleEnd", new HandleEnd(false))
         );
-
-        return rules;
     }
 }
@@ -0,0 +1,111 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.agent.api.AppdynamicsAgent;
+import com.appdynamics.agent.api.Transaction;
+import com.appdynamics.instrumentation.sdk.Rule;
+import com.appdynamics.instrumentation.sdk.SDKClassMatchType;
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.IReflector;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+Names BTs after the vert.x web route that handles the request, see RouteNamingEngine
+    RouteImpl.handleContext(RoutingContextImplBase) runs each matched route's handler, we publish "GET /customers/:id" as the thread's
+        route name for the duration of the handler, RestResponseHandler BTs started inside it take that name instead of the class name
+    the vert.x servlet BT was already started in handleBegin, before routing, so we only ask the agent to rename it, which it honors
+        as long as the BT has not registered yet, otherwise it keeps its url based name
+turn off with routeNaming=false
+ */
+public class VertxRouteNamingInterceptor extends MyBaseInterceptor {
+    private static final String NO_OUTER_ROUTE = new String("no outer route"); //state when no route was named further up the stack
+
+    RouteNamingEngine routeNamingEngine = RouteNamingEngine.getInstance();
+    IReflector getRoutePath; //io.vertx.ext.web.Route.getPath(), null for regex routes and routes without a path
+    IReflector getRequest, getNormalisedPath; //io.vertx.ext.web.RoutingContext
+    IReflector getRawMethod; //io.vertx.core.http.HttpServerRequest
+    RouteNamingEngine.PathResolver pathResolver;
+    volatile boolean enabled = true;
+
+    public VertxRouteNamingInterceptor() {
+        super();
+        getRoutePath = makeInvokeInstanceMethodReflector("getPath"); //String
+        getRequest = makeInvokeInstanceMethodReflector("request"); //io.vertx.core.http.HttpServerRequest
+        getNormalisedPath = makeInvokeInstanceMethodReflector("normalisedPath"); //String
+        getRawMethod = makeInvokeInstanceMethodReflector("rawMethod"); //String
+        pathResolver = route -> getReflectiveString(route, getRoutePath, null);
+        pluginMetrics.registerGauge("Route Naming|Cached Routes", routeNamingEngine::size);
+        onConfigChange( getConfig() );
+    }
+
+    @Override
+    protected void onConfigChange( PluginConfig config ) {
+        super.onConfigChange(config);
+        if( routeNamingEngine == null ) return; //called from the Scheduler before our constructor got this far
+        routeNamingEngine.configure(config);
+        enabled = config.getBoolean(RouteNamingEngine.ROUTE_NAMING_PROPERTY, true);
+    }
+
+    @Override
+    protected Map<String,String> getListOfCustomProperties() {
+        Map<String,String> customProperties = super.getListOfCustomProperties();
+        customProperties.put(RouteNamingEngine.ROUTE_NAMING_PROPERTY, "true");
+        customProperties.put(RouteNamingEngine.ROUTE_PATTERNS_PROPERTY, "");
+        return customProperties;
+    }
+
+    /*
+    RouteImpl.handleContext(RoutingContextImplBase), the state is the outer route's name to put back when the handler returns
+     */
+    private class HandleContext implements MethodDispatcher.Handler<String> {
+        @Override
+        public String begin( Object route, String className, Object[] params ) {
+            if( !enabled || params.length == 0 || params[0] == null ) return null;
+            return enterRoute(route, params[0]);
+        }
+
+        @Override
+        public void end( String outerRouteName, Object route, String className, Object[] params, Throwable exception, Object returnVal ) {
+            if( outerRouteName == null ) return;
+            routeNamingEngine.exit( outerRouteName == NO_OUTER_ROUTE ? null : outerRouteName );
+        }
+    }
+
+    private String enterRoute( Object route, Object routingContext ) {
+        String routePath = routeNamingEngine.getRoutePath(route, pathResolver);
+        String requestPath = routePath == null ? getReflectiveString(routingContext, getNormalisedPath, null) : null;
+        Object request = getReflectiveObject(routingContext, getRequest);
+        String routeName = routeNamingEngine.nameFor( getReflectiveString(request, getRawMethod, null), routePath, requestPath);
+        if( routeName == null ) return null; //catch all route with no matching pattern, leave the names alone
+        routeName = guardBusinessTransactionName(routeName);
+        String outerRouteName = routeNamingEngine.enter(routeName);
+        if( outerRouteName == null ) renameServletTransaction(request, routeName); //only the outermost named route
+        if( isDebugEnabled() ) debug("Route %s handling %s", routeName, (requestPath == null ? routePath : requestPath));
+        return outerRouteName == null ? NO_OUTER_ROUTE : outerRouteName;
+    }
+
+    /*
+    routes run from the handleEnd segment (after BodyHandler) already have the BT on this thread, rename it in place, otherwise
+    VertexHTTP_ver363_Interceptor marked a handoff on the request in handleBegin, join it just long enough to set the name
+     */
+    private void renameServletTransaction( Object request, String routeName ) {
+        if( !isFakeTransaction(AppdynamicsAgent.getTransaction()) ) {
+            AppdynamicsAgent.setCurrentTransactionName(routeName);
+            return;
+        }
+        if( request == null ) return;
+        Transaction transaction = AppdynamicsAgent.startSegment(request);
+        if( transaction == null || isFakeTransaction(transaction) ) return;
+        AppdynamicsAgent.setCurrentTransactionName(routeName);
+        transaction.endSegment();
+    }
+
+    @Override
+    public List<Rule> initializeRules() {
+        MethodDispatcher methodDispatcher = new MethodDispatcher();
+        HandleContext handleContext = new HandleContext();
+        for( SDKClassMatchType classMatchType : new SDKClassMatchType[]{ SDKClassMatchType.MATCHES_CLASS, SDKClassMatchType.INHERITS_FROM_CLASS } )
+            methodDispatcher.bind("io.vertx.ext.web.impl.RouteImpl", classMatchType, "handleContext", handleContext);
+        return dispatch(methodDispatcher);
+    }
+}
@@ -0,0 +1,231 @@
+package com.cisco.josouthe;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+"weak" tracking mode, entries are held by weak identity references so the registry never pins the request or handler objects,
+when one is collected without being finished its reference shows up on the ReferenceQueue and the BT is ended right there
+the queue is drained on every track and finish call, so normally nothing else is needed
+as a fallback, the Scheduler sweeps the stripes every SWEEP_INTERVAL_MS and abandons entries untouched for longer than its
+ageToDiscard, e.g. when an agent handoff keeps the request object strongly reachable, so a registry full of those can't reject every new BT
+ */
+public class WeakTransactionRegistry extends TransactionRegistry {
+    private static final long SWEEP_INTERVAL_MS = 30000;
+    private final ReferenceQueue<Object> referenceQueue = new ReferenceQueue<>();
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int capacityPerStripe;
+    private final AtomicLong reclaimedCount = new AtomicLong();
+    private final Scheduler scheduler;
+    private final List<TransactionDictionary> swept = new ArrayList<>(); //only used on the Scheduler thread
+
+    WeakTransactionRegistry( int capacity, Scheduler scheduler ) {
+        this.scheduler = scheduler;
+        int stripeCount = stripeCount();
+        this.stripeMask = stripeCount -1;
+        this.capacityPerStripe = Math.max(1, capacity / stripeCount);
+        int tableSize = 16;
+        while( tableSize < capacityPerStripe /4 ) tableSize <<= 1;
+        this.stripes = new Stripe[stripeCount];
+        for( int i=0; i< stripeCount; i++ ) stripes[i] = new Stripe(tableSize, Integer.numberOfTrailingZeros(stripeCount));
+        scheduler.addPeriodicTask(this::sweep, SWEEP_INTERVAL_MS);
+    }
+
+    private Stripe stripeFor( int hash ) {
+        return stripes[ hash & stripeMask ];
+    }
+
+    @Override
+    public boolean track( Object key, TransactionDictionary transactionDictionary ) {
+        if( key == null || transactionDictionary == null ) return false;
+        expungeCollected();
+        transactionDictionary.futureTask = null; //the dictionary must not hold the key, or it will never be collected
+        transactionDictionary.registry = this;
+        int hash = spread(key);
+        Stripe stripe = stripeFor(hash);
+        TransactionDictionary displaced = null;
+        synchronized (stripe) {
+            TrackedReference reference = stripe.find(key, hash);
+            if( reference != null ) {
+                displaced = reference.transactionDictionary;
+                reference.transactionDictionary = transactionDictionary;
+            } else if( stripe.count >= capacityPerStripe ) {
+                rejected();
+                return false;
+            } else {
+                stripe.add( new TrackedReference(key, hash, transactionDictionary, referenceQueue) );
+            }
+        }
+        if( displaced != transactionDictionary ) displaced(displaced);
+        return true;
+    }
+
+    @Override
+    public TransactionDictionary lookup( Object key ) {
+        if( key == null ) return null;
+        int hash = spread(key);
+        Stripe stripe = stripeFor(hash);
+        TransactionDictionary transactionDictionary = null;
+        synchronized (stripe) {
+            TrackedReference reference = stripe.find(key, hash);
+            if( reference != null ) transactionDictionary = reference.transactionDictionary;
+        }
+        if( transactionDictionary != null ) transactionDictionary.update();
+        return transactionDictionary;
+    }
+
+    @Override
+    public TransactionDictionary take( Object key ) {
+        if( key == null ) return null;
+        int hash = spread(key);
+        Stripe stripe = stripeFor(hash);
+        TransactionDictionary transactionDictionary = null;
+        synchronized (stripe) {
+            TrackedReference reference = stripe.find(key, hash);
+            if( reference != null && stripe.unlink(reference) ) {
+                transactionDictionary = reference.transactionDictionary;
+                reference.clear(); //a cleared reference is never enqueued, so the reclaimer won't see it
+            }
+        }
+        expungeCollected();
+        return transactionDictionary;
+    }
+
+    @Override
+    public boolean remove( Object key, TransactionDictionary transactionDictionary ) {
+        if( key == null ) return false;
+        int hash = spread(key);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            TrackedReference reference = stripe.find(key, hash);
+            if( reference == null || reference.transactionDictionary != transactionDictionary ) return false;
+            stripe.unlink(reference);
+            reference.clear();
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for( Stripe stripe : stripes ) size += stripe.size;
+        return size;
+    }
+
+    public long getReclaimedCount() { return reclaimedCount.get(); }
+
+    private void expungeCollected() {
+        Reference<?> collected;
+        while( (collected = referenceQueue.poll()) != null ) {
+            TrackedReference reference = (TrackedReference) collected;
+            boolean removed;
+            Stripe stripe = stripes[ reference.hash & stripeMask ];
+            synchronized (stripe) {
+                removed = stripe.unlink(reference);
+            }
+            if( removed ) endOrphan(reference.transactionDictionary);
+        }
+    }
+
+    /*
+    Scheduler thread, entries are only unlinked under their stripe lock, and ended outside of it
+     */
+    void sweep() {
+        expungeCollected();
+        long oldest = MonotonicClock.now() - scheduler.ageToDiscard;
+        for( Stripe stripe : stripes ) {
+            if( stripe.size == 0 ) continue;
+            synchronized (stripe) {
+                for( int i=0; i< stripe.table.length; i++ ) {
+                    TrackedReference reference = stripe.table[i];
+                    while( reference != null ) {
+                        TrackedReference next = reference.next;
+                        TransactionDictionary transactionDictionary = reference.transactionDictionary;
+                        if( transactionDictionary != null && transactionDictionary.getLastTouchTime() < oldest && stripe.unlink(reference) ) {
+                            reference.clear();
+                            swept.add(transactionDictionary);
+                        }
+                        reference = next;
+                    }
+                }
+            }
+        }
+        for( TransactionDictionary transactionDictionary : swept )
+            abandon(transactionDictionary, "BT abandoned, no activity for "+ scheduler.ageToDiscard +"ms");
+        swept.clear();
+    }
+
+    private void endOrphan( TransactionDictionary transactionDictionary ) {
+        if( transactionDictionary == null || transactionDictionary.isFinished() ) return;
+        abandon(transactionDictionary, "BT orphaned, the intercepted object was garbage collected before it completed");
+        reclaimedCount.incrementAndGet();
+    }
+
+    private static class TrackedReference extends WeakReference<Object> {
+        final int hash;
+        volatile TransactionDictionary transactionDictionary;
+        TrackedReference next;
+
+        TrackedReference( Object key, int hash, TransactionDictionary transactionDictionary, ReferenceQueue<Object> referenceQueue ) {
+            super(key, referenceQueue);
+            this.hash = hash;
+            this.transactionDictionary = transactionDictionary;
+        }
+    }
+
+    /*
+    chained identity hash table, guarded by synchronizing on the stripe
+     */
+    private static class Stripe {
+        final TrackedReference[] table;
+        final int shift; //low bits of the hash already picked the stripe
+        int count = 0;
+        volatile int size = 0;
+
+        Stripe( int tableSize, int shift ) {
+            this.table = new TrackedReference[tableSize];
+            this.shift = shift;
+        }
+
+        int indexFor( int hash ) {
+            return (hash >>> shift) & (table.length -1);
+        }
+
+        TrackedReference find( Object key, int hash ) {
+            for( TrackedReference reference = table[indexFor(hash)]; reference != null; reference = reference.next )
+                if( reference.get() == key ) return reference;
+            return null;
+        }
+
+        void add( TrackedReference reference ) {
+            int index = indexFor(reference.hash);
+            reference.next = table[index];
+            table[index] = reference;
+            size = ++count;
+        }
+
+        boolean unlink( TrackedReference target ) {
+            int index = indexFor(target.hash);
+            TrackedReference previous = null;
+            for( TrackedReference reference = table[index]; reference != null; reference = reference.next ) {
+                if( reference == target ) {
+                    if( previous == null ) {
+                        table[index] = reference.next;
+                    } else {
+                        previous.next = reference.next;
+                    }
+                    reference.next = null;
+                    size = --count;
+                    return true;
+                }
+                previous = reference;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.appdynamics.agent.sdk.impl;
+
+import com.appdynamics.instrumentation.sdk.logging.ISDKLogger;
+
+/*
+Test stand in for the agent's logger factory, ASDKPlugin and AppdynamicsAgent call it by name and only the agent ships it
+debug stays off, which is how production runs
+ */
+public class LoggerFactory {
+    private static final LoggerFactory instance = new LoggerFactory();
+
+    public static LoggerFactory getInstance() {
+        return instance;
+    }
+
+    public ISDKLogger getNewLogger( String name ) {
+        return new NoOpLogger();
+    }
+}
@@ -0,0 +1,97 @@
+package com.cisco.josouthe;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+Metric name folding in the publisher, on a publisher that is never started, the test drain()s and publishes it itself
+    BACKENDS backends report the four metrics BackendLatencyStats does, two observations, a sum and an average, far more names
+        than the guard's limit, every name published must stay within the limit plus the global Other per aggregation type, and
+        every Other must only hold values of its own aggregation type
+ */
+public class AsyncPublisherTest {
+    private static final int MAX_NAMES = 20;
+    private static final int BACKENDS = 30;
+    private static final String FOLDER = PluginMetrics.METRIC_PREFIX +"Backends Test|";
+    private static final String GLOBAL_OTHER = PluginMetrics.METRIC_PREFIX + CardinalityGuard.OTHER +"|";
+
+    private FakeAgent agent;
+    private AsyncPublisher publisher;
+    private CardinalityGuard metricNames;
+
+    @Before
+    public void setUp() {
+        agent = FakeAgent.install();
+        agent.reset();
+        publisher = new AsyncPublisher();
+        metricNames = new CardinalityGuard("Test Metric Names", MAX_NAMES);
+        publisher.setMetricNameGuard(metricNames);
+    }
+
+    @Test
+    public void namesPastTheLimitFoldIntoAnOtherPerAggregationType() {
+        Map<String, Long> published = publishInterval();
+
+        assertTrue("guard tracks "+ metricNames.getKnownCount(), metricNames.getKnownCount() <= MAX_NAMES);
+        assertTrue(published.keySet().toString(), published.size() <= MAX_NAMES + 3);
+        assertTrue("no backend kept its own Other "+ published.keySet(), published.keySet().stream().anyMatch(name -> name.startsWith(FOLDER) && name.contains("|Other|")));
+        assertTrue("no global Other "+ published.keySet(), published.containsKey(GLOBAL_OTHER +"SUM"));
+        for( Map.Entry<String, Long> metric : published.entrySet() ) {
+            String name = metric.getKey();
+            String aggregationType = agent.publishedAggregationTypes().get(name);
+            assertFalse(name, name.endsWith("|"+ CardinalityGuard.OTHER));
+            if( name.contains("|"+ CardinalityGuard.OTHER +"|") ) assertEquals(name, name.substring(name.lastIndexOf('|') +1), aggregationType);
+            if( "AVERAGE".equals(aggregationType) ) assertEquals(name, 7L, (long) metric.getValue());
+            if( "OBSERVATION".equals(aggregationType) ) assertTrue(name +"="+ metric.getValue(), metric.getValue() >= 100 && metric.getValue() < 200);
+        }
+        assertEquals("calls lost or mixed in with other types", BACKENDS * 5L, sumOf(published, "SUM"));
+    }
+
+    @Test
+    public void theFoldedNamesAreTheSameEveryInterval() {
+        Map<String, Long> first = publishInterval();
+        agent.reset();
+        Map<String, Long> second = publishInterval();
+        assertEquals(first.keySet(), second.keySet());
+        assertEquals(BACKENDS * 5L, sumOf(second, "SUM"));
+    }
+
+    @Test
+    public void withoutAGuardNothingIsFolded() {
+        publisher.setMetricNameGuard(null);
+        assertEquals(BACKENDS * 4, publishInterval().size());
+    }
+
+    /*
+    one interval of BackendLatencyStats style metrics for every backend, what the publisher reported for them
+     */
+    private Map<String, Long> publishInterval() {
+        for( int i=0; i< BACKENDS; i++ ) {
+            String name = FOLDER +"billing-"+ i +".svc.cluster.local:8080|";
+            publisher.reportMetric(name +"Latency 50th Percentile (ms)", 100 + i, "OBSERVATION", "CURRENT", "INDIVIDUAL");
+            publisher.reportMetric(name +"Latency 99th Percentile (ms)", 150 + i, "OBSERVATION", "CURRENT", "INDIVIDUAL");
+            publisher.reportMetric(name +"Calls", 5, "SUM", "SUM", "COLLECTIVE");
+            publisher.reportMetric(name +"Average Payload (KB)", 7, "AVERAGE", "AVERAGE", "INDIVIDUAL");
+        }
+        publisher.drain();
+        publisher.publishMetrics();
+        Map<String, Long> published = new TreeMap<>();
+        for( Map.Entry<String, Long> metric : agent.publishedMetrics().entrySet() )
+            if( metric.getKey().startsWith(FOLDER) || metric.getKey().startsWith(GLOBAL_OTHER) ) published.put(metric.getKey(), metric.getValue());
+        return published;
+    }
+
+    private long sumOf( Map<String, Long> published, String aggregationType ) {
+        long sum = 0;
+        for( Map.Entry<String, Long> metric : published.entrySet() )
+            if( aggregationType.equals(agent.publishedAggregationTypes().get(metric.getKey())) ) sum += metric.getValue();
+        return sum;
+    }
+}
@@ -0,0 +1,78 @@
+package com.cisco.josouthe;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/*
+Backend descriptors and the latency stats they resolve to, on the NiSourceApiClientExitCallInterceptor's own cache and stats
+    a cached descriptor resolves its Backend once, every later exit call reads it off the descriptor
+    past the cache's limit, or after an alias reload, descriptors are new per call but still land on the one Backend per host:port,
+        and nothing is kept for them
+ */
+public class BackendDescriptorCacheTest {
+    private static final int CACHE_LIMIT = 1000;
+
+    private NiSourceApiClientExitCallInterceptor apiClient;
+    private BackendDescriptorCache descriptors;
+    private BackendLatencyStats stats;
+
+    @Before
+    public void setUp() {
+        FakeAgent.install().reset();
+        apiClient = new NiSourceApiClientExitCallInterceptor();
+        descriptors = apiClient.backendDescriptors;
+        stats = apiClient.backendLatencyStats;
+    }
+
+    @Test
+    public void aCachedDescriptorKeepsItsBackend() throws MalformedURLException {
+        BackendDescriptorCache.Descriptor descriptor = descriptors.getDescriptor(new URL("http://billing.svc.cluster.local:8080/api/v1/accounts/1042"));
+        BackendLatencyStats.Backend backend = stats.getBackend(descriptor);
+
+        assertSame(backend, descriptor.backend);
+        assertEquals("billing.svc.cluster.local:8080", backend.name);
+        BackendDescriptorCache.Descriptor again = descriptors.getDescriptor(new URL("http://billing.svc.cluster.local:8080/api/v1/accounts/7"));
+        assertSame(descriptor, again);
+        assertSame(backend, stats.getBackend(again));
+        assertEquals(1, stats.size());
+    }
+
+    @Test
+    public void descriptorsPastTheLimitAreNotKept() throws MalformedURLException {
+        for( int i=0; i< CACHE_LIMIT; i++ ) descriptors.getDescriptor(new URL("http://pod-"+ i +".orders.svc.cluster.local/api/orders"));
+        assertEquals(CACHE_LIMIT, descriptors.size());
+
+        URL pastTheLimit = new URL("http://billing.svc.cluster.local:8080/api/v1/accounts/1042");
+        BackendDescriptorCache.Descriptor first = descriptors.getDescriptor(pastTheLimit);
+        BackendDescriptorCache.Descriptor second = descriptors.getDescriptor(pastTheLimit);
+        assertNotSame(first, second);
+        assertEquals(first.properties, second.properties);
+        assertSame(stats.getBackend(first), stats.getBackend(second));
+        assertEquals(CACHE_LIMIT, descriptors.size());
+    }
+
+    @Test
+    public void anAliasReloadKeepsTheBackends() throws MalformedURLException {
+        URL url = new URL("http://billing.svc.cluster.local:8080/api/v1/accounts/1042");
+        BackendDescriptorCache.Descriptor before = descriptors.getDescriptor(url);
+        BackendLatencyStats.Backend backend = stats.getBackend(before);
+
+        Properties properties = apiClient.getConfig().toProperties();
+        properties.setProperty(BackendDescriptorCache.BACKEND_ALIASES_PROPERTY, "orders-[a-z0-9-]+=orders");
+        apiClient.onConfigChange(new PluginConfig(properties, apiClient.getConfig().getLastModified()));
+
+        BackendDescriptorCache.Descriptor after = descriptors.getDescriptor(url);
+        assertNotSame(before, after);
+        assertSame(backend, stats.getBackend(after));
+        assertSame(backend, after.backend);
+        assertEquals(1, stats.size());
+    }
+}
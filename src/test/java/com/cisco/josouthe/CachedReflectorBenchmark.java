@@ -0,0 +1,80 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.IReflector;
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.ReflectorException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+Per call cost of the reads buildServletContext and the exit call make, through CachedReflector against the reflector the SDK builds
+    the sdk benchmarks call the builder's IReflector the way getReflectiveObject used to, execute(classLoader, target, args), with
+        the FakeAgent that is a lookup by name and a java.lang.reflect call every time, the agent's own does at least that much
+    mvn -P benchmarks verify -Dbenchmarks=CachedReflectorBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CachedReflectorBenchmark {
+    FakeVertx.HttpServerRequest request;
+    FakeOkHttp.Call call;
+    IReflector sdkPath, sdkGetHeader, sdkOriginalRequest;
+    CachedReflector path, getHeader, originalRequest;
+    Object[] hostArgs = new Object[]{ "host" };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FakeAgent.install();
+        request = new FakeVertx.HttpServerRequest("GET", "http://gateway:8080/customers/1042?expand=orders").header("host", "gateway:8080");
+        call = new FakeOkHttp.Call(new FakeOkHttp.Wire(), new FakeOkHttp.Request("GET", "http://billing.svc.cluster.local:8080/api/v1/accounts/1042"));
+        sdkPath = new FakeReflectionBuilder().invokeInstanceMethod("path", true).build();
+        sdkGetHeader = new FakeReflectionBuilder().invokeInstanceMethod("getHeader", true, String.class.getName()).build();
+        sdkOriginalRequest = new FakeReflectionBuilder().accessFieldValue("originalRequest", true).build();
+        path = CachedReflector.forMethod(sdkPath, "path");
+        getHeader = CachedReflector.forMethod(sdkGetHeader, "getHeader", String.class.getName());
+        originalRequest = CachedReflector.forField(sdkOriginalRequest, "originalRequest");
+    }
+
+    @Benchmark
+    public Object methodCached() throws ReflectorException {
+        return path.invoke(request);
+    }
+
+    @Benchmark
+    public Object methodSdk() throws ReflectorException {
+        return sdkPath.execute(request.getClass().getClassLoader(), request);
+    }
+
+    @Benchmark
+    public Object methodWithArgumentCached() throws ReflectorException {
+        return getHeader.invoke(request, hostArgs);
+    }
+
+    @Benchmark
+    public Object methodWithArgumentSdk() throws ReflectorException {
+        return sdkGetHeader.execute(request.getClass().getClassLoader(), request, hostArgs);
+    }
+
+    @Benchmark
+    public Object fieldCached() throws ReflectorException {
+        return originalRequest.invoke(call);
+    }
+
+    @Benchmark
+    public Object fieldSdk() throws ReflectorException {
+        return sdkOriginalRequest.execute(call.getClass().getClassLoader(), call);
+    }
+}
@@ -0,0 +1,148 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.IReflector;
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.OperationParams;
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.ReflectorException;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachedReflectorTest {
+
+    /*
+    the SDK reflector, counting how often CachedReflector had to fall back to it
+     */
+    private static class CountingReflector implements IReflector {
+        final AtomicInteger calls = new AtomicInteger();
+        final Object answer;
+
+        CountingReflector( Object answer ) {
+            this.answer = answer;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <E> E execute( ClassLoader classLoader, Object target, Object[]... args ) {
+            calls.incrementAndGet();
+            return (E) answer;
+        }
+
+        @Override
+        public <E> E execute( ClassLoader classLoader, Object target, OperationParams operationParams ) {
+            return execute(classLoader, target);
+        }
+    }
+
+    static class Message { //package private, like the vert.x impl classes
+        private String body = "base";
+        private int retries = 3;
+
+        private String describe() { return "message"; }
+        String header( String name ) { return name +"=1"; }
+        Object route( String method, Integer port, Object tag ) { return method + port + tag; }
+        String fail() { throw new IllegalStateException("broken"); }
+    }
+
+    static class Reply extends Message {
+        private String body = "reply";
+
+        String header( String name ) { return name +"=2"; }
+    }
+
+    @Test
+    public void methodsResolveWithoutTheSdkReflector() throws ReflectorException {
+        CountingReflector sdkReflector = new CountingReflector("sdk");
+        CachedReflector describe = CachedReflector.forMethod(sdkReflector, "describe");
+        CachedReflector header = CachedReflector.forMethod(sdkReflector, "header", String.class.getName());
+        CachedReflector route = CachedReflector.forMethod(sdkReflector, "route", String.class.getName(), Integer.class.getName(), Object.class.getName());
+
+        assertEquals("message", describe.invoke(new Message()));
+        assertEquals("host=1", header.invoke(new Message(), "host"));
+        assertEquals("GET8080x", route.invoke(new Message(), "GET", 8080, "x"));
+        assertEquals(0, sdkReflector.calls.get());
+    }
+
+    @Test
+    public void eachReceiverClassGetsItsOwnMethod() throws ReflectorException {
+        CachedReflector header = CachedReflector.forMethod(new CountingReflector("sdk"), "header", String.class.getName());
+        assertEquals("host=1", header.invoke(new Message(), "host"));
+        assertEquals("host=2", header.invoke(new Reply(), "host"));
+        assertEquals("message", CachedReflector.forMethod(null, "describe").invoke(new Reply())); //private, found on the super class
+    }
+
+    @Test
+    public void unresolvedClassesFallBackToTheSdkReflector() throws ReflectorException {
+        CountingReflector sdkReflector = new CountingReflector("sdk");
+        CachedReflector missing = CachedReflector.forMethod(sdkReflector, "absent");
+        assertEquals("sdk", missing.invoke(new Message()));
+        assertEquals("sdk", missing.invoke(new Message()));
+        assertEquals(2, sdkReflector.calls.get());
+
+        CachedReflector unknownType = CachedReflector.forMethod(sdkReflector, "header", "com.example.NotOnTheClasspath");
+        assertEquals("sdk", unknownType.invoke(new Message(), "host"));
+        assertEquals(3, sdkReflector.calls.get());
+    }
+
+    @Test
+    public void aCallWithTheWrongArgumentCountGoesToTheSdkReflector() throws ReflectorException {
+        CountingReflector sdkReflector = new CountingReflector("sdk");
+        CachedReflector header = CachedReflector.forMethod(sdkReflector, "header", String.class.getName());
+        assertEquals("sdk", header.invoke(new Message()));
+        assertEquals(1, sdkReflector.calls.get());
+    }
+
+    @Test
+    public void fieldsAreReadFromTheClassThatDeclaresThem() throws ReflectorException {
+        CountingReflector sdkReflector = new CountingReflector("sdk");
+        CachedReflector body = CachedReflector.forField(sdkReflector, "body");
+        CachedReflector retries = CachedReflector.forField(sdkReflector, "retries");
+        assertEquals("base", body.invoke(new Message()));
+        assertEquals("reply", body.invoke(new Reply())); //the field Reply declares hides Message's
+        assertEquals(3, retries.invoke(new Reply())); //boxed by the handle
+        assertEquals(0, sdkReflector.calls.get());
+    }
+
+    @Test
+    public void fieldSettersStoreTheValue() throws ReflectorException {
+        Reply reply = new Reply();
+        assertNull(CachedReflector.forFieldSetter("body").invoke(reply, "swapped"));
+        assertEquals("swapped", CachedReflector.forField(null, "body").invoke(reply));
+        assertEquals("base", CachedReflector.forField(null, "body").invoke(new Message()));
+    }
+
+    @Test
+    public void settersForMissingFieldsThrow() {
+        try {
+            CachedReflector.forFieldSetter("absent").invoke(new Message(), "value");
+            fail("set a field that does not exist");
+        } catch (ReflectorException expected) {
+            assertTrue(expected.getCause() instanceof NoSuchFieldException);
+        }
+    }
+
+    @Test
+    public void exceptionsFromTheTargetAreWrapped() {
+        try {
+            CachedReflector.forMethod(null, "fail").invoke(new Message());
+            fail("the target's exception was lost");
+        } catch (ReflectorException expected) {
+            assertEquals("broken", expected.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void theFakeAgentRequestsResolveDirectly() throws ReflectorException {
+        FakeVertx.HttpServerRequest request = new FakeVertx.HttpServerRequest("GET", "http://gateway:8080/customers/1042?expand=orders");
+        assertEquals("/customers/1042", CachedReflector.forMethod(null, "path").invoke(request));
+        assertEquals("gateway:8080", CachedReflector.forMethod(null, "getHeader", String.class.getName()).invoke(request.header("host", "gateway:8080"), "host"));
+        FakeOkHttp.Request original = new FakeOkHttp.Request("GET", "http://billing/accounts");
+        FakeOkHttp.Call call = new FakeOkHttp.Call(new FakeOkHttp.Wire(), original);
+        assertSame(original, CachedReflector.forField(null, "originalRequest").invoke(call));
+    }
+}
@@ -0,0 +1,198 @@
+package com.cisco.josouthe;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/*
+The correlation header NiSourceApiClientExitCallInterceptor adds has to be on the request the Call sends, not just on a copy
+    okhttp requests are immutable, the interceptor builds a new one and swaps it into the Call's originalRequest field between
+        executeAsync's begin and the enqueue, FakeOkHttp.Call reads that field when it is enqueued, like okhttp 2.7
+    each request the Call hands the Wire is then sent to a local http server, the stand in for a MockWebServer, and the test
+        checks what that server received
+ */
+public class CorrelationHeaderTest {
+    private static final String API_CLIENT_CLASS = "com.nisource.remote.rest.generated.ApiClient";
+    private static final String CALLBACK_CLASS = "com.nisource.remote.rest.generated.ApiClient$1";
+    private static final String CORRELATION_HEADER = "singularityheader";
+
+    private static FakeAgent agent;
+    private static NiSourceApiClientExitCallInterceptor apiClient;
+    private static HttpServer server;
+    private static final List<Map<String, List<String>>> received = new CopyOnWriteArrayList<>();
+
+    private FakeOkHttp.Wire wire;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        agent = FakeAgent.install();
+        apiClient = new NiSourceApiClientExitCallInterceptor();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            received.add(exchange.getRequestHeaders());
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    @Before
+    public void setUp() {
+        agent.reset();
+        received.clear();
+        wire = new FakeOkHttp.Wire();
+    }
+
+    @After
+    public void tearDown() {
+        agent.reset();
+    }
+
+    @Test
+    public void theServerReceivesTheExitCallsCorrelationHeader() throws IOException {
+        FakeTransaction transaction = agent.startTransaction("BT-outer");
+        FakeOkHttp.Request original = new FakeOkHttp.Request("GET", "http://billing.svc.cluster.local:8080/api/v1/accounts/1042");
+        FakeNiSource.ApiCallback<Object> callback = new FakeNiSource.ApiCallback<>();
+        executeAsync(new FakeOkHttp.Call(wire, original), callback);
+
+        FakeExitCall exitCall = transaction.getExitCalls().get(0);
+        assertNotNull(exitCall.getCorrelationHeader());
+        assertEquals(1, wire.getSent().size());
+        assertEquals(exitCall.getCorrelationHeader(), wire.lastSent().header(CORRELATION_HEADER));
+        assertEquals(1, sendToServer(wire.getSent()));
+        assertEquals(Collections.singletonList(exitCall.getCorrelationHeader()), received.get(0).get(CORRELATION_HEADER));
+        complete(callback);
+    }
+
+    @Test
+    public void theCallersRequestIsLeftAsItWas() {
+        agent.startTransaction("BT-outer");
+        FakeOkHttp.Request original = new FakeOkHttp.Request("POST", "http://billing.svc.cluster.local:8080/api/v1/accounts/1042/usage?period=2024-06").newBuilder()
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer token")
+                .build();
+        FakeOkHttp.Call call = new FakeOkHttp.Call(wire, original);
+        FakeNiSource.ApiCallback<Object> callback = new FakeNiSource.ApiCallback<>();
+        executeAsync(call, callback);
+
+        FakeOkHttp.Request sent = wire.lastSent();
+        assertNotSame(original, sent);
+        assertNull(original.header(CORRELATION_HEADER));
+        assertEquals(original.method(), sent.method());
+        assertSame(original.url(), sent.url());
+        assertEquals("application/json", sent.header("Content-Type"));
+        assertEquals("Bearer token", sent.header("Authorization"));
+        assertEquals(3, sent.headers().size());
+        complete(callback);
+    }
+
+    @Test
+    public void aStaleCorrelationHeaderIsReplaced() throws IOException {
+        FakeTransaction transaction = agent.startTransaction("BT-outer");
+        FakeOkHttp.Request retry = new FakeOkHttp.Request("GET", "http://orders.svc.cluster.local/api/orders").newBuilder()
+                .header(CORRELATION_HEADER, "ctx=from-an-earlier-attempt")
+                .build();
+        FakeNiSource.ApiCallback<Object> callback = new FakeNiSource.ApiCallback<>();
+        executeAsync(new FakeOkHttp.Call(wire, retry), callback);
+
+        String correlationHeader = transaction.getExitCalls().get(0).getCorrelationHeader();
+        assertEquals(correlationHeader, wire.lastSent().header(CORRELATION_HEADER));
+        sendToServer(wire.getSent());
+        assertEquals(Collections.singletonList(correlationHeader), received.get(0).get(CORRELATION_HEADER));
+        complete(callback);
+    }
+
+    @Test
+    public void everyCallCarriesItsOwnExitCallsHeader() throws IOException {
+        FakeTransaction transaction = agent.startTransaction("BT-outer");
+        FakeOkHttp.Request shared = new FakeOkHttp.Request("GET", "http://orders.svc.cluster.local/api/orders");
+        List<FakeNiSource.ApiCallback<Object>> callbacks = new ArrayList<>();
+        for( int i=0; i< 5; i++ ) {
+            FakeNiSource.ApiCallback<Object> callback = new FakeNiSource.ApiCallback<>();
+            executeAsync(new FakeOkHttp.Call(wire, shared), callback); //the generated client reuses request templates
+            callbacks.add(callback);
+        }
+
+        assertEquals(5, sendToServer(wire.getSent()));
+        assertEquals(5, transaction.getExitCalls().size());
+        for( int i=0; i< 5; i++ ) {
+            String correlationHeader = transaction.getExitCalls().get(i).getCorrelationHeader();
+            assertEquals(correlationHeader, wire.getSent().get(i).header(CORRELATION_HEADER));
+            assertEquals(Collections.singletonList(correlationHeader), received.get(i).get(CORRELATION_HEADER));
+        }
+        assertNull(shared.header(CORRELATION_HEADER));
+        for( FakeNiSource.ApiCallback<Object> callback : callbacks ) complete(callback);
+    }
+
+    @Test
+    public void withoutABTTheRequestGoesOutUntouched() throws IOException {
+        FakeOkHttp.Request original = new FakeOkHttp.Request("GET", "http://billing.svc.cluster.local:8080/api/v1/accounts/1042");
+        assertNull(executeAsync(new FakeOkHttp.Call(wire, original), new FakeNiSource.ApiCallback<Object>()));
+
+        assertSame(original, wire.lastSent());
+        sendToServer(wire.getSent());
+        assertNull(received.get(0).get(CORRELATION_HEADER));
+    }
+
+    /*
+    executeAsync the way ApiClient runs it, the Call is enqueued by the intercepted method, so between our begin and end
+     */
+    private static Object executeAsync( FakeOkHttp.Call call, FakeNiSource.ApiCallback<?> callback ) {
+        FakeNiSource.ApiClient client = new FakeNiSource.ApiClient("http://gateway");
+        Object[] params = new Object[]{ call, Object.class, callback };
+        Object state = apiClient.onMethodBegin(client, API_CLIENT_CLASS, "executeAsync", params);
+        client.executeAsync(call, Object.class, callback);
+        apiClient.onMethodEnd(state, client, API_CLIENT_CLASS, "executeAsync", params, null, null);
+        return state;
+    }
+
+    /*
+    end the exit call, so the tracker is empty for the next test
+     */
+    private static void complete( FakeNiSource.ApiCallback<Object> callback ) {
+        FakeAgent.intercept(apiClient, callback, CALLBACK_CLASS, "onSuccess", "{}", 200, null);
+    }
+
+    /*
+    each request as it left the Call, method, path and headers, to the local server instead of its own host
+     */
+    private static int sendToServer( List<FakeOkHttp.Request> requests ) throws IOException {
+        for( FakeOkHttp.Request request : requests ) {
+            URL local = new URL("http", "127.0.0.1", server.getAddress().getPort(), request.url().getFile());
+            HttpURLConnection connection = (HttpURLConnection) local.openConnection();
+            connection.setRequestMethod(request.method());
+            for( Map.Entry<String, String> header : request.headers().entrySet() ) connection.setRequestProperty(header.getKey(), header.getValue());
+            if( "POST".equals(request.method()) ) {
+                connection.setDoOutput(true);
+                connection.getOutputStream().close();
+            }
+            assertEquals(204, connection.getResponseCode());
+            connection.disconnect();
+        }
+        return received.size();
+    }
+}
@@ -0,0 +1,103 @@
+package com.cisco.josouthe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+Throughput of the Vert.x handleBegin/handleEnd pair with debug off, through the cached-level debug() facade against the same
+interceptor with the trace lines it used to have put back, getLogger().debug(String.format(...)) whether debug is on or not
+    the FakeAgent's logger has debug off, like production
+    debugLine and formattedDebugLine are one of those lines on its own
+    mvn -P benchmarks verify -Dbenchmarks=DebugLoggingBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DebugLoggingBenchmark {
+    private static final String REQUEST_CLASS = "io.vertx.core.http.impl.HttpServerRequestImpl";
+    private static final int POOL = 512; //power of two
+
+    /*
+    the begin/end trace lines VertexHTTP_ver363_Interceptor had before the facade, formatted on every call
+     */
+    public static class UnguardedTraceInterceptor extends VertexHTTP_ver363_Interceptor {
+        @Override
+        public Object interceptMethodBegin( Object objectIntercepted, String className, String methodName, Object[] params ) {
+            getLogger().debug(String.format("Begin onMethodBegin %s.%s() ",className,methodName));
+            Object state = super.interceptMethodBegin(objectIntercepted, className, methodName, params);
+            if( state != null ) getLogger().debug(String.format("Transaction not active, started BT: %s", ((com.cisco.josouthe.State) state).transaction.getUniqueIdentifier()));
+            getLogger().debug(String.format("Finish onMethodBegin %s.%s() ",className,methodName));
+            return state;
+        }
+
+        @Override
+        public void interceptMethodEnd( Object state, Object object, String className, String methodName, Object[] params, Throwable exception, Object returnVal ) {
+            getLogger().debug(String.format("Begin onMethodEnd %s.%s() ",className,methodName));
+            super.interceptMethodEnd(state, object, className, methodName, params, exception, returnVal);
+            getLogger().debug(String.format("Finish onMethodEnd %s.%s() ",className,methodName));
+        }
+
+        void formattedDebug( String className, String methodName ) {
+            getLogger().debug(String.format("Begin onMethodBegin %s.%s() ",className,methodName));
+        }
+    }
+
+    VertexHTTP_ver363_Interceptor facadeInterceptor;
+    UnguardedTraceInterceptor unguardedInterceptor;
+    FakeVertx.HttpServerRequest[] requests;
+    Object[] noParams = new Object[0];
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FakeAgent.install().setRecording(false);
+        facadeInterceptor = new VertexHTTP_ver363_Interceptor();
+        unguardedInterceptor = new UnguardedTraceInterceptor();
+        if( facadeInterceptor.isDebugEnabled() ) throw new IllegalStateException("debug is on, this measures debug off");
+        requests = new FakeVertx.HttpServerRequest[POOL];
+        for( int i=0; i< POOL; i++ ) requests[i] = new FakeVertx.HttpServerRequest("GET", "http://gateway:8080/customers/"+ i +"/orders");
+    }
+
+    private Object request( VertexHTTP_ver363_Interceptor interceptor ) {
+        FakeVertx.HttpServerRequest request = requests[ next = (next +1) & (POOL -1) ];
+        Object state = interceptor.onMethodBegin(request, REQUEST_CLASS, "handleBegin", noParams);
+        interceptor.onMethodEnd(state, request, REQUEST_CLASS, "handleBegin", noParams, null, null);
+        state = interceptor.onMethodBegin(request, REQUEST_CLASS, "handleEnd", noParams);
+        interceptor.onMethodEnd(state, request, REQUEST_CLASS, "handleEnd", noParams, null, null);
+        return state;
+    }
+
+    @Benchmark
+    public Object requestWithDebugFacade() {
+        return request(facadeInterceptor);
+    }
+
+    @Benchmark
+    public Object requestWithUnguardedDebug() {
+        return request(unguardedInterceptor);
+    }
+
+    @Benchmark
+    public void debugLine() {
+        facadeInterceptor.debug("Begin onMethodBegin %s.%s() ", REQUEST_CLASS, "handleBegin");
+    }
+
+    @Benchmark
+    public void formattedDebugLine() {
+        unguardedInterceptor.formattedDebug(REQUEST_CLASS, "handleBegin");
+    }
+}
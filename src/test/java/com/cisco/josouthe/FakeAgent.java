@@ -0,0 +1,382 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.agent.api.AppdynamicsAgent;
+import com.appdynamics.agent.api.EventPublisher;
+import com.appdynamics.agent.api.ExitCall;
+import com.appdynamics.agent.api.MetricPublisher;
+import com.appdynamics.agent.api.ServletContext;
+import com.appdynamics.agent.api.Transaction;
+import com.appdynamics.agent.api.bootstrap.IApiBootstrapFacade;
+import com.appdynamics.agent.api.bootstrap.IApiTransactionDelegate;
+import com.appdynamics.agent.api.impl.NoOpExitCall;
+import com.appdynamics.agent.api.impl.NoOpTransaction;
+import com.appdynamics.apm.appagent.api.DataScope;
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.ReflectorFactory;
+import com.appdynamics.instrumentation.sdk.util.AgentInfoUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+In process stand in for the java agent, AppdynamicsAgent binds to it through the test ApiBootstrapFacade
+    BTs are FakeTransactions, current per thread like the agent's, a handoff maps the object to its BT until the BT ends and
+        startSegment() on that object makes it the thread's BT again, no BT on a thread is a NoOpTransaction, the same as the agent
+    every BT started is kept in startedTransactions() for assertions, turn that off with setRecording(false) for benchmarks
+    install() has to run before the first interceptor is constructed, it points the SDK at a temp plugin directory and at
+        FakeReflectionBuilder, PluginRuntime and everything under it are then shared by every test in the JVM, like in the agent
+    the startup config is the same for every test, whichever runs first, see STARTUP_CONFIG
+ */
+public class FakeAgent implements IApiBootstrapFacade, IApiTransactionDelegate {
+    private static final FakeAgent instance = new FakeAgent();
+    private static final Transaction NO_TRANSACTION = new NoOpTransaction();
+    private static final ExitCall NO_EXIT_CALL = new NoOpExitCall();
+    private static File pluginDirectory = null;
+    /*
+    CustomPlugin.properties as the first interceptor finds it, async context propagation is read at startup only, so it is on
+    for the whole run, and one route pattern for regex routes
+     */
+    public static final String[][] STARTUP_CONFIG = {
+            { "asyncContextPropagation", "true" },
+            { RouteNamingEngine.ROUTE_PATTERNS_PROPERTY, "/accounts/:id/usage" },
+    };
+
+    private final ThreadLocal<FakeTransaction> currentTransaction = new ThreadLocal<>();
+    final Map<Object, FakeTransaction> handoffs = new ConcurrentHashMap<>();
+    private final List<FakeTransaction> startedTransactions = new CopyOnWriteArrayList<>();
+    private final AtomicLong transactionIds = new AtomicLong();
+    private final AtomicInteger exitCallIds = new AtomicInteger();
+    private final FakeMetricPublisher metricPublisher = new FakeMetricPublisher();
+    private final FakeEventPublisher eventPublisher = new FakeEventPublisher();
+    private volatile boolean recording = true;
+
+    public static FakeAgent getInstance() {
+        return instance;
+    }
+
+    public static synchronized FakeAgent install() {
+        if( pluginDirectory == null ) {
+            try {
+                pluginDirectory = Files.createTempDirectory("sdk-plugins").toFile();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to create a plugin directory", e);
+            }
+            pluginDirectory.deleteOnExit();
+            new File(pluginDirectory, PluginRuntime.PLUGIN_PROPERTIES_FILE_NAME).deleteOnExit();
+            Properties startupConfig = new Properties();
+            for( String[] property : STARTUP_CONFIG ) startupConfig.setProperty(property[0], property[1]);
+            writeConfig(startupConfig);
+            AgentInfoUtil.initialize(pluginDirectory.getAbsolutePath());
+            ReflectorFactory.initialize(FakeReflectionBuilder.class);
+            AppdynamicsAgent.getTransaction(); //runs its static init, which binds to us
+        }
+        return instance;
+    }
+
+    public static File getPluginDirectory() {
+        return pluginDirectory;
+    }
+
+    /*
+    CustomPlugin.properties in the plugin directory, after startup a change is picked up by the runtime's poll like in the agent,
+    tests that can't wait for that hand the config to the interceptor's onConfigChange() themselves
+     */
+    public static synchronized void writeConfig( Properties properties ) {
+        try (OutputStream out = new FileOutputStream(new File(pluginDirectory, PluginRuntime.PLUGIN_PROPERTIES_FILE_NAME))) {
+            properties.store(out, "test config");
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write the plugin config", e);
+        }
+    }
+
+    /*
+    one call the way the agent makes it, onMethodBegin, the intercepted method, then onMethodEnd with the begin state
+     */
+    public static Object intercept( MyBaseInterceptor interceptor, Object target, String className, String methodName, Object... params ) {
+        return intercept(interceptor, target, className, methodName, null, params);
+    }
+
+    /*
+    same, for a method that threw
+     */
+    public static Object intercept( MyBaseInterceptor interceptor, Object target, String className, String methodName, Throwable exception, Object... params ) {
+        Object state = interceptor.onMethodBegin(target, className, methodName, params);
+        interceptor.onMethodEnd(state, target, className, methodName, params, exception, null);
+        return state;
+    }
+
+    /*
+    forget every BT and handoff, and leave this thread without a BT
+     */
+    public void reset() {
+        currentTransaction.remove();
+        handoffs.clear();
+        startedTransactions.clear();
+        metricPublisher.metrics.clear();
+        metricPublisher.aggregationTypes.clear();
+        eventPublisher.events.clear();
+    }
+
+    public void setRecording( boolean recording ) {
+        this.recording = recording;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public List<FakeTransaction> startedTransactions() {
+        return Collections.unmodifiableList(new ArrayList<>(startedTransactions));
+    }
+
+    public FakeTransaction lastStartedTransaction() {
+        return startedTransactions.isEmpty() ? null : startedTransactions.get(startedTransactions.size() -1);
+    }
+
+    public Map<String, Long> publishedMetrics() {
+        return Collections.unmodifiableMap(metricPublisher.metrics);
+    }
+
+    public Map<String, String> publishedAggregationTypes() {
+        return Collections.unmodifiableMap(metricPublisher.aggregationTypes);
+    }
+
+    public List<String> publishedEvents() {
+        return Collections.unmodifiableList(eventPublisher.events);
+    }
+
+    /*
+    a BT on this thread as if the agent's own servlet or POJO instrumentation had started it
+     */
+    public FakeTransaction startTransaction( String name ) {
+        FakeTransaction transaction = new FakeTransaction(this, "fake-"+ transactionIds.incrementAndGet(), name, null);
+        if( recording ) startedTransactions.add(transaction);
+        currentTransaction.set(transaction);
+        return transaction;
+    }
+
+    FakeExitCall newExitCall( FakeTransaction transaction, Map<String, String> descriptor, URL url ) {
+        return new FakeExitCall(transaction, "ctx="+ transaction.getUniqueIdentifier() +"*exit="+ exitCallIds.incrementAndGet(), descriptor, url);
+    }
+
+    void leaveThread( FakeTransaction transaction ) {
+        if( currentTransaction.get() == transaction ) currentTransaction.remove();
+    }
+
+    //IApiBootstrapFacade
+
+    @Override
+    public MetricPublisher getMetricPublisher() { return metricPublisher; }
+
+    @Override
+    public EventPublisher getEventPublisher() { return eventPublisher; }
+
+    @Override
+    public IApiTransactionDelegate getTransactionDelegate() { return this; }
+
+    @Override
+    public boolean isAgentCompatible( int apiLevel ) { return true; }
+
+    //IApiTransactionDelegate
+
+    @Override
+    public Transaction getTransaction() {
+        FakeTransaction transaction = currentTransaction.get();
+        return transaction == null ? NO_TRANSACTION : transaction;
+    }
+
+    @Override
+    public Transaction getTransaction( String uniqueIdentifier ) {
+        for( FakeTransaction transaction : startedTransactions )
+            if( transaction.getUniqueIdentifier().equals(uniqueIdentifier) ) return transaction;
+        return NO_TRANSACTION;
+    }
+
+    @Override
+    public Map<String, String> getBackendIdentifyingPropertiesBasedOnConfiguration( Object object ) { return Collections.emptyMap(); }
+
+    @Override
+    public String getBTNameBasedOnConfigurationForEntryType( Object object ) { return null; }
+
+    @Override
+    public String getSEPNameBasedOnConfigurationForEntryType( Object object ) { return null; }
+
+    @Override
+    public Transaction startApiTransaction( String name, String correlationHeader, String entryType, boolean isAsync ) {
+        FakeTransaction transaction = startTransaction(name);
+        transaction.correlationHeader = correlationHeader;
+        return transaction;
+    }
+
+    @Override
+    public Transaction startApiTransaction( ServletContext servletContext, String entryType, String correlationHeader, boolean isAsync ) {
+        FakeTransaction transaction = startTransaction(servletContext == null ? null : servletContext.getUrl().getPath());
+        transaction.servletContext = servletContext;
+        transaction.correlationHeader = correlationHeader;
+        return transaction;
+    }
+
+    @Override
+    public Transaction startApiTransactionAndSep( String name, String correlationHeader, String serviceEndPointName, String entryType, boolean isAsync, long startTime, long endTime ) {
+        FakeTransaction transaction = startTransaction(name);
+        transaction.correlationHeader = correlationHeader;
+        return transaction;
+    }
+
+    @Override
+    public boolean endApiTransaction( Transaction transaction ) {
+        transaction.end();
+        return true;
+    }
+
+    @Override
+    public void markTransactionAsError( String message ) {
+        getTransaction().markAsError(message);
+    }
+
+    @Override
+    public void markTransactionAsError( String uniqueIdentifier, String message ) {
+        getTransaction(uniqueIdentifier).markAsError(message);
+    }
+
+    @Override
+    public ExitCall startApiExitCall( boolean isAsync, Map<String, String> descriptor, String displayName, String exitType ) {
+        FakeTransaction transaction = currentTransaction.get();
+        return transaction == null ? NO_EXIT_CALL : transaction.startExitCall(descriptor, displayName, exitType, isAsync);
+    }
+
+    @Override
+    public ExitCall startApiHttpExitCall( Map<String, String> descriptor, boolean isAsync ) {
+        FakeTransaction transaction = currentTransaction.get();
+        return transaction == null ? NO_EXIT_CALL : transaction.startHttpExitCall(descriptor, null, isAsync);
+    }
+
+    @Override
+    public void endApiExitCall( Object exitCall, Map<String, String> properties ) {
+        if( exitCall instanceof ExitCall ) ((ExitCall) exitCall).end();
+    }
+
+    @Override
+    public void markHandoff( Object object, String uniqueIdentifier ) {
+        getTransaction(uniqueIdentifier).markHandoff(object);
+    }
+
+    @Override
+    public void cancelHandoff( Object object ) {
+        handoffs.remove(object);
+    }
+
+    @Override
+    public Transaction startSegment( Object object ) {
+        FakeTransaction transaction = handoffs.get(object);
+        if( transaction == null ) return NO_TRANSACTION;
+        transaction.segmentStarts.incrementAndGet();
+        currentTransaction.set(transaction);
+        return transaction;
+    }
+
+    @Override
+    public Transaction startSegmentNoHandoff( String uniqueIdentifier ) {
+        return NO_TRANSACTION;
+    }
+
+    @Override
+    public boolean endSegment( Transaction transaction ) {
+        transaction.endSegment();
+        return true;
+    }
+
+    @Override
+    public void ignoreSegment( String uniqueIdentifier ) {}
+
+    @Override
+    public ExitCall fetchExitCall( Object object ) { return null; }
+
+    @Override
+    public boolean stashExitCall( Object object, ExitCall exitCall ) { return false; }
+
+    @Override
+    public boolean collectData( String uniqueIdentifier, String name, String value, Set<DataScope> dataScopes ) {
+        getTransaction(uniqueIdentifier).collectData(name, value, dataScopes);
+        return true;
+    }
+
+    @Override
+    public boolean collectHttpData( String uniqueIdentifier, Object object ) { return false; }
+
+    @Override
+    public Object createApiHttpNamingContext( URL url, String method, String host, Map<String, String> headers, Map<String, String[]> parameters, Map<String, Object> cookies ) { return null; }
+
+    @Override
+    public boolean handleOpenTracingBootStrap( Set<String> names ) { return false; }
+
+    @Override
+    public Transaction setCurrentTransactionName( Transaction transaction, String name ) {
+        if( transaction instanceof FakeTransaction ) ((FakeTransaction) transaction).name = name;
+        return transaction;
+    }
+
+    /*
+    last value reported per metric name, and the aggregation type it was reported with when the caller gave one
+     */
+    static class FakeMetricPublisher implements MetricPublisher {
+        final Map<String, Long> metrics = new ConcurrentHashMap<>();
+        final Map<String, String> aggregationTypes = new ConcurrentHashMap<>();
+
+        @Override
+        public void reportAverageMetric( String name, long value ) { metrics.put(name, value); }
+
+        @Override
+        public void reportSumMetric( String name, long value ) { metrics.put(name, value); }
+
+        @Override
+        public void reportObservedMetric( String name, long value ) { metrics.put(name, value); }
+
+        @Override
+        public void reportMetric( String name, long value, String aggregationType, String timeRollupType, String clusterRollupType ) {
+            metrics.put(name, value);
+            aggregationTypes.put(name, aggregationType);
+        }
+
+        @Override
+        public void reportMetric( String name, long value, long count, long min, long max, String aggregationType, String timeRollupType, String clusterRollupType ) {
+            metrics.put(name, value);
+            aggregationTypes.put(name, aggregationType);
+        }
+    }
+
+    /*
+    event summaries in the order they were published
+     */
+    static class FakeEventPublisher implements EventPublisher {
+        final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void publishErrorEvent( String summary, Map<String, String> details, boolean markTransactionAsError ) { events.add(summary); }
+
+        @Override
+        public void publishErrorEvent( String summary, Map<String, String> details, String eventType, boolean markTransactionAsError ) { events.add(summary); }
+
+        @Override
+        public void publishInfoEvent( String summary, Map<String, String> details ) { events.add(summary); }
+
+        @Override
+        public void publishInfoEvent( String summary, Map<String, String> details, String eventType ) { events.add(summary); }
+
+        @Override
+        public void publishEvent( String summary, String severity, String eventType, Map<String, String> details ) { events.add(summary); }
+    }
+}
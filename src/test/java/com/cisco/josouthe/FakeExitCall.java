@@ -0,0 +1,42 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.agent.api.ExitCall;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+An exit call of a FakeTransaction, its correlation header is unique so a test can look for it on the wire
+ */
+public class FakeExitCall implements ExitCall {
+    private final FakeTransaction transaction;
+    private final String correlationHeader;
+    private final Map<String, String> descriptor;
+    private final URL url;
+    final AtomicInteger endCount = new AtomicInteger();
+
+    FakeExitCall( FakeTransaction transaction, String correlationHeader, Map<String, String> descriptor, URL url ) {
+        this.transaction = transaction;
+        this.correlationHeader = correlationHeader;
+        this.descriptor = descriptor;
+        this.url = url;
+    }
+
+    public FakeTransaction getTransaction() { return transaction; }
+    public Map<String, String> getDescriptor() { return descriptor; }
+    public URL getUrl() { return url; }
+    public int getEndCount() { return endCount.get(); }
+    public boolean isEnded() { return endCount.get() > 0; }
+
+    @Override
+    public String getCorrelationHeader() { return correlationHeader; }
+
+    @Override
+    public void end() {
+        endCount.incrementAndGet();
+    }
+
+    @Override
+    public void stash( Object object ) {}
+}
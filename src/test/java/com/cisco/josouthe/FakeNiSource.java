@@ -0,0 +1,58 @@
+package com.cisco.josouthe;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+The gateway's generated rest client and its response handlers, as far as the interceptors can see them
+    com.nisource.remote.rest.generated.ApiClient, ApiCallback and ApiException
+    com.nisource.remote.rest.handlers.RestResponseHandler
+ */
+public class FakeNiSource {
+
+    public static class ApiClient {
+        private final String basePath;
+
+        public ApiClient( String basePath ) {
+            this.basePath = basePath;
+        }
+
+        public String getBasePath() { return basePath; }
+
+        public <T> void executeAsync( FakeOkHttp.Call call, Type returnType, ApiCallback<T> callback ) {
+            call.enqueue();
+        }
+    }
+
+    public static class ApiCallback<T> {
+        final AtomicInteger successes = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+
+        public void onFailure( ApiException exception, int statusCode, Map<String, List<String>> responseHeaders ) {
+            failures.incrementAndGet();
+        }
+
+        public void onSuccess( T result, int statusCode, Map<String, List<String>> responseHeaders ) {
+            successes.incrementAndGet();
+        }
+    }
+
+    public static class ApiException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final int code;
+
+        public ApiException( int code, String message ) {
+            super(message);
+            this.code = code;
+        }
+
+        public int getCode() { return code; }
+    }
+
+    public static class RestResponseHandler {
+        public void onSuccess( Object result, int statusCode, Map<String, List<String>> responseHeaders ) {}
+        public void onFailure( Throwable throwable, int statusCode, Map<String, List<String>> responseHeaders ) {}
+    }
+}
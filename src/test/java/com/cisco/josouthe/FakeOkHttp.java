@@ -0,0 +1,98 @@
+package com.cisco.josouthe;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+Just enough of okhttp 2.7 for NiSourceApiClientExitCallInterceptor: an immutable Request with a Builder, and a Call whose
+originalRequest field is not final and is only read when the call is enqueued, like com.squareup.okhttp.Call
+the Wire stands in for the server, it keeps every request that was actually sent, headers and all
+ */
+public class FakeOkHttp {
+
+    public static class Wire {
+        private final List<Request> sent = new CopyOnWriteArrayList<>();
+
+        public List<Request> getSent() { return Collections.unmodifiableList(sent); }
+
+        public Request lastSent() { return sent.isEmpty() ? null : sent.get(sent.size() -1); }
+
+        public void clear() { sent.clear(); }
+    }
+
+    public static class Call {
+        private final Wire wire;
+        private Request originalRequest;
+
+        public Call( Wire wire, Request originalRequest ) {
+            this.wire = wire;
+            this.originalRequest = originalRequest;
+        }
+
+        public void enqueue() {
+            wire.sent.add(originalRequest);
+        }
+    }
+
+    public static class Request {
+        private final String method;
+        private final URL url;
+        private final Map<String, String> headers;
+
+        public Request( String method, String url ) {
+            this(method, toURL(url), Collections.<String, String>emptyMap());
+        }
+
+        private Request( String method, URL url, Map<String, String> headers ) {
+            this.method = method;
+            this.url = url;
+            this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        }
+
+        public String method() { return method; }
+        public URL url() { return url; }
+        public String header( String name ) { return headers.get(name); }
+        public Map<String, String> headers() { return headers; }
+
+        public Builder newBuilder() {
+            return new Builder(this);
+        }
+
+        private static URL toURL( String url ) {
+            try {
+                return new URL(url);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(url, e);
+            }
+        }
+
+        public static class Builder {
+            private final String method;
+            private final URL url;
+            private final Map<String, String> headers;
+
+            Builder( Request request ) {
+                this.method = request.method;
+                this.url = request.url;
+                this.headers = new LinkedHashMap<>(request.headers);
+            }
+
+            /*
+            replaces any header of the same name
+             */
+            public Builder header( String name, String value ) {
+                headers.put(name, value);
+                return this;
+            }
+
+            public Request build() {
+                return new Request(method, url, headers);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.IReflectionBuilder;
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.IReflector;
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.OperationParams;
+import com.appdynamics.instrumentation.sdk.toolbox.reflection.ReflectorException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/*
+Stand in for the agent's reflection builder, ReflectorFactory creates one per getNewReflectionBuilder() call
+only the two operations the plugin builds are supported, with plain java reflection, CachedReflector only falls back to these
+for a class it could not resolve itself
+ */
+public class FakeReflectionBuilder implements IReflectionBuilder {
+    private String methodName, fieldName;
+    private int parameterCount = 0;
+
+    public FakeReflectionBuilder() {}
+
+    @Override
+    public IReflectionBuilder loadClass( String className ) {
+        throw new UnsupportedOperationException("loadClass");
+    }
+
+    @Override
+    public IReflectionBuilder createObject( String className, String... parameterTypes ) {
+        throw new UnsupportedOperationException("createObject");
+    }
+
+    @Override
+    public IReflectionBuilder invokeStaticMethod( String methodName, boolean searchSuperClass, String... parameterTypes ) {
+        throw new UnsupportedOperationException("invokeStaticMethod");
+    }
+
+    @Override
+    public IReflectionBuilder invokeInstanceMethod( String methodName, boolean searchSuperClass, String... parameterTypes ) {
+        this.methodName = methodName;
+        this.parameterCount = parameterTypes.length;
+        return this;
+    }
+
+    @Override
+    public IReflectionBuilder accessFieldValue( String fieldName, boolean searchSuperClass ) {
+        this.fieldName = fieldName;
+        return this;
+    }
+
+    @Override
+    public IReflector build() {
+        return new Reflector(methodName, fieldName, parameterCount);
+    }
+
+    private static class Reflector implements IReflector {
+        private final String methodName, fieldName;
+        private final int parameterCount;
+
+        Reflector( String methodName, String fieldName, int parameterCount ) {
+            this.methodName = methodName;
+            this.fieldName = fieldName;
+            this.parameterCount = parameterCount;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <E> E execute( ClassLoader classLoader, Object target, Object[]... args ) throws ReflectorException {
+            Object[] arguments = args.length == 0 ? new Object[0] : args[0];
+            try {
+                if( fieldName != null ) return (E) findField(target.getClass()).get(target);
+                return (E) findMethod(target.getClass()).invoke(target, arguments);
+            } catch (Exception e) {
+                throw new ReflectorException(e);
+            }
+        }
+
+        @Override
+        public <E> E execute( ClassLoader classLoader, Object target, OperationParams operationParams ) throws ReflectorException {
+            return execute(classLoader, target, operationParams.get(0));
+        }
+
+        private Field findField( Class<?> type ) throws NoSuchFieldException {
+            for( Class<?> search = type; search != null; search = search.getSuperclass() ) {
+                try {
+                    Field field = search.getDeclaredField(fieldName);
+                    field.setAccessible(true);
+                    return field;
+                } catch (NoSuchFieldException ignored) {
+                    //keep looking in the super class
+                }
+            }
+            throw new NoSuchFieldException(fieldName);
+        }
+
+        private Method findMethod( Class<?> type ) throws NoSuchMethodException {
+            for( Class<?> search = type; search != null; search = search.getSuperclass() ) {
+                for( Method method : search.getDeclaredMethods() ) {
+                    if( method.getName().equals(methodName) && method.getParameterCount() == parameterCount ) {
+                        method.setAccessible(true);
+                        return method;
+                    }
+                }
+            }
+            throw new NoSuchMethodException(methodName);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.agent.api.ExitCall;
+import com.appdynamics.agent.api.ServletContext;
+import com.appdynamics.agent.api.Transaction;
+import com.appdynamics.apm.appagent.api.DataScope;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+A BT of the FakeAgent, it only records what the plugin did to it, with recording off only the counts are kept
+ */
+public class FakeTransaction implements Transaction {
+    private final FakeAgent agent;
+    private final String uniqueIdentifier;
+    volatile String name, correlationHeader;
+    volatile ServletContext servletContext;
+    final AtomicInteger endCount = new AtomicInteger();
+    final AtomicInteger segmentStarts = new AtomicInteger();
+    final AtomicInteger segmentEnds = new AtomicInteger();
+    final AtomicInteger errorCount = new AtomicInteger();
+    final List<String> errors = new CopyOnWriteArrayList<>();
+    final List<Object> handoffObjects = new CopyOnWriteArrayList<>();
+    final List<FakeExitCall> exitCalls = new CopyOnWriteArrayList<>();
+    final Map<String, String> collectedData = new ConcurrentHashMap<>();
+
+    FakeTransaction( FakeAgent agent, String uniqueIdentifier, String name, String correlationHeader ) {
+        this.agent = agent;
+        this.uniqueIdentifier = uniqueIdentifier;
+        this.name = name;
+        this.correlationHeader = correlationHeader;
+    }
+
+    public String getName() { return name; }
+    public String getCorrelationHeader() { return correlationHeader; }
+    public ServletContext getServletContext() { return servletContext; }
+    public int getEndCount() { return endCount.get(); }
+    public boolean isEnded() { return endCount.get() > 0; }
+    public int getSegmentStarts() { return segmentStarts.get(); }
+    public int getSegmentEnds() { return segmentEnds.get(); }
+    public boolean isError() { return errorCount.get() > 0; }
+    public List<String> getErrors() { return Collections.unmodifiableList(errors); }
+    public List<FakeExitCall> getExitCalls() { return Collections.unmodifiableList(exitCalls); }
+    public Map<String, String> getCollectedData() { return Collections.unmodifiableMap(collectedData); }
+
+    /*
+    ending releases its handoffs, like the agent does, and the thread it ends on no longer has a BT
+     */
+    @Override
+    public void end() {
+        endCount.incrementAndGet();
+        for( Object handoff : handoffObjects ) agent.handoffs.remove(handoff, this);
+        handoffObjects.clear();
+        agent.leaveThread(this);
+    }
+
+    @Override
+    public ExitCall startExitCall( String displayName, String exitType, String properties, boolean isAsync ) {
+        return startHttpExitCall(Collections.<String, String>emptyMap(), null, isAsync);
+    }
+
+    @Override
+    public ExitCall startExitCall( Map<String, String> descriptor, String displayName, String exitType, boolean isAsync ) {
+        return startHttpExitCall(descriptor, null, isAsync);
+    }
+
+    @Override
+    public ExitCall startHttpExitCall( Map<String, String> descriptor, URL url, boolean isAsync ) {
+        FakeExitCall exitCall = agent.newExitCall(this, descriptor, url);
+        if( agent.isRecording() ) exitCalls.add(exitCall);
+        return exitCall;
+    }
+
+    @Override
+    public void markHandoff( Object object ) {
+        agent.handoffs.put(object, this);
+        handoffObjects.add(object);
+    }
+
+    @Override
+    public void markAsError( String message ) {
+        errorCount.incrementAndGet();
+        if( agent.isRecording() ) errors.add(message);
+    }
+
+    @Override
+    public void endSegment() {
+        segmentEnds.incrementAndGet();
+        agent.leaveThread(this);
+    }
+
+    @Override
+    public String getUniqueIdentifier() { return uniqueIdentifier; }
+
+    @Override
+    public boolean isAsyncTransaction() { return false; }
+
+    @Override
+    public void close() { end(); }
+
+    @Override
+    public void collectData( String name, String value, Set<DataScope> dataScopes ) {
+        collectedData.put(name, value);
+    }
+
+    @Override
+    public Map<String, String> getEumMetadata() { return Collections.emptyMap(); }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", uniqueIdentifier, name);
+    }
+}
@@ -0,0 +1,138 @@
+package com.cisco.josouthe;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+Just enough of the vert.x 3.6 core and web types for the interceptors to read a request the way they do in the gateway,
+only the methods our reflectors call, the interceptors never check the class names so these don't need the real packages
+ */
+public class FakeVertx {
+
+    /*
+    io.vertx.core.http.HttpServerRequest, built from a url like "http://gateway:8080/customers/42?expand=orders"
+     */
+    public static class HttpServerRequest {
+        private final String rawMethod, scheme, host, uri, path;
+        private final MultiMap headers = new MultiMap();
+        private final MultiMap params = new MultiMap();
+        private final SocketAddress remoteAddress = new SocketAddress("10.0.0.7", 51234);
+        private final SocketAddress localAddress;
+
+        public HttpServerRequest( String rawMethod, String url ) {
+            URI parsed = URI.create(url);
+            this.rawMethod = rawMethod;
+            this.scheme = parsed.getScheme();
+            this.host = parsed.getPort() < 0 ? parsed.getHost() : parsed.getHost() +":"+ parsed.getPort();
+            this.path = parsed.getRawPath();
+            this.uri = parsed.getRawQuery() == null ? path : path +"?"+ parsed.getRawQuery();
+            this.localAddress = new SocketAddress(parsed.getHost(), parsed.getPort() < 0 ? 80 : parsed.getPort());
+            if( parsed.getRawQuery() != null ) {
+                for( String pair : parsed.getRawQuery().split("&") ) {
+                    int equals = pair.indexOf('=');
+                    if( equals < 0 ) params.add(pair, "");
+                    else params.add(pair.substring(0, equals), pair.substring(equals +1));
+                }
+            }
+            headers.add("Host", host).add("Accept", "application/json").add("User-Agent", "test");
+        }
+
+        public HttpServerRequest header( String name, String value ) {
+            headers.add(name, value);
+            return this;
+        }
+
+        public String rawMethod() { return rawMethod; }
+        public String scheme() { return scheme; }
+        public String host() { return host; }
+        public String uri() { return uri; }
+        public String path() { return path; }
+        public MultiMap headers() { return headers; }
+        public MultiMap params() { return params; }
+        public String getHeader( String name ) { return headers.get(name); }
+        public SocketAddress remoteAddress() { return remoteAddress; }
+        public SocketAddress localAddress() { return localAddress; }
+
+        //the intercepted lifecycle methods, tests call the interceptor around these
+        public void handleBegin() {}
+        public void handleContent() {}
+        public void handleException( Throwable throwable ) {}
+        public void handleEnd() {}
+    }
+
+    /*
+    io.vertx.core.MultiMap, names are case sensitive here, vert.x's aren't, the tests use one spelling
+     */
+    public static class MultiMap {
+        private final Map<String, List<String>> entries = new LinkedHashMap<>();
+
+        public MultiMap add( String name, String value ) {
+            List<String> values = entries.get(name);
+            if( values == null ) entries.put(name, values = new ArrayList<>());
+            values.add(value);
+            return this;
+        }
+
+        public Set<String> names() { return entries.keySet(); }
+
+        public List<String> getAll( String name ) {
+            List<String> values = entries.get(name);
+            return values == null ? Collections.<String>emptyList() : values;
+        }
+
+        public String get( String name ) {
+            List<String> values = entries.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+    }
+
+    /*
+    io.vertx.core.net.SocketAddress
+     */
+    public static class SocketAddress {
+        private final String host;
+        private final int port;
+
+        public SocketAddress( String host, int port ) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public String host() { return host; }
+        public int port() { return port; }
+    }
+
+    /*
+    io.vertx.ext.web.impl.RouteImpl, a null path is a regex or catch all route
+     */
+    public static class Route {
+        private final String path;
+
+        public Route( String path ) {
+            this.path = path;
+        }
+
+        public String getPath() { return path; }
+
+        public void handleContext( RoutingContext context ) {}
+    }
+
+    /*
+    io.vertx.ext.web.RoutingContext
+     */
+    public static class RoutingContext {
+        private final HttpServerRequest request;
+
+        public RoutingContext( HttpServerRequest request ) {
+            this.request = request;
+        }
+
+        public HttpServerRequest request() { return request; }
+        public String normalisedPath() { return request.path(); }
+    }
+}
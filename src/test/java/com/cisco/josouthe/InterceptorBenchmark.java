@@ -0,0 +1,241 @@
+package com.cisco.josouthe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/*
+onMethodBegin/onMethodEnd of every interceptor, driven the way the agent drives them for one request, against the FakeAgent
+    each benchmark cycles through a fixed mix of requests built up front, so only the plugin's work and the fake agent's is measured
+    run with -prof gc (the benchmarks profile does) for allocation per operation, gc.alloc.rate.norm, that includes the
+        FakeTransaction/FakeExitCall the fake agent allocates per BT, about 200 bytes, the real agent allocates its own instead
+    vertxRequest runs once per servlet context allow list, vertxServletContextHeaders and vertxServletContextParameters both set
+        to it, * copies every header and parameter, the narrow list only the ones a BT rule would use, empty copies none
+    mvn -P benchmarks verify -Dbenchmarks=InterceptorBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterceptorBenchmark {
+    private static final String REQUEST_CLASS = "io.vertx.core.http.impl.HttpServerRequestImpl";
+    private static final String ROUTE_CLASS = "io.vertx.ext.web.impl.RouteImpl";
+    private static final String HANDLER_CLASS = "com.nisource.remote.rest.handlers.CustomerResponseHandler";
+    private static final String API_CLIENT_CLASS = "com.nisource.remote.rest.generated.ApiClient";
+    private static final String CALLBACK_CLASS = "com.nisource.remote.rest.generated.ApiClient$1";
+    private static final int MIX = 8; //power of two, every mix below has this many entries
+    private static final int POOL = 64; //distinct request objects in flight per mix entry, power of two
+    /*
+    what the gateway sees, ids and uuids in the path, the odd query string, one in eight arriving with a correlation header
+     */
+    private static final String[] REQUEST_MIX = {
+            "GET http://gateway:8080/customers/1042",
+            "GET http://gateway:8080/customers/1042/orders?page=2&size=50",
+            "POST http://gateway:8080/customers/77/payments",
+            "GET http://gateway:8080/health",
+            "GET http://gateway:8080/orders/0f8fad5b-d9cb-469f-a165-70867728950e",
+            "PUT http://gateway:8080/customers/3/address",
+            "GET http://gateway:8080/accounts/556677/usage?from=2021-01-01&to=2021-02-01",
+            "GET http://gateway:8080/customers/98765",
+    };
+    private static final String[] ROUTE_MIX = {
+            "/customers/:id", "/customers/:id/orders", "/customers/:id/payments", "/health",
+            "/orders/:orderId", "/customers/:id/address", null, "/customers/:id", //null, a regex route, named from FakeAgent's routePatterns
+    };
+    private static final String[] BACKEND_MIX = {
+            "http://billing.svc.cluster.local:8080/api/v1/accounts/1042",
+            "http://orders-7d9f8c-abcde.svc.cluster.local/api/orders?customer=1042",
+            "https://payments.example.com/v2/charges",
+            "http://billing.svc.cluster.local:8080/api/v1/usage/556677",
+    };
+
+    FakeAgent agent;
+    VertexHTTP_ver363_Interceptor vertxInterceptor;
+    VertxRouteNamingInterceptor routeNamingInterceptor;
+    NiSourceHTTPRequestInterceptor restHandlerInterceptor;
+    NiSourceApiClientExitCallInterceptor apiClientInterceptor;
+    FakeVertx.HttpServerRequest[] requests;
+    FakeVertx.Route[] routes;
+    Object[][] routeParams; //handleContext(RoutingContext)
+    FakeNiSource.RestResponseHandler[] handlers;
+    FakeNiSource.ApiClient apiClient;
+    FakeOkHttp.Call[] calls;
+    FakeNiSource.ApiCallback<?>[] callbacks;
+    Object[][] executeParams; //executeAsync(Call, Type, ApiCallback)
+    FakeNiSource.ApiException apiException;
+    Object[] noParams = new Object[0];
+    Object[] successParams = new Object[]{ "{}", 200, null };
+    Object[] failureParams;
+    Object[] exceptionParams = new Object[]{ new IOException("Connection reset by peer") };
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        agent = FakeAgent.install();
+        agent.setRecording(false);
+        vertxInterceptor = new VertexHTTP_ver363_Interceptor();
+        routeNamingInterceptor = new VertxRouteNamingInterceptor();
+        restHandlerInterceptor = new NiSourceHTTPRequestInterceptor();
+        apiClientInterceptor = new NiSourceApiClientExitCallInterceptor();
+
+        requests = new FakeVertx.HttpServerRequest[MIX * POOL];
+        routeParams = new Object[MIX * POOL][];
+        handlers = new FakeNiSource.RestResponseHandler[MIX * POOL];
+        calls = new FakeOkHttp.Call[MIX * POOL];
+        callbacks = new FakeNiSource.ApiCallback<?>[MIX * POOL];
+        executeParams = new Object[MIX * POOL][];
+        FakeOkHttp.Wire wire = new FakeOkHttp.Wire();
+        for( int i=0; i< MIX * POOL; i++ ) {
+            String[] request = REQUEST_MIX[i & (MIX -1)].split(" ");
+            requests[i] = new FakeVertx.HttpServerRequest(request[0], request[1]);
+            if( (i & (MIX -1)) == MIX -1 ) requests[i].header("singularityheader", "appId=1*ctrlguid=1*acctguid=1*ts=1*btid=5*guid=abc*exitguid=1*unresolvedexitid=3*cidfrom=7*etypeorder=HTTP*cidto=A8");
+            routeParams[i] = new Object[]{ new FakeVertx.RoutingContext(requests[i]) };
+            handlers[i] = new FakeNiSource.RestResponseHandler();
+            calls[i] = new FakeOkHttp.Call(wire, new FakeOkHttp.Request("GET", BACKEND_MIX[i % BACKEND_MIX.length]));
+            callbacks[i] = new FakeNiSource.ApiCallback<Object>();
+            executeParams[i] = new Object[]{ calls[i], Object.class, callbacks[i] };
+        }
+        routes = new FakeVertx.Route[MIX];
+        for( int i=0; i< MIX; i++ ) routes[i] = new FakeVertx.Route(ROUTE_MIX[i]);
+        apiClient = new FakeNiSource.ApiClient("http://billing.svc.cluster.local:8080");
+        apiException = new FakeNiSource.ApiException(503, "Service Unavailable");
+        failureParams = new Object[]{ apiException, 503, null };
+    }
+
+    /*
+    a Vert.x interceptor of its own, with both servlet context allow lists set to allowList
+     */
+    @State(Scope.Thread)
+    public static class AllowListedVertx {
+        @Param({ "*", "Host,User-Agent,page", "" })
+        String allowList;
+
+        VertexHTTP_ver363_Interceptor interceptor;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            FakeAgent.install();
+            interceptor = new VertexHTTP_ver363_Interceptor();
+            Properties properties = interceptor.getConfig().toProperties();
+            properties.setProperty("vertxServletContextHeaders", allowList);
+            properties.setProperty("vertxServletContextParameters", allowList);
+            interceptor.onConfigChange(new PluginConfig(properties, interceptor.getConfig().getLastModified()));
+        }
+    }
+
+    /*
+    the exit calls need a BT on the benchmark thread, the way executeAsync runs inside a request, only apiClientExitCall takes it
+     */
+    @State(Scope.Thread)
+    public static class ActiveTransaction {
+        FakeTransaction transaction;
+
+        @Setup(Level.Iteration)
+        public void start() {
+            transaction = FakeAgent.install().startTransaction("BT-benchmark");
+        }
+
+        @TearDown(Level.Iteration)
+        public void end() {
+            transaction.end();
+        }
+    }
+
+    private int nextIndex() {
+        return next = (next +1) & (MIX * POOL -1);
+    }
+
+    /*
+    handleBegin, handleContent, handleEnd for one request, the last one in the mix gets a handleException before its handleEnd
+     */
+    @Benchmark
+    public Object vertxRequest( AllowListedVertx allowListedVertx ) {
+        VertexHTTP_ver363_Interceptor vertxInterceptor = allowListedVertx.interceptor;
+        int index = nextIndex();
+        FakeVertx.HttpServerRequest request = requests[index];
+        Object state = vertxInterceptor.onMethodBegin(request, REQUEST_CLASS, "handleBegin", noParams);
+        vertxInterceptor.onMethodEnd(state, request, REQUEST_CLASS, "handleBegin", noParams, null, null);
+        state = vertxInterceptor.onMethodBegin(request, REQUEST_CLASS, "handleContent", noParams);
+        vertxInterceptor.onMethodEnd(state, request, REQUEST_CLASS, "handleContent", noParams, null, null);
+        if( (index & (MIX -1)) == MIX -1 ) {
+            state = vertxInterceptor.onMethodBegin(request, REQUEST_CLASS, "handleException", exceptionParams);
+            vertxInterceptor.onMethodEnd(state, request, REQUEST_CLASS, "handleException", exceptionParams, null, null);
+        }
+        state = vertxInterceptor.onMethodBegin(request, REQUEST_CLASS, "handleEnd", noParams);
+        vertxInterceptor.onMethodEnd(state, request, REQUEST_CLASS, "handleEnd", noParams, null, null);
+        return state;
+    }
+
+    /*
+    RouteImpl.handleContext for one matched route, one in eight is a regex route named from the pattern trie
+     */
+    @Benchmark
+    public Object routeNaming() {
+        int index = nextIndex();
+        FakeVertx.Route route = routes[index & (MIX -1)];
+        Object[] params = routeParams[index];
+        Object state = routeNamingInterceptor.onMethodBegin(route, ROUTE_CLASS, "handleContext", params);
+        routeNamingInterceptor.onMethodEnd(state, route, ROUTE_CLASS, "handleContext", params, null, null);
+        return state;
+    }
+
+    /*
+    RestResponseHandler.<init> then onSuccess, one in eight fails instead
+     */
+    @Benchmark
+    public Object restResponseHandler() {
+        int index = nextIndex();
+        FakeNiSource.RestResponseHandler handler = handlers[index];
+        Object state = restHandlerInterceptor.onMethodBegin(handler, HANDLER_CLASS, "<init>", noParams);
+        restHandlerInterceptor.onMethodEnd(state, handler, HANDLER_CLASS, "<init>", noParams, null, null);
+        boolean failure = (index & (MIX -1)) == MIX -1;
+        String method = failure ? "onFailure" : "onSuccess";
+        Object[] params = failure ? failureParams : successParams;
+        state = restHandlerInterceptor.onMethodBegin(handler, HANDLER_CLASS, method, params);
+        restHandlerInterceptor.onMethodEnd(state, handler, HANDLER_CLASS, method, params, null, null);
+        return state;
+    }
+
+    /*
+    ApiClient.executeAsync, correlation header swapped into the okhttp Call, then the ApiCallback completes, one in eight fails
+     */
+    @Benchmark
+    public Object apiClientExitCall( ActiveTransaction activeTransaction ) {
+        int index = nextIndex();
+        Object state = apiClientInterceptor.onMethodBegin(apiClient, API_CLIENT_CLASS, "executeAsync", executeParams[index]);
+        apiClientInterceptor.onMethodEnd(state, apiClient, API_CLIENT_CLASS, "executeAsync", executeParams[index], null, null);
+        boolean failure = (index & (MIX -1)) == MIX -1;
+        String method = failure ? "onFailure" : "onSuccess";
+        Object[] params = failure ? failureParams : successParams;
+        state = apiClientInterceptor.onMethodBegin(callbacks[index], CALLBACK_CLASS, method, params);
+        apiClientInterceptor.onMethodEnd(state, callbacks[index], CALLBACK_CLASS, method, params, null, null);
+        return state;
+    }
+
+    /*
+    a method name none of the rules bind, what the dispatch costs on its own
+     */
+    @Benchmark
+    public Object unboundMethod() {
+        FakeVertx.HttpServerRequest request = requests[nextIndex()];
+        Object state = vertxInterceptor.onMethodBegin(request, REQUEST_CLASS, "handlePipelined", noParams);
+        vertxInterceptor.onMethodEnd(state, request, REQUEST_CLASS, "handlePipelined", noParams, null, null);
+        return state;
+    }
+}
@@ -0,0 +1,414 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.instrumentation.sdk.Rule;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/*
+Every rule of every interceptor, begin and end, against the FakeAgent, one row per case
+    a row names the interceptor and the bound method it is about, runs whatever has to happen before that method (handleBegin before
+        handleEnd, a BT on the thread before executeAsync), makes the call and checks what the agent saw
+    the table is checked against getRules() when it is built, a bound method without a row fails the whole class
+ */
+@RunWith(Parameterized.class)
+public class InterceptorRulesTest {
+    private static final String REQUEST_CLASS = "io.vertx.core.http.impl.Http1xServerRequest";
+    private static final String ROUTE_CLASS = "io.vertx.ext.web.impl.RouteImpl";
+    private static final String HANDLER_CLASS = "com.nisource.remote.rest.handlers.CustomerResponseHandler";
+    private static final String API_CLIENT_CLASS = "com.nisource.remote.rest.generated.ApiClient";
+    private static final String CALLBACK_CLASS = "com.nisource.remote.rest.generated.ApiClient$1";
+    private static final String EXECUTOR_CLASS = "java.util.concurrent.ThreadPoolExecutor";
+    private static final String ASYNC_SUPPLY_CLASS = "java.util.concurrent.CompletableFuture$AsyncSupply";
+
+    private static FakeAgent agent;
+    private static VertexHTTP_ver363_Interceptor vertx;
+    private static VertxRouteNamingInterceptor routeNaming;
+    private static NiSourceHTTPRequestInterceptor restHandler;
+    private static NiSourceApiClientExitCallInterceptor apiClient;
+    private static AsyncContextInterceptor asyncContext;
+
+    private interface Scenario {
+        void run() throws Exception;
+    }
+
+    private final Scenario scenario;
+
+    public InterceptorRulesTest( String name, Scenario scenario ) {
+        this.scenario = scenario;
+    }
+
+    @Before
+    public void reset() {
+        agent.reset();
+        agent.setRecording(true);
+        RouteNamingEngine.getInstance().exit(null);
+    }
+
+    @Test
+    public void run() throws Exception {
+        scenario.run();
+    }
+
+    private static synchronized void initialize() {
+        if( agent != null ) return;
+        agent = FakeAgent.install();
+        vertx = new VertexHTTP_ver363_Interceptor();
+        routeNaming = new VertxRouteNamingInterceptor();
+        restHandler = new NiSourceHTTPRequestInterceptor();
+        apiClient = new NiSourceApiClientExitCallInterceptor();
+        asyncContext = new AsyncContextInterceptor();
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> cases() {
+        initialize();
+        Map<String, Scenario> cases = new LinkedHashMap<>();
+
+        //VertexHTTP_ver363_Interceptor
+
+        cases.put("VertexHTTP_ver363_Interceptor.handleBegin starts a BT named from the templated path", () -> {
+            FakeVertx.HttpServerRequest request = request("GET", "http://gateway:8080/customers/1042?expand=orders");
+            intercept(vertx, request, REQUEST_CLASS, "handleBegin");
+            FakeTransaction transaction = onlyTransaction();
+            assertEquals("/customers/{id}", transaction.getName());
+            assertEquals("GET", transaction.getServletContext().getRequestMethod());
+            assertEquals("orders", transaction.getServletContext().getParameters().get("expand")[0]);
+            assertSame(transaction, agent.handoffs.get(request));
+            assertEquals(1, transaction.getSegmentEnds());
+            assertFalse(transaction.isEnded());
+            assertNotNull(vertx.transactionRegistry.lookup(request));
+            finish(request);
+        });
+        cases.put("VertexHTTP_ver363_Interceptor.handleBegin continues the caller's BT from the correlation header", () -> {
+            FakeVertx.HttpServerRequest request = request("GET", "http://gateway:8080/health").header("singularityheader", "ctx=upstream");
+            intercept(vertx, request, REQUEST_CLASS, "handleBegin");
+            assertEquals("ctx=upstream", onlyTransaction().getCorrelationHeader());
+            finish(request);
+        });
+        cases.put("VertexHTTP_ver363_Interceptor.handleBegin joins a BT already on the thread", () -> {
+            FakeTransaction outer = agent.startTransaction("BT-outer");
+            FakeVertx.HttpServerRequest request = request("POST", "http://gateway:8080/customers/77/payments");
+            intercept(vertx, request, REQUEST_CLASS, "handleBegin");
+            assertSame(outer, onlyTransaction());
+            assertSame(outer, agent.handoffs.get(request));
+            finish(request);
+        });
+        cases.put("VertexHTTP_ver363_Interceptor.handleContent runs in a segment of the request's BT", () -> {
+            FakeVertx.HttpServerRequest request = request("PUT", "http://gateway:8080/customers/3/address");
+            intercept(vertx, request, REQUEST_CLASS, "handleBegin");
+            intercept(vertx, request, REQUEST_CLASS, "handleContent");
+            FakeTransaction transaction = onlyTransaction();
+            assertEquals(1, transaction.getSegmentStarts());
+            assertEquals(2, transaction.getSegmentEnds());
+            assertFalse(transaction.isEnded());
+            finish(request);
+        });
+        cases.put("VertexHTTP_ver363_Interceptor.handleContent of an untracked request does nothing", () -> {
+            assertNull(intercept(vertx, request("GET", "http://gateway:8080/health"), REQUEST_CLASS, "handleContent"));
+            assertTrue(agent.startedTransactions().isEmpty());
+        });
+        cases.put("VertexHTTP_ver363_Interceptor.handleException ends the BT in error, handleEnd after it finds nothing", () -> {
+            FakeVertx.HttpServerRequest request = request("GET", "http://gateway:8080/customers/98765");
+            intercept(vertx, request, REQUEST_CLASS, "handleBegin");
+            intercept(vertx, request, REQUEST_CLASS, "handleException", new java.io.IOException("Connection reset by peer"));
+            intercept(vertx, request, REQUEST_CLASS, "handleEnd");
+            FakeTransaction transaction = onlyTransaction();
+            assertEquals(1, transaction.getEndCount());
+            assertTrue(transaction.getErrors().get(0).startsWith("HTTP Connection Exception: java.io.IOException: Connection reset by peer"));
+            assertNull(vertx.transactionRegistry.lookup(request));
+        });
+        cases.put("VertexHTTP_ver363_Interceptor.handleEnd ends the BT once and releases the request", () -> {
+            FakeVertx.HttpServerRequest request = request("GET", "http://gateway:8080/orders/0f8fad5b-d9cb-469f-a165-70867728950e");
+            intercept(vertx, request, REQUEST_CLASS, "handleBegin");
+            intercept(vertx, request, REQUEST_CLASS, "handleEnd");
+            intercept(vertx, request, REQUEST_CLASS, "handleEnd");
+            FakeTransaction transaction = onlyTransaction();
+            assertEquals("/orders/{uuid}", transaction.getName());
+            assertEquals(1, transaction.getEndCount());
+            assertFalse(transaction.isError());
+            assertNull(agent.handoffs.get(request));
+            assertNull(vertx.transactionRegistry.lookup(request));
+        });
+        cases.put("VertexHTTP_ver363_Interceptor.handleEnd marks the BT in error when the handler threw", () -> {
+            FakeVertx.HttpServerRequest request = request("GET", "http://gateway:8080/customers/1");
+            intercept(vertx, request, REQUEST_CLASS, "handleBegin");
+            FakeAgent.intercept(vertx, request, REQUEST_CLASS, "handleEnd", new IllegalStateException("response already written"));
+            FakeTransaction transaction = onlyTransaction();
+            assertEquals(1, transaction.getEndCount());
+            assertTrue(transaction.getErrors().get(0).endsWith("handleEnd() Exception: response already written"));
+        });
+
+        //VertxRouteNamingInterceptor
+
+        cases.put("VertxRouteNamingInterceptor.handleContext renames the request's BT after the route", () -> {
+            FakeVertx.HttpServerRequest request = request("GET", "http://gateway:8080/customers/1042");
+            intercept(vertx, request, REQUEST_CLASS, "handleBegin");
+            FakeVertx.Route route = new FakeVertx.Route("/customers/:id");
+            AtomicReference<String> routeName = new AtomicReference<>();
+            Object state = routeNaming.onMethodBegin(route, ROUTE_CLASS, "handleContext", new Object[]{ new FakeVertx.RoutingContext(request) });
+            routeName.set(RouteNamingEngine.getCurrentRouteName());
+            routeNaming.onMethodEnd(state, route, ROUTE_CLASS, "handleContext", new Object[]{ new FakeVertx.RoutingContext(request) }, null, null);
+            assertEquals("GET /customers/:id", routeName.get());
+            assertEquals("GET /customers/:id", onlyTransaction().getName());
+            assertNull(RouteNamingEngine.getCurrentRouteName());
+            finish(request);
+        });
+        cases.put("VertxRouteNamingInterceptor.handleContext names a regex route from routePatterns", () -> {
+            FakeVertx.HttpServerRequest request = request("GET", "http://gateway:8080/accounts/556677/usage?from=2021-01-01");
+            intercept(vertx, request, REQUEST_CLASS, "handleBegin");
+            intercept(routeNaming, new FakeVertx.Route(null), ROUTE_CLASS, "handleContext", new FakeVertx.RoutingContext(request));
+            assertEquals("GET /accounts/:id/usage", onlyTransaction().getName());
+            finish(request);
+        });
+        cases.put("VertxRouteNamingInterceptor.handleContext leaves names alone for a route nothing matches", () -> {
+            FakeVertx.HttpServerRequest request = request("GET", "http://gateway:8080/static/app.js");
+            intercept(vertx, request, REQUEST_CLASS, "handleBegin");
+            assertNull(intercept(routeNaming, new FakeVertx.Route(null), ROUTE_CLASS, "handleContext", new FakeVertx.RoutingContext(request)));
+            assertEquals("/static/app.js", onlyTransaction().getName());
+            finish(request);
+        });
+        cases.put("VertxRouteNamingInterceptor.handleContext restores the outer route name after a nested route", () -> {
+            FakeVertx.RoutingContext context = new FakeVertx.RoutingContext(request("GET", "http://gateway:8080/customers/5/orders"));
+            FakeVertx.Route outer = new FakeVertx.Route("/customers/:id/orders"), inner = new FakeVertx.Route("/customers/:id");
+            Object outerState = routeNaming.onMethodBegin(outer, ROUTE_CLASS, "handleContext", new Object[]{ context });
+            Object innerState = routeNaming.onMethodBegin(inner, ROUTE_CLASS, "handleContext", new Object[]{ context });
+            assertEquals("GET /customers/:id", RouteNamingEngine.getCurrentRouteName());
+            routeNaming.onMethodEnd(innerState, inner, ROUTE_CLASS, "handleContext", new Object[]{ context }, null, null);
+            assertEquals("GET /customers/:id/orders", RouteNamingEngine.getCurrentRouteName());
+            routeNaming.onMethodEnd(outerState, outer, ROUTE_CLASS, "handleContext", new Object[]{ context }, null, null);
+            assertNull(RouteNamingEngine.getCurrentRouteName());
+        });
+
+        //NiSourceHTTPRequestInterceptor
+
+        cases.put("NiSourceHTTPRequestInterceptor.<init> starts a BT and hands it off on the handler", () -> {
+            FakeNiSource.RestResponseHandler handler = new FakeNiSource.RestResponseHandler();
+            intercept(restHandler, handler, HANDLER_CLASS, "<init>");
+            FakeTransaction transaction = onlyTransaction();
+            assertTrue(transaction.getName(), transaction.getName().startsWith("BT-"));
+            assertSame(transaction, agent.handoffs.get(handler));
+            assertFalse(transaction.isEnded());
+            intercept(restHandler, handler, HANDLER_CLASS, "onSuccess", "{}", 200, null);
+        });
+        cases.put("NiSourceHTTPRequestInterceptor.<init> inside a route takes the route's name", () -> {
+            FakeVertx.RoutingContext context = new FakeVertx.RoutingContext(request("GET", "http://gateway:8080/customers/9"));
+            FakeVertx.Route route = new FakeVertx.Route("/customers/:id");
+            Object state = routeNaming.onMethodBegin(route, ROUTE_CLASS, "handleContext", new Object[]{ context });
+            FakeNiSource.RestResponseHandler handler = new FakeNiSource.RestResponseHandler();
+            intercept(restHandler, handler, HANDLER_CLASS, "<init>");
+            routeNaming.onMethodEnd(state, route, ROUTE_CLASS, "handleContext", new Object[]{ context }, null, null);
+            assertEquals("GET /customers/:id", onlyTransaction().getName());
+            intercept(restHandler, handler, HANDLER_CLASS, "onSuccess", "{}", 200, null);
+        });
+        cases.put("NiSourceHTTPRequestInterceptor.onSuccess ends the BT with its collected data", () -> {
+            FakeNiSource.RestResponseHandler handler = new FakeNiSource.RestResponseHandler();
+            intercept(restHandler, handler, HANDLER_CLASS, "<init>");
+            intercept(restHandler, handler, HANDLER_CLASS, "onSuccess", "{}", 200, null);
+            FakeTransaction transaction = onlyTransaction();
+            assertEquals(1, transaction.getEndCount());
+            assertFalse(transaction.isError());
+            assertEquals(HANDLER_CLASS, transaction.getCollectedData().get("Handler Class"));
+            assertNull(restHandler.transactionRegistry.lookup(handler));
+        });
+        cases.put("NiSourceHTTPRequestInterceptor.onFailure ends the BT in error with the status code", () -> {
+            FakeNiSource.RestResponseHandler handler = new FakeNiSource.RestResponseHandler();
+            intercept(restHandler, handler, HANDLER_CLASS, "<init>");
+            intercept(restHandler, handler, HANDLER_CLASS, "onFailure", new IllegalStateException("backend down"), 502, null);
+            FakeTransaction transaction = onlyTransaction();
+            assertEquals(1, transaction.getEndCount());
+            assertEquals("onFailure Status Code 502, Exception: backend down", transaction.getErrors().get(0));
+            assertEquals("502", transaction.getCollectedData().get("Status Code"));
+        });
+        cases.put("NiSourceHTTPRequestInterceptor.onSuccess of an untracked handler does nothing", () -> {
+            assertNull(intercept(restHandler, new FakeNiSource.RestResponseHandler(), HANDLER_CLASS, "onSuccess", "{}", 200, null));
+            assertTrue(agent.startedTransactions().isEmpty());
+        });
+
+        //NiSourceApiClientExitCallInterceptor
+
+        cases.put("NiSourceApiClientExitCallInterceptor.executeAsync starts an exit call and sends its correlation header", () -> {
+            FakeTransaction transaction = agent.startTransaction("BT-outer");
+            FakeOkHttp.Wire wire = new FakeOkHttp.Wire();
+            FakeOkHttp.Call call = new FakeOkHttp.Call(wire, new FakeOkHttp.Request("GET", "http://billing.svc.cluster.local:8080/api/v1/accounts/1042"));
+            FakeNiSource.ApiCallback<Object> callback = new FakeNiSource.ApiCallback<>();
+            executeAsync(call, callback);
+            FakeExitCall exitCall = transaction.getExitCalls().get(0);
+            assertEquals("http://billing.svc.cluster.local:8080/api/v1/accounts/1042", exitCall.getUrl().toString());
+            assertEquals(exitCall.getCorrelationHeader(), wire.lastSent().header("singularityheader"));
+            assertFalse(exitCall.isEnded());
+            intercept(apiClient, callback, CALLBACK_CLASS, "onSuccess", "{}", 200, null);
+        });
+        cases.put("NiSourceApiClientExitCallInterceptor.executeAsync without a BT starts nothing", () -> {
+            FakeOkHttp.Wire wire = new FakeOkHttp.Wire();
+            FakeOkHttp.Call call = new FakeOkHttp.Call(wire, new FakeOkHttp.Request("GET", "http://billing.svc.cluster.local:8080/api/v1/accounts/1042"));
+            assertNull(executeAsync(call, new FakeNiSource.ApiCallback<Object>()));
+            assertNull(wire.lastSent().header("singularityheader"));
+        });
+        cases.put("NiSourceApiClientExitCallInterceptor.executeAsync that throws ends its exit call in error", () -> {
+            FakeTransaction transaction = agent.startTransaction("BT-outer");
+            FakeOkHttp.Call call = new FakeOkHttp.Call(new FakeOkHttp.Wire(), new FakeOkHttp.Request("GET", "https://payments.example.com/v2/charges"));
+            FakeNiSource.ApiCallback<Object> callback = new FakeNiSource.ApiCallback<>();
+            FakeAgent.intercept(apiClient, new FakeNiSource.ApiClient("https://payments.example.com"), API_CLIENT_CLASS, "executeAsync", new IllegalStateException("dispatcher shut down"), call, Object.class, callback);
+            assertEquals(1, transaction.getExitCalls().get(0).getEndCount());
+            assertEquals("ExitCall executeAsync Exception: dispatcher shut down", transaction.getErrors().get(0));
+            assertNull(intercept(apiClient, callback, CALLBACK_CLASS, "onSuccess", "{}", 200, null));
+            assertEquals(1, transaction.getExitCalls().get(0).getEndCount());
+        });
+        cases.put("NiSourceApiClientExitCallInterceptor.onSuccess ends the exit call", () -> {
+            FakeTransaction transaction = agent.startTransaction("BT-outer");
+            FakeNiSource.ApiCallback<Object> callback = new FakeNiSource.ApiCallback<>();
+            executeAsync(new FakeOkHttp.Call(new FakeOkHttp.Wire(), new FakeOkHttp.Request("GET", "http://orders.svc.cluster.local/api/orders")), callback);
+            intercept(apiClient, callback, CALLBACK_CLASS, "onSuccess", "{}", 200, null);
+            intercept(apiClient, callback, CALLBACK_CLASS, "onSuccess", "{}", 200, null);
+            assertEquals(1, transaction.getExitCalls().get(0).getEndCount());
+            assertFalse(transaction.isError());
+            assertFalse(transaction.isEnded());
+        });
+        cases.put("NiSourceApiClientExitCallInterceptor.onFailure ends the exit call and marks the BT in error", () -> {
+            FakeTransaction transaction = agent.startTransaction("BT-outer");
+            FakeNiSource.ApiCallback<Object> callback = new FakeNiSource.ApiCallback<>();
+            executeAsync(new FakeOkHttp.Call(new FakeOkHttp.Wire(), new FakeOkHttp.Request("GET", "http://orders.svc.cluster.local/api/orders")), callback);
+            intercept(apiClient, callback, CALLBACK_CLASS, "onFailure", new FakeNiSource.ApiException(503, "Service Unavailable"), 503, null);
+            assertEquals(1, transaction.getExitCalls().get(0).getEndCount());
+            assertEquals("ExitCall Error Code: 503 Error Message: Service Unavailable", transaction.getErrors().get(0));
+        });
+
+        //AsyncContextInterceptor, on for the whole run, see FakeAgent.STARTUP_CONFIG
+
+        cases.put("AsyncContextInterceptor.execute hands the submitting thread's BT off on the task", () -> {
+            FakeTransaction transaction = agent.startTransaction("BT-outer");
+            Runnable task = () -> {};
+            intercept(asyncContext, null, EXECUTOR_CLASS, "execute", task);
+            assertSame(transaction, agent.handoffs.get(task));
+        });
+        cases.put("AsyncContextInterceptor.execute without a BT hands nothing off", () -> {
+            Runnable task = () -> {};
+            intercept(asyncContext, null, EXECUTOR_CLASS, "execute", task);
+            assertNull(agent.handoffs.get(task));
+        });
+        cases.put("AsyncContextInterceptor.beforeExecute opens a segment on the worker that afterExecute ends", () -> {
+            FakeTransaction transaction = agent.startTransaction("BT-outer");
+            Runnable task = () -> {};
+            intercept(asyncContext, null, EXECUTOR_CLASS, "execute", task);
+            onAnotherThread(() -> {
+                intercept(asyncContext, null, EXECUTOR_CLASS, "beforeExecute", Thread.currentThread(), task);
+                assertSame(transaction, agent.getTransaction());
+                intercept(asyncContext, null, EXECUTOR_CLASS, "afterExecute", task, null);
+            });
+            assertEquals(1, transaction.getSegmentStarts());
+            assertEquals(1, transaction.getSegmentEnds());
+            assertFalse(transaction.isError());
+        });
+        cases.put("AsyncContextInterceptor.afterExecute marks the BT in error when the task threw", () -> {
+            FakeTransaction transaction = agent.startTransaction("BT-outer");
+            Runnable task = () -> {};
+            intercept(asyncContext, null, EXECUTOR_CLASS, "execute", task);
+            onAnotherThread(() -> {
+                intercept(asyncContext, null, EXECUTOR_CLASS, "beforeExecute", Thread.currentThread(), task);
+                intercept(asyncContext, null, EXECUTOR_CLASS, "afterExecute", task, new IllegalStateException("task failed"));
+            });
+            assertEquals(1, transaction.getSegmentEnds());
+            assertTrue(transaction.getErrors().get(0).endsWith("failed: task failed"));
+        });
+        cases.put("AsyncContextInterceptor.<init> of a CompletableFuture task hands off the BT, run() picks it up", () -> {
+            FakeTransaction transaction = agent.startTransaction("BT-outer");
+            Object task = new Object();
+            intercept(asyncContext, task, ASYNC_SUPPLY_CLASS, "<init>");
+            onAnotherThread(() -> intercept(asyncContext, task, ASYNC_SUPPLY_CLASS, "run"));
+            assertEquals(1, transaction.getSegmentStarts());
+            assertEquals(1, transaction.getSegmentEnds());
+        });
+        cases.put("AsyncContextInterceptor.run on a thread already in a BT leaves it alone", () -> {
+            FakeTransaction transaction = agent.startTransaction("BT-outer");
+            Object task = new Object();
+            intercept(asyncContext, task, ASYNC_SUPPLY_CLASS, "<init>");
+            assertNull(intercept(asyncContext, task, ASYNC_SUPPLY_CLASS, "run"));
+            assertEquals(0, transaction.getSegmentStarts());
+        });
+
+        checkEveryRuleHasACase(cases.keySet(), vertx, routeNaming, restHandler, apiClient, asyncContext);
+        List<Object[]> parameters = new ArrayList<>();
+        for( Map.Entry<String, Scenario> entry : cases.entrySet() ) parameters.add(new Object[]{ entry.getKey(), entry.getValue() });
+        return parameters;
+    }
+
+    private static void checkEveryRuleHasACase( Set<String> caseNames, MyBaseInterceptor... interceptors ) {
+        Set<String> missing = new TreeSet<>();
+        for( MyBaseInterceptor interceptor : interceptors ) {
+            if( interceptor.getRules().isEmpty() ) missing.add(interceptor.getClass().getSimpleName() +" has no rules");
+            for( Rule rule : interceptor.getRules() ) {
+                String prefix = interceptor.getClass().getSimpleName() +"."+ rule.getMethodMatchString() +" ";
+                boolean covered = false;
+                for( String caseName : caseNames ) covered |= caseName.startsWith(prefix);
+                if( !covered ) missing.add(prefix.trim());
+            }
+        }
+        if( !missing.isEmpty() ) throw new IllegalStateException("Rules without a case: "+ missing);
+    }
+
+    private static FakeVertx.HttpServerRequest request( String method, String url ) {
+        return new FakeVertx.HttpServerRequest(method, url);
+    }
+
+    private static Object intercept( MyBaseInterceptor interceptor, Object target, String className, String methodName, Object... params ) {
+        return FakeAgent.intercept(interceptor, target, className, methodName, params);
+    }
+
+    /*
+    executeAsync the way ApiClient runs it, the Call is enqueued by the intercepted method, so between our begin and end
+     */
+    private static Object executeAsync( FakeOkHttp.Call call, FakeNiSource.ApiCallback<?> callback ) {
+        FakeNiSource.ApiClient client = new FakeNiSource.ApiClient("http://gateway");
+        Object[] params = new Object[]{ call, Object.class, callback };
+        Object state = apiClient.onMethodBegin(client, API_CLIENT_CLASS, "executeAsync", params);
+        client.executeAsync(call, Object.class, callback);
+        apiClient.onMethodEnd(state, client, API_CLIENT_CLASS, "executeAsync", params, null, null);
+        return state;
+    }
+
+    /*
+    the vert.x BT of a request that a case left open, so the registry is empty for the next case
+     */
+    private static void finish( FakeVertx.HttpServerRequest request ) {
+        intercept(vertx, request, REQUEST_CLASS, "handleEnd");
+    }
+
+    private static FakeTransaction onlyTransaction() {
+        List<FakeTransaction> started = agent.startedTransactions();
+        assertEquals(started.toString(), 1, started.size());
+        return started.get(0);
+    }
+
+    private static void onAnotherThread( Scenario scenario ) throws Exception {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                scenario.run();
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "worker");
+        thread.start();
+        thread.join();
+        if( failure.get() instanceof Exception ) throw (Exception) failure.get();
+        if( failure.get() != null ) throw (Error) failure.get();
+    }
+}
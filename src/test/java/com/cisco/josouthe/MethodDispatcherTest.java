@@ -0,0 +1,154 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.instrumentation.sdk.Rule;
+import com.appdynamics.instrumentation.sdk.SDKClassMatchType;
+import com.appdynamics.instrumentation.sdk.SDKStringMatchType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MethodDispatcherTest {
+    private static final String REQUEST = "io.vertx.core.http.HttpServerRequest";
+
+    /*
+    remembers what it was called with, begin() hands back its own name as the state
+     */
+    private static class Recorder implements MethodDispatcher.Handler<String> {
+        final String name;
+        final List<String> calls = new ArrayList<>();
+
+        Recorder( String name ) {
+            this.name = name;
+        }
+
+        @Override
+        public String begin( Object objectIntercepted, String className, Object[] params ) {
+            calls.add("begin");
+            return name;
+        }
+
+        @Override
+        public void end( String state, Object objectIntercepted, String className, Object[] params, Throwable exception, Object returnVal ) {
+            calls.add("end "+ state);
+        }
+    }
+
+    @Test
+    public void eachMethodReachesOnlyItsOwnHandler() {
+        Recorder begin = new Recorder("handleBegin"), exception = new Recorder("handleException"), end = new Recorder("handleEnd");
+        MethodDispatcher methodDispatcher = new MethodDispatcher()
+                .bind(REQUEST, SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleBegin", begin)
+                .bind(REQUEST, SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleException", exception)
+                .bind(REQUEST, SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleEnd", end);
+
+        Object state = methodDispatcher.begin(this, REQUEST, "handleException", new Object[0]);
+        methodDispatcher.end(state, this, REQUEST, "handleException", new Object[0], null, null);
+
+        assertEquals("handleException", state);
+        assertEquals(2, exception.calls.size());
+        assertEquals("end handleException", exception.calls.get(1));
+        assertTrue(begin.calls.isEmpty());
+        assertTrue(end.calls.isEmpty());
+    }
+
+    @Test
+    public void unboundMethodsAreIgnored() {
+        Recorder begin = new Recorder("handleBegin");
+        MethodDispatcher methodDispatcher = new MethodDispatcher().bind(REQUEST, SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleBegin", begin);
+
+        assertEquals(-1, methodDispatcher.getHandlerId("handler"));
+        assertEquals(-1, methodDispatcher.getHandlerId(null));
+        assertNull(methodDispatcher.begin(this, REQUEST, "handler", new Object[0]));
+        methodDispatcher.end(null, this, REQUEST, "handler", new Object[0], null, null);
+        assertTrue(begin.calls.isEmpty());
+    }
+
+    @Test
+    public void endRunsEvenWhenBeginReturnedNull() {
+        final List<Object> endStates = new ArrayList<>();
+        MethodDispatcher methodDispatcher = new MethodDispatcher().bind(REQUEST, SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleEnd", new MethodDispatcher.Handler<Object>() {
+            @Override
+            public void end( Object state, Object objectIntercepted, String className, Object[] params, Throwable exception, Object returnVal ) {
+                endStates.add(state == null ? "null" : state);
+            }
+        });
+
+        Object state = methodDispatcher.begin(this, REQUEST, "handleEnd", new Object[0]);
+        methodDispatcher.end(state, this, REQUEST, "handleEnd", new Object[0], null, null);
+
+        assertNull(state);
+        assertEquals(1, endStates.size());
+    }
+
+    @Test
+    public void methodNamesThatAreNotTheBoundInstanceStillResolve() {
+        Recorder end = new Recorder("handleEnd");
+        MethodDispatcher methodDispatcher = new MethodDispatcher().bind(REQUEST, SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleEnd", end);
+        String methodName = new String("handleEnd"); //what an agent that doesn't pass the rule's constant would hand us
+
+        assertEquals(methodDispatcher.getHandlerId("handleEnd"), methodDispatcher.getHandlerId(methodName));
+        assertEquals("handleEnd", methodDispatcher.begin(this, REQUEST, methodName, new Object[0]));
+    }
+
+    @Test
+    public void everyNameResolvesWithManyHandlersBound() {
+        MethodDispatcher methodDispatcher = new MethodDispatcher();
+        List<Recorder> recorders = new ArrayList<>();
+        for( int i=0; i< 100; i++ ) { //enough to grow the slot table several times and force collisions
+            Recorder recorder = new Recorder("method"+ i);
+            recorders.add(recorder);
+            methodDispatcher.bind("com.example.Target", SDKClassMatchType.MATCHES_CLASS, recorder.name, recorder);
+        }
+        for( int i=0; i< 100; i++ ) {
+            assertEquals(i, methodDispatcher.getHandlerId("method"+ i));
+            assertEquals("method"+ i, methodDispatcher.begin(this, "com.example.Target", "method"+ i, new Object[0]));
+        }
+        assertEquals(-1, methodDispatcher.getHandlerId("method100"));
+        assertEquals(100, methodDispatcher.getRules().size());
+    }
+
+    @Test
+    public void theSameHandlerMayBeBoundUnderSeveralRules() {
+        Recorder handleContext = new Recorder("handleContext");
+        MethodDispatcher methodDispatcher = new MethodDispatcher();
+        for( SDKClassMatchType classMatchType : new SDKClassMatchType[]{ SDKClassMatchType.MATCHES_CLASS, SDKClassMatchType.INHERITS_FROM_CLASS } )
+            methodDispatcher.bind("io.vertx.ext.web.impl.RouteImpl", classMatchType, "handleContext", handleContext);
+
+        assertEquals(2, methodDispatcher.getRules().size());
+        assertEquals(0, methodDispatcher.getHandlerId("handleContext"));
+        assertSame(SDKStringMatchType.EQUALS, methodDispatcher.getRules().get(1).getMethodStringMatchType());
+    }
+
+    @Test
+    public void aMethodCanNotBeBoundToTwoHandlers() {
+        MethodDispatcher methodDispatcher = new MethodDispatcher().bind(REQUEST, SDKClassMatchType.IMPLEMENTS_INTERFACE, "handleEnd", new Recorder("first"));
+        try {
+            methodDispatcher.bind(REQUEST, SDKClassMatchType.INHERITS_FROM_CLASS, "handleEnd", new Recorder("second"));
+            fail("a second handler for handleEnd was accepted");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(1, methodDispatcher.getRules().size());
+        }
+    }
+
+    @Test
+    public void rulesMustMatchTheMethodNameExactly() {
+        Rule regexRule = new Rule.Builder(REQUEST)
+                .classMatchType(SDKClassMatchType.IMPLEMENTS_INTERFACE)
+                .methodMatchString("handle.*")
+                .methodStringMatchType(SDKStringMatchType.REGEX)
+                .build();
+        try {
+            new MethodDispatcher().bind(regexRule, new Recorder("handle"));
+            fail("a regex method rule was accepted");
+        } catch (IllegalArgumentException expected) {
+            //a regex can't be a dispatch key
+        }
+    }
+}
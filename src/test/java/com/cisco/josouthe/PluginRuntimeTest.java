@@ -0,0 +1,145 @@
+package com.cisco.josouthe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/*
+Plugin startup against the FakeAgent's temp plugin directory, from a config file with only the startup settings in it
+    PluginRuntime.reset() drops the runtime every earlier test shared, each test builds every interceptor the way the agent loads
+        them and then drives the runtime's Scheduler tasks, saveIfNeeded() and checkForConfigChange(), itself
+    the runtime and file are put back the way they were after each test, interceptors built later get a fresh runtime
+ */
+public class PluginRuntimeTest {
+    private File configFile;
+
+    @Before
+    public void setUp() {
+        FakeAgent.install().reset();
+        configFile = new File(FakeAgent.getPluginDirectory(), PluginRuntime.PLUGIN_PROPERTIES_FILE_NAME);
+        writeStartupConfig();
+        PluginRuntime.reset();
+    }
+
+    @After
+    public void tearDown() {
+        writeStartupConfig();
+        PluginRuntime.reset();
+    }
+
+    @Test
+    public void startupReadsTheFileOnceAndWritesTheDefaultsOnce() throws IOException {
+        long start = System.nanoTime();
+        AsyncContextInterceptor asyncContext = new AsyncContextInterceptor(); //reads the file in initializeRules(), before the runtime exists
+        VertexHTTP_ver363_Interceptor vertx = new VertexHTTP_ver363_Interceptor();
+        VertxRouteNamingInterceptor routeNaming = new VertxRouteNamingInterceptor();
+        NiSourceHTTPRequestInterceptor restHandler = new NiSourceHTTPRequestInterceptor();
+        NiSourceApiClientExitCallInterceptor apiClient = new NiSourceApiClientExitCallInterceptor();
+        long elapsedMS = (System.nanoTime() - start) / 1000000L;
+
+        PluginRuntime runtime = asyncContext.pluginRuntime;
+        for( MyBaseInterceptor interceptor : new MyBaseInterceptor[]{ vertx, routeNaming, restHandler, apiClient } ) assertSame(runtime, interceptor.pluginRuntime);
+        assertEquals("config file reads", 1, runtime.getConfigReadCount());
+        assertEquals("config file writes before the save task ran", 0, runtime.getConfigWriteCount());
+        assertTrue("startup time "+ runtime.getStartupTimeMS(), runtime.getStartupTimeMS() >= 0 && runtime.getStartupTimeMS() <= elapsedMS);
+        assertTrue(runtime.getConfig().getBoolean("asyncContextPropagation", false));
+
+        runtime.saveIfNeeded();
+        runtime.saveIfNeeded();
+        runtime.checkForConfigChange(); //our own write is not a change
+        assertEquals("config file writes", 1, runtime.getConfigWriteCount());
+        assertEquals("config file reads", 1, runtime.getConfigReadCount());
+
+        Properties written = readConfigFile();
+        for( String[] property : FakeAgent.STARTUP_CONFIG ) assertEquals(property[1], written.getProperty(property[0]));
+        for( String name : new String[]{ ExitCallTracker.EXIT_CALL_TIMEOUT_PROPERTY, BackendDescriptorCache.BACKEND_ALIASES_PROPERTY, "vertxServletContextHeaders", "maxCustomMetricNames" } )
+            assertNotNull(name +" missing from "+ written.stringPropertyNames(), written.getProperty(name));
+    }
+
+    @Test
+    public void aFileWithEveryDefaultIsNeverWritten() {
+        new VertexHTTP_ver363_Interceptor().pluginRuntime.saveIfNeeded();
+        PluginRuntime.reset();
+
+        VertexHTTP_ver363_Interceptor vertx = new VertexHTTP_ver363_Interceptor();
+        vertx.pluginRuntime.saveIfNeeded();
+        assertEquals(1, vertx.pluginRuntime.getConfigReadCount());
+        assertEquals(0, vertx.pluginRuntime.getConfigWriteCount());
+    }
+
+    @Test
+    public void aChangedFileIsReadAgainAndKeepsTheDefaults() {
+        VertexHTTP_ver363_Interceptor vertx = new VertexHTTP_ver363_Interceptor();
+        PluginRuntime runtime = vertx.pluginRuntime;
+        String defaultTimeout = runtime.getConfig().getString(ExitCallTracker.EXIT_CALL_TIMEOUT_PROPERTY, null);
+
+        Properties changed = startupConfig();
+        changed.setProperty(SamplingEngine.SAMPLING_RATE_PROPERTY, "50");
+        FakeAgent.writeConfig(changed);
+        configFile.setLastModified(runtime.getConfig().getLastModified() + 2000);
+        runtime.checkForConfigChange();
+
+        assertEquals(2, runtime.getConfigReadCount());
+        assertEquals("50", runtime.getConfig().getString(SamplingEngine.SAMPLING_RATE_PROPERTY, null));
+        assertEquals(defaultTimeout, runtime.getConfig().getString(ExitCallTracker.EXIT_CALL_TIMEOUT_PROPERTY, null));
+    }
+
+    /*
+    defaults registered while the Scheduler thread reloads the file must end up in the live config, a race, so it can only fail
+    some of the time when the reload and the registration aren't under the same lock
+     */
+    @Test
+    public void defaultsRegisteredDuringAReloadAreKept() throws InterruptedException {
+        VertxRouteNamingInterceptor routeNaming = new VertxRouteNamingInterceptor();
+        PluginRuntime runtime = routeNaming.pluginRuntime;
+        AtomicBoolean registering = new AtomicBoolean(true);
+        Thread reloader = new Thread(() -> {
+            long lastModified = configFile.lastModified();
+            while( registering.get() ) {
+                configFile.setLastModified(lastModified += 1000);
+                runtime.checkForConfigChange();
+            }
+        }, "config-reloader");
+        reloader.start();
+        for( int i=0; i< 50; i++ ) {
+            Properties defaults = new Properties();
+            defaults.setProperty("registeredDuringReload"+ i, String.valueOf(i));
+            runtime.register(routeNaming, defaults);
+            assertEquals(String.valueOf(i), runtime.getConfig().getString("registeredDuringReload"+ i, null));
+        }
+        registering.set(false);
+        reloader.join();
+        for( int i=0; i< 50; i++ ) assertEquals(String.valueOf(i), runtime.getConfig().getString("registeredDuringReload"+ i, null));
+    }
+
+    private static Properties startupConfig() {
+        Properties properties = new Properties();
+        for( String[] property : FakeAgent.STARTUP_CONFIG ) properties.setProperty(property[0], property[1]);
+        return properties;
+    }
+
+    private void writeStartupConfig() {
+        FakeAgent.writeConfig(startupConfig());
+        configFile.setLastModified(configFile.lastModified() - 60000); //not the same ms as anything a test writes next
+    }
+
+    private Properties readConfigFile() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(configFile)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,210 @@
+package com.cisco.josouthe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/*
+Soak of both registries under concurrent track/lookup/take with their own Scheduler wheel expiring what owners abandon
+    every BT a worker starts must be ended exactly once, by its owner's take() or by the registry abandoning it, never both and
+        never neither, and the registry must be empty once the workers stop and the wheel or sweep has caught up
+    some entries are abandoned, some re-tracked under the same key while in flight, some held until around ageToDiscard so the
+        owner's take() races the wheel's remove(), and every lookup also touches a key another worker may be taking
+    -DregistryStress.operations=N per worker for a longer soak
+ */
+public class RegistryStressTest {
+    private static final long TICK_TIME_MS = 10;
+    private static final long AGE_TO_DISCARD_MS = 200;
+    private static final int OPERATIONS = Integer.getInteger("registryStress.operations", 50000);
+    private static final int WORKERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int CAPACITY = 1 << 22;
+    private static final long SETTLE_TIMEOUT_MS = 20000;
+
+    private static Scheduler scheduler;
+    private FakeAgent agent;
+    private final LongAdder started = new LongAdder();
+    private final LongAdder ended = new LongAdder();
+    private final AtomicInteger endedTwice = new AtomicInteger();
+    private final LongAdder abandoned = new LongAdder();
+    private final LongAdder displaced = new LongAdder();
+    private final AtomicReferenceArray<Object> recentKeys = new AtomicReferenceArray<>(1024);
+
+    /*
+    counts every end() across all workers and the wheel
+     */
+    private class CountingTransaction extends FakeTransaction {
+        CountingTransaction( long id ) {
+            super(agent, "stress-"+ id, "BT-stress", null);
+            started.increment();
+        }
+
+        @Override
+        public void end() {
+            super.end();
+            ended.increment();
+            if( getEndCount() > 1 ) endedTwice.incrementAndGet();
+        }
+    }
+
+    @BeforeClass
+    public static void startWheel() {
+        scheduler = new Scheduler(TICK_TIME_MS);
+        scheduler.ageToDiscard = AGE_TO_DISCARD_MS;
+        scheduler.start();
+    }
+
+    @Before
+    public void setUp() {
+        agent = FakeAgent.install();
+        agent.reset();
+        agent.setRecording(false);
+    }
+
+    @After
+    public void tearDown() {
+        agent.setRecording(true);
+    }
+
+    @Test
+    public void strongRegistryEndsEveryTransactionExactlyOnce() throws Exception {
+        StripedTransactionRegistry registry = new StripedTransactionRegistry(CAPACITY, scheduler);
+        soak(registry);
+        settle(registry, null);
+        check(registry);
+    }
+
+    @Test
+    public void weakRegistryEndsEveryTransactionExactlyOnce() throws Exception {
+        WeakTransactionRegistry registry = new WeakTransactionRegistry(CAPACITY, scheduler);
+        soak(registry);
+        settle(registry, registry);
+        check(registry);
+    }
+
+    @Test
+    public void displacedEntryEndsItsTransaction() {
+        StripedTransactionRegistry registry = new StripedTransactionRegistry(CAPACITY, scheduler);
+        Object key = new Object();
+        CountingTransaction first = new CountingTransaction(1), second = new CountingTransaction(2);
+        TransactionDictionary firstDictionary = new TransactionDictionary(first, key);
+        assertTrue(registry.track(key, firstDictionary));
+        assertTrue(registry.track(key, new TransactionDictionary(second, key)));
+        assertEquals(1, first.getEndCount());
+        assertTrue(first.isError());
+        assertTrue(firstDictionary.isFinished());
+        assertEquals(1, registry.getDisplacedCount());
+        assertEquals(1, registry.getAbandonedCount());
+        assertSame(second, registry.take(key).getTransaction());
+        assertEquals(0, second.getEndCount());
+        assertNull(registry.take(key));
+    }
+
+    private void soak( TransactionRegistry registry ) throws Exception {
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for( int w=0; w< WORKERS; w++ ) {
+            final long idBase = (long) w * OPERATIONS * 2;
+            Thread worker = new Thread(() -> {
+                try {
+                    go.await();
+                    work(registry, idBase);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }, "registry-stress-"+ w);
+            workers.add(worker);
+            worker.start();
+        }
+        go.countDown();
+        for( Thread worker : workers ) worker.join();
+        if( failure.get() != null ) throw new AssertionError("worker failed", failure.get());
+    }
+
+    private void work( TransactionRegistry registry, long idBase ) throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ArrayDeque<Object[]> held = new ArrayDeque<>(); //{ key, nanos when to take it }
+        long id = idBase;
+        for( int i=0; i< OPERATIONS; i++ ) {
+            Object key = new Object();
+            TransactionDictionary transactionDictionary = new TransactionDictionary(new CountingTransaction(id++), key);
+            if( !registry.track(key, transactionDictionary) ) throw new AssertionError("rejected below capacity");
+            recentKeys.set(random.nextInt(recentKeys.length()), key);
+            TransactionDictionary found = registry.lookup(key);
+            if( found != null && found != transactionDictionary ) throw new AssertionError("lookup returned another key's entry");
+            registry.lookup(recentKeys.get(random.nextInt(recentKeys.length()))); //someone else's, maybe being taken right now
+
+            switch (i & 63) {
+                case 0: //the request never completes, only the wheel or the weak registry can end it
+                    abandoned.increment();
+                    break;
+                case 1: //tracked again before it completed
+                    displaced.increment();
+                    registry.track(key, new TransactionDictionary(new CountingTransaction(id++), key));
+                    finish(registry, key);
+                    break;
+                case 2: //taken right around the time the wheel would expire it
+                    held.add(new Object[]{ key, System.nanoTime() + (AGE_TO_DISCARD_MS - TICK_TIME_MS * 2 + random.nextLong(TICK_TIME_MS * 4)) * 1000000L });
+                    break;
+                default:
+                    finish(registry, key);
+            }
+            while( !held.isEmpty() && System.nanoTime() >= (Long) held.peek()[1] ) finish(registry, held.poll()[0]);
+        }
+        while( !held.isEmpty() ) {
+            long wait = ((Long) held.peek()[1] - System.nanoTime()) / 1000000L;
+            if( wait > 0 ) Thread.sleep(wait);
+            finish(registry, held.poll()[0]);
+        }
+    }
+
+    /*
+    what an interceptor does with an entry it owns, if the wheel got there first take() finds nothing and the BT is already ended
+     */
+    private static void finish( TransactionRegistry registry, Object key ) {
+        TransactionDictionary transactionDictionary = registry.take(key);
+        if( transactionDictionary == null ) return;
+        transactionDictionary.getTransaction().end();
+        transactionDictionary.finish();
+    }
+
+    private void settle( TransactionRegistry registry, WeakTransactionRegistry weakRegistry ) throws InterruptedException {
+        for( int i=0; i< recentKeys.length(); i++ ) recentKeys.set(i, null);
+        long deadline = System.nanoTime() + SETTLE_TIMEOUT_MS * 1000000L;
+        while( (registry.size() > 0 || ended.sum() < started.sum()) && System.nanoTime() < deadline ) {
+            if( weakRegistry != null ) {
+                System.gc();
+                weakRegistry.sweep(); //the scheduler's own sweep only runs every 30s
+            }
+            Thread.sleep(TICK_TIME_MS * 5);
+        }
+    }
+
+    private void check( TransactionRegistry registry ) {
+        assertEquals("entries left in the registry", 0, registry.size());
+        assertEquals("transactions ended more than once", 0, endedTwice.get());
+        assertEquals("transactions never ended", started.sum(), ended.sum());
+        assertEquals(0, registry.getRejectedCount());
+        assertEquals(displaced.sum(), registry.getDisplacedCount());
+        assertTrue("abandoned "+ registry.getAbandonedCount() +" of at least "+ (abandoned.sum() + displaced.sum()),
+                registry.getAbandonedCount() >= abandoned.sum() + displaced.sum());
+        assertEquals(0, scheduler.getFailedTicks());
+        assertEquals(0, scheduler.getFailedExpiries());
+    }
+}
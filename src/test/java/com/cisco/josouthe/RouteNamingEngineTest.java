@@ -0,0 +1,59 @@
+package com.cisco.josouthe;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/*
+Route path caching on an engine of its own, not the shared instance the interceptors use
+    a route's path is resolved once, until MAX_ROUTES routes are cached, routes past that are resolved on every call and not kept
+ */
+public class RouteNamingEngineTest {
+    private static final int MAX_ROUTES = 1000;
+
+    private RouteNamingEngine engine;
+    private final AtomicInteger resolved = new AtomicInteger();
+    private final RouteNamingEngine.PathResolver resolver = route -> {
+        resolved.incrementAndGet();
+        return route.toString();
+    };
+
+    @Before
+    public void setUp() {
+        engine = new RouteNamingEngine();
+    }
+
+    @Test
+    public void aRoutesPathIsResolvedOnce() {
+        Object route = "/customers/:id";
+        assertEquals("/customers/:id", engine.getRoutePath(route, resolver));
+        assertEquals("/customers/:id", engine.getRoutePath(route, resolver));
+        assertEquals(1, resolved.get());
+
+        Object catchAll = new Object();
+        assertNull(engine.getRoutePath(catchAll, r -> null));
+        assertNull(engine.getRoutePath(catchAll, resolver));
+        assertEquals("a route without a path is cached too", 1, resolved.get());
+        assertEquals(2, engine.size());
+    }
+
+    @Test
+    public void routesPastTheLimitAreNotKept() {
+        Object[] routes = new Object[MAX_ROUTES];
+        for( int i=0; i< MAX_ROUTES; i++ ) engine.getRoutePath(routes[i] = "/customers/"+ i, resolver);
+        assertEquals(MAX_ROUTES, engine.size());
+
+        Object perRequest = "/orders/:id";
+        resolved.set(0);
+        for( int i=0; i< 3; i++ ) assertEquals("/orders/:id", engine.getRoutePath(perRequest, resolver));
+        assertEquals(3, resolved.get());
+        assertEquals(MAX_ROUTES, engine.size());
+
+        engine.getRoutePath(routes[0], resolver);
+        assertEquals("routes cached before the limit stay cached", 3, resolved.get());
+    }
+}
@@ -0,0 +1,142 @@
+package com.cisco.josouthe;
+
+import com.appdynamics.agent.api.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+What one pass of the cleaner costs against the number of requests it has to deal with, the full scan it replaced against a wheel tick
+    fullScanSweep is the old Scheduler.run() loop over a map of inFlight live requests, it reads every one on every pass
+    the wheel benchmarks time only Scheduler.tick() on a wheel that is never started, driven one tick at a time on a simulated
+        clock, the tracking for the next tick happens in an untimed invocation setup
+        wheelTickAbandoned, inFlight requests that never finish, coming due evenly over ageToDiscard, each tick expires the
+            ones due and as many new ones are tracked, the worst case
+        wheelTickCompleted, inFlight requests arrive and finish during every tick, the gateway's normal case, the wheel only
+            drops copies it finds finished
+    mvn -P benchmarks verify -Dbenchmarks=SchedulerBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+    private static final long TICK_TIME_MS = Scheduler.DEFAULT_TICK_TIME_MS;
+    private static final long AGE_TO_DISCARD_MS = Scheduler.DEFAULT_AGE_TO_DISCARD_MS;
+    private static final int TICKS_PER_AGE = (int) (AGE_TO_DISCARD_MS / TICK_TIME_MS);
+
+    public static abstract class Requests {
+        @Param({ "1000", "10000", "100000", "500000" })
+        int inFlight;
+    }
+
+    @State(Scope.Thread)
+    public static class ScannedMap extends Requests {
+        ConcurrentHashMap<Object, TransactionDictionary> map;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            map = new ConcurrentHashMap<>();
+            for( int i=0; i< inFlight; i++ ) {
+                Object key = new Object();
+                map.put(key, new TransactionDictionary((Transaction) null, key));
+            }
+        }
+    }
+
+    /*
+    nothing else moves the clock in the benchmark's JVM, so every touch time is startTime and the simulated now decides what is due,
+    timeouts end 1ms before a tick so each entry is due in exactly one tick
+     */
+    public static abstract class Wheel extends Requests {
+        Scheduler scheduler;
+        StripedTransactionRegistry registry;
+        long startTime, now;
+
+        void startWheel() {
+            scheduler = new Scheduler(TICK_TIME_MS);
+            startTime = now = MonotonicClock.now();
+            registry = new StripedTransactionRegistry(inFlight *4, scheduler);
+        }
+
+        Object track( long timeoutMS ) {
+            Object key = new Object();
+            TransactionDictionary transactionDictionary = new TransactionDictionary((Transaction) null, key);
+            transactionDictionary.setTimeout(timeoutMS, null);
+            registry.track(key, transactionDictionary);
+            return key;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AbandonedRequests extends Wheel {
+        @Setup(Level.Trial)
+        public void setUp() {
+            startWheel();
+            for( int i=0; i< inFlight; i++ ) track(TICK_TIME_MS * (1 + i % TICKS_PER_AGE) -1);
+        }
+
+        @Setup(Level.Invocation)
+        public void replaceExpired() {
+            for( int i=registry.size(); i< inFlight; i++ ) track(now - startTime + AGE_TO_DISCARD_MS -1);
+            now += TICK_TIME_MS;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CompletedRequests extends Wheel {
+        Object[] keys;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            startWheel();
+            keys = new Object[inFlight];
+        }
+
+        @Setup(Level.Invocation)
+        public void arriveAndFinish() {
+            for( int i=0; i< inFlight; i++ ) keys[i] = track(now - startTime + AGE_TO_DISCARD_MS);
+            for( int i=0; i< inFlight; i++ ) registry.finish(keys[i]);
+            now += TICK_TIME_MS;
+        }
+    }
+
+    @Benchmark
+    public long fullScanSweep( ScannedMap scannedMap ) {
+        long now = new Date().getTime();
+        long numRemoved = 0;
+        for( TransactionDictionary transactionDictionary : scannedMap.map.values() ) {
+            if( transactionDictionary.isFinished() || now > (transactionDictionary.getLastTouchTime() + AGE_TO_DISCARD_MS) ) {
+                numRemoved++;
+                scannedMap.map.remove( transactionDictionary.futureTask );
+            }
+        }
+        return numRemoved;
+    }
+
+    @Benchmark
+    public long wheelTickAbandoned( AbandonedRequests abandonedRequests ) {
+        abandonedRequests.scheduler.tick(abandonedRequests.now);
+        return abandonedRequests.registry.getAbandonedCount();
+    }
+
+    @Benchmark
+    public long wheelTickCompleted( CompletedRequests completedRequests ) {
+        completedRequests.scheduler.tick(completedRequests.now);
+        return completedRequests.scheduler.getFailedTicks();
+    }
+}
@@ -0,0 +1,98 @@
+package com.cisco.josouthe;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+
+import static org.junit.Assert.assertTrue;
+
+/*
+bytes allocated by this thread across a million touches of a dictionary, as the JVM counts them, HotSpot's
+com.sun.management.ThreadMXBean, the test passes without checking anything on a JVM that doesn't count
+    the same loop over the Date and Long touch the dictionary used to have shows the counting works
+ */
+public class TransactionDictionaryAllocationTest {
+    private static final int CALLS = 1000000;
+    private static final long SLACK_BYTES = 4096; //the counter itself, and whatever the JIT does the first time through
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+    private FakeTransaction transaction;
+
+    /*
+    TransactionDictionary.update() before the monotonic clock
+     */
+    private static class DateTouched {
+        private Long lastTouchTime = null;
+
+        void update() {
+            lastTouchTime = new Date().getTime();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if( bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported() ) {
+            threadMXBean = (com.sun.management.ThreadMXBean) bean;
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        transaction = FakeAgent.install().startTransaction("BT-allocation");
+        MonotonicClock.tick();
+    }
+
+    @Test
+    public void touchingADictionaryAllocatesNothing() {
+        if( threadMXBean == null ) return;
+        TransactionDictionary transactionDictionary = new TransactionDictionary(transaction, new Object());
+        touch(transactionDictionary); //warm up
+        long allocated = allocatedBytes();
+        touch(transactionDictionary);
+        allocated = allocatedBytes() - allocated;
+        assertTrue(allocated +" bytes for "+ CALLS +" touches", allocated < SLACK_BYTES);
+    }
+
+    @Test
+    public void lookingUpATrackedDictionaryAllocatesNothing() {
+        if( threadMXBean == null ) return;
+        StripedTransactionRegistry registry = new StripedTransactionRegistry(1024, new Scheduler(Scheduler.DEFAULT_TICK_TIME_MS));
+        Object request = new Object();
+        registry.track(request, new TransactionDictionary(transaction, request));
+        lookup(registry, request);
+        long allocated = allocatedBytes();
+        lookup(registry, request);
+        allocated = allocatedBytes() - allocated;
+        assertTrue(allocated +" bytes for "+ CALLS +" lookups", allocated < SLACK_BYTES);
+    }
+
+    @Test
+    public void theDateTouchItReplacedAllocatesOnEveryCall() {
+        if( threadMXBean == null ) return;
+        DateTouched dateTouched = new DateTouched();
+        for( int i=0; i< CALLS; i++ ) dateTouched.update();
+        long allocated = allocatedBytes();
+        for( int i=0; i< CALLS; i++ ) dateTouched.update();
+        allocated = allocatedBytes() - allocated;
+        assertTrue(allocated +" bytes for "+ CALLS +" touches", allocated >= 16L * CALLS); //at least the Long
+    }
+
+    private void touch( TransactionDictionary transactionDictionary ) {
+        for( int i=0; i< CALLS; i++ ) {
+            transactionDictionary.update();
+            if( transactionDictionary.getTransaction() != transaction ) throw new AssertionError("lost the transaction");
+            transactionDictionary.getExitCall();
+            transactionDictionary.setTransaction(transaction);
+            if( transactionDictionary.isFinished() ) throw new AssertionError("finished");
+        }
+    }
+
+    private void lookup( StripedTransactionRegistry registry, Object request ) {
+        for( int i=0; i< CALLS; i++ )
+            if( registry.lookup(request) == null ) throw new AssertionError("lost the request");
+    }
+
+    private long allocatedBytes() {
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,110 @@
+package com.cisco.josouthe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+/*
+UrlNormalizer against what it replaced, the two java.net.URI getUrlWithoutParameters and the String.format url in buildServletContext
+    templatePath is what a cache miss costs, normalizePath what the gateway pays for a path it has seen before
+    mvn -P benchmarks verify -Dbenchmarks=UrlNormalizerBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UrlNormalizerBenchmark {
+    private static final int MIX = 8; //power of two
+    private static final String[] URL_MIX = {
+            "http://billing.svc.cluster.local:8080/api/v1/accounts/1042?expand=usage",
+            "http://orders-7d9f8c-abcde.svc.cluster.local/api/orders?customer=1042&page=2&size=50",
+            "https://payments.example.com/v2/charges",
+            "http://billing.svc.cluster.local:8080/api/v1/usage/556677",
+            "http://gateway:8080/customers/1042/orders?page=2&size=50",
+            "http://gateway:8080/health",
+            "http://gateway:8080/orders/0f8fad5b-d9cb-469f-a165-70867728950e",
+            "http://gateway:8080/accounts/556677/usage?from=2021-01-01&to=2021-02-01",
+    };
+    private static final String[] PATH_MIX = {
+            "/customers/1042", "/customers/1042/orders?page=2&size=50", "/customers/77/payments", "/health",
+            "/orders/0f8fad5b-d9cb-469f-a165-70867728950e", "/customers/3/address", "/accounts/556677/usage?from=2021-01-01", "/customers/98765",
+    };
+
+    UrlNormalizer urlNormalizer;
+    String[] strippedPaths;
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        urlNormalizer = new UrlNormalizer(4096);
+        strippedPaths = new String[MIX];
+        for( int i=0; i< MIX; i++ ) {
+            strippedPaths[i] = UrlNormalizer.stripQuery(PATH_MIX[i]);
+            urlNormalizer.normalizePath(PATH_MIX[i]);
+        }
+    }
+
+    private int nextIndex() {
+        return next = (next +1) & (MIX -1);
+    }
+
+    @Benchmark
+    public String stripQuery() {
+        return UrlNormalizer.stripQuery(URL_MIX[nextIndex()]);
+    }
+
+    @Benchmark
+    public String stripQueryWithUri() {
+        return getUrlWithoutParameters(URL_MIX[nextIndex()]);
+    }
+
+    @Benchmark
+    public String buildUrl() {
+        return UrlNormalizer.buildUrl("http", "gateway:8080", strippedPaths[nextIndex()]);
+    }
+
+    @Benchmark
+    public String buildUrlWithFormat() {
+        return String.format("%s://%s/%s", "http", "gateway:8080", strippedPaths[nextIndex()]);
+    }
+
+    @Benchmark
+    public String normalizePathCached() {
+        return urlNormalizer.normalizePath(PATH_MIX[nextIndex()]);
+    }
+
+    @Benchmark
+    public String templatePath() {
+        return UrlNormalizer.templatePath(strippedPaths[nextIndex()]);
+    }
+
+    /*
+    MyBaseInterceptor.getUrlWithoutParameters before UrlNormalizer
+     */
+    private static String getUrlWithoutParameters( String url ) {
+        try {
+            URI uri = new URI(url);
+            return new URI(uri.getScheme(),
+                    uri.getAuthority(),
+                    uri.getPath(),
+                    null, // Ignore the query part of the input url
+                    uri.getFragment()).toString();
+        } catch (URISyntaxException e) {
+            return url; //just give back the original input on error
+        }
+    }
+}
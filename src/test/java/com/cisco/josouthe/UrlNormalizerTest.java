@@ -0,0 +1,127 @@
+package com.cisco.josouthe;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/*
+the corpus is what the gateway's access logs throw at BT naming, raw path with query, and the path it must be named by
+ */
+public class UrlNormalizerTest {
+    private static final String[][] PATH_CORPUS = {
+            { "/customers/1042", "/customers/{id}" },
+            { "/customers/1042/orders?page=2&size=50", "/customers/{id}/orders" },
+            { "/customers/1042/", "/customers/{id}/" },
+            { "/accounts/556677/usage#top", "/accounts/{id}/usage" },
+            { "/accounts/556677/usage?from=2021-01-01&to=2021-02-01", "/accounts/{id}/usage" },
+            { "/orders/0f8fad5b-d9cb-469f-a165-70867728950e", "/orders/{uuid}" },
+            { "/orders/0F8FAD5B-D9CB-469F-A165-70867728950E/items/3", "/orders/{uuid}/items/{id}" },
+            { "/1/2/3", "/{id}/{id}/{id}" },
+            { "123", "{id}" },
+            { "//customers//7//orders", "//customers//{id}//orders" },
+            { "/files/%20/7", "/files/%20/{id}" },
+            { "/search?q=/customers/1", "/search" },
+            { "?only=query", "" },
+            { "/health", "/health" },
+            { "/", "/" },
+            { "", "" },
+            { "/v2/charges", "/v2/charges" },
+            { "/customers/12a", "/customers/12a" },
+            { "/customers/-1", "/customers/-1" },
+            { "/customers/1.5", "/customers/1.5" },
+            { "/customers/\u0661\u0662", "/customers/\u0661\u0662" }, //not ascii digits
+            { "/orders/0f8fad5b-d9cb-469f-a165-70867728950", "/orders/0f8fad5b-d9cb-469f-a165-70867728950" }, //35 chars
+            { "/orders/0f8fad5b-d9cb-469f-a165-70867728950e1", "/orders/0f8fad5b-d9cb-469f-a165-70867728950e1" }, //37 chars
+            { "/orders/0f8fad5bxd9cb-469f-a165-70867728950e", "/orders/0f8fad5bxd9cb-469f-a165-70867728950e" },
+            { "/orders/0f8fad5b-d9cb-469f-a165-70867728950g", "/orders/0f8fad5b-d9cb-469f-a165-70867728950g" },
+    };
+
+    @Test
+    public void normalizesTheCorpus() {
+        UrlNormalizer urlNormalizer = new UrlNormalizer(64);
+        List<String> mismatches = new ArrayList<>();
+        for( int pass=0; pass< 2; pass++ ) { //the second pass comes out of the cache
+            for( String[] entry : PATH_CORPUS ) {
+                String normalized = urlNormalizer.normalizePath(entry[0]);
+                if( !entry[1].equals(normalized) ) mismatches.add(String.format("pass %d: %s -> %s, expected %s", pass, entry[0], normalized, entry[1]));
+            }
+        }
+        assertTrue(mismatches.toString(), mismatches.isEmpty());
+    }
+
+    @Test
+    public void pathsThatNeedNothingAreHandedBackAsIs() {
+        for( String[] entry : PATH_CORPUS ) {
+            if( entry[0].equals(entry[1]) ) assertSame(entry[0], UrlNormalizer.templatePath(entry[0]));
+        }
+        String path = "/customers/list";
+        assertSame(path, UrlNormalizer.stripQuery(path));
+        assertSame(path, new UrlNormalizer(64).normalizePath(path));
+    }
+
+    @Test
+    public void stripQueryCutsAtTheFirstQueryOrFragment() {
+        assertEquals("http://billing.svc.cluster.local:8080/api/v1/accounts/1042", UrlNormalizer.stripQuery("http://billing.svc.cluster.local:8080/api/v1/accounts/1042?expand=usage&x=%3F"));
+        assertEquals("https://payments.example.com/v2/charges", UrlNormalizer.stripQuery("https://payments.example.com/v2/charges#receipt?id=1"));
+        assertEquals("http://gateway/", UrlNormalizer.stripQuery("http://gateway/?"));
+        assertEquals("", UrlNormalizer.stripQuery("#"));
+        assertNull(UrlNormalizer.stripQuery(null));
+    }
+
+    @Test
+    public void stripQueryOfUrlsJavaNetUriRejects() {
+        //the URI based version handed these back with their query still on
+        assertEquals("http://gateway/customers/{id}", UrlNormalizer.stripQuery("http://gateway/customers/{id}?filter=a b"));
+        assertEquals("http://gateway/search", UrlNormalizer.stripQuery("http://gateway/search?q=|pipe|"));
+    }
+
+    @Test
+    public void buildUrlPutsOneSlashBetweenHostAndPath() {
+        assertEquals("http://gateway:8080/customers/{id}", UrlNormalizer.buildUrl("http", "gateway:8080", "/customers/{id}"));
+        assertEquals("http://gateway:8080/customers", UrlNormalizer.buildUrl("http", "gateway:8080", "customers"));
+        assertEquals("https://gateway/", UrlNormalizer.buildUrl("https", "gateway", ""));
+        assertEquals("https://gateway/", UrlNormalizer.buildUrl("https", "gateway", "/"));
+    }
+
+    @Test
+    public void cachedPathsAreReturnedWithoutTemplatingAgain() {
+        UrlNormalizer urlNormalizer = new UrlNormalizer(64);
+        String first = urlNormalizer.normalizePath("/customers/1042/orders");
+        assertSame(first, urlNormalizer.normalizePath("/customers/1042/orders"));
+        assertSame(first, urlNormalizer.normalizePath(new String("/customers/1042/orders")));
+    }
+
+    @Test
+    public void leastRecentlyUsedPathsAreEvicted() {
+        UrlNormalizer urlNormalizer = new UrlNormalizer(16);
+        String evicted = urlNormalizer.normalizePath("/customers/1/orders");
+        String kept = urlNormalizer.normalizePath("/customers/2/orders");
+        for( int i=0; i< 100000; i++ ) { //far more than every stripe holds
+            urlNormalizer.normalizePath("/accounts/"+ i);
+            assertSame(kept, urlNormalizer.normalizePath("/customers/2/orders"));
+        }
+        String again = urlNormalizer.normalizePath("/customers/1/orders");
+        assertEquals(evicted, again);
+        assertNotSame(evicted, again);
+    }
+
+    @Test
+    public void veryLongPathsAreTemplatedButNotCached() {
+        UrlNormalizer urlNormalizer = new UrlNormalizer(64);
+        StringBuilder raw = new StringBuilder(), expected = new StringBuilder();
+        for( int i=0; i< 100; i++ ) {
+            raw.append("/segment/").append(i);
+            expected.append("/segment/{id}");
+        }
+        String first = urlNormalizer.normalizePath(raw +"?page=1");
+        assertEquals(expected.toString(), first);
+        assertNotSame(first, urlNormalizer.normalizePath(raw +"?page=1"));
+    }
+}
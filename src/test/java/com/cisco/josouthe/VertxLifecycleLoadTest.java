@@ -0,0 +1,181 @@
+package com.cisco.josouthe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+Sustained traffic through VertexHTTP_ver363_Interceptor's request lifecycle, the registry has to stay as big as the traffic in
+flight, not grow with the traffic served, and be back where it started once the traffic stops
+    each worker is an event loop with up to WINDOW requests open, every step it opens one, runs handleContent on one that is open and
+        completes one, with handleEnd, handleException then handleEnd, or handleException alone, the agent's order for a connection
+    a sampler reads the registry's size while the workers run, no sample may be above what the workers have open
+    every request is completed by its worker, so nothing is left for the cleaner wheel, each BT must be ended exactly once
+    -DvertxLoad.requests=N per worker for a longer run
+ */
+public class VertxLifecycleLoadTest {
+    private static final String REQUEST_CLASS = "io.vertx.core.http.impl.Http1xServerRequest";
+    private static final int REQUESTS = Integer.getInteger("vertxLoad.requests", 50000);
+    private static final int WORKERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int WINDOW = 64;
+    private static final int SLICES = 10;
+
+    private static VertexHTTP_ver363_Interceptor vertx;
+    private FakeAgent agent;
+    private TransactionRegistry registry;
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder(); //ended exactly once, checked by complete()
+    private final LongAdder samples = new LongAdder();
+    private final AtomicInteger[] maxSizePerSlice = new AtomicInteger[SLICES];
+
+    /*
+    one open request, the BT handleBegin started for it
+     */
+    private static class Open {
+        final FakeVertx.HttpServerRequest request;
+        final FakeTransaction transaction;
+
+        Open( FakeVertx.HttpServerRequest request, FakeTransaction transaction ) {
+            this.request = request;
+            this.transaction = transaction;
+        }
+    }
+
+    @BeforeClass
+    public static void createInterceptor() {
+        FakeAgent.install();
+        vertx = new VertexHTTP_ver363_Interceptor();
+    }
+
+    @Before
+    public void setUp() {
+        agent = FakeAgent.install();
+        agent.reset();
+        agent.setRecording(false);
+        registry = vertx.transactionRegistry;
+        for( int i=0; i< SLICES; i++ ) maxSizePerSlice[i] = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        agent.setRecording(true);
+    }
+
+    @Test
+    public void registryStaysFlatUnderSustainedTraffic() throws Exception {
+        int sizeBefore = registry.size();
+        long abandonedBefore = registry.getAbandonedCount(), rejectedBefore = registry.getRejectedCount(), displacedBefore = registry.getDisplacedCount();
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for( int w=0; w< WORKERS; w++ ) {
+            final int worker = w;
+            Thread thread = new Thread(() -> {
+                try {
+                    go.await();
+                    serve(worker);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }, "vert.x-eventloop-thread-"+ w);
+            workers.add(thread);
+            thread.start();
+        }
+        Thread sampler = new Thread(() -> sample(sizeBefore, failure), "registry-size-sampler");
+        sampler.setDaemon(true);
+        go.countDown();
+        sampler.start();
+        for( Thread thread : workers ) thread.join();
+        sampler.join();
+        if( failure.get() != null ) throw new AssertionError("load failed", failure.get());
+
+        long total = (long) WORKERS * REQUESTS;
+        StringBuilder profile = new StringBuilder();
+        for( AtomicInteger maxSize : maxSizePerSlice ) profile.append(' ').append(maxSize.get());
+        System.out.println(String.format("%d requests on %d event loops, up to %d open each, largest registry size per tenth of the run over %d samples:%s", total, WORKERS, WINDOW, samples.sum(), profile));
+
+        assertEquals(total, started.sum());
+        assertEquals(total, completed.sum());
+        assertTrue("the sampler never ran", samples.sum() > 0);
+        assertEquals("entries left in the registry", sizeBefore, registry.size());
+        assertTrue("handoffs left "+ agent.handoffs.size(), agent.handoffs.isEmpty());
+        assertEquals("requests left for the cleaner", abandonedBefore, registry.getAbandonedCount());
+        assertEquals(rejectedBefore, registry.getRejectedCount());
+        assertEquals(displacedBefore, registry.getDisplacedCount());
+        for( AtomicInteger maxSize : maxSizePerSlice ) assertTrue("registry grew to "+ maxSize.get(), maxSize.get() <= WORKERS * WINDOW);
+    }
+
+    private void serve( int worker ) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Open> open = new ArrayList<>(WINDOW);
+        int opened = 0;
+        while( opened < REQUESTS || !open.isEmpty() ) {
+            if( opened < REQUESTS && open.size() < WINDOW ) {
+                open.add(begin(new FakeVertx.HttpServerRequest("GET", "http://gateway:8080/customers/"+ worker +"-"+ opened +"/orders?page="+ (opened & 7))));
+                opened++;
+            }
+            if( open.isEmpty() ) continue;
+            Open content = open.get(random.nextInt(open.size()));
+            intercept(content.request, "handleContent");
+            if( open.size() == WINDOW || opened == REQUESTS ) complete(open.remove(random.nextInt(open.size())), random.nextInt(64));
+        }
+    }
+
+    private Open begin( FakeVertx.HttpServerRequest request ) {
+        if( agent.getTransaction() instanceof FakeTransaction ) throw new AssertionError("a BT was left on "+ Thread.currentThread().getName());
+        State state = (State) intercept(request, "handleBegin");
+        if( state == null ) throw new AssertionError("handleBegin did not track the request");
+        started.increment();
+        return new Open(request, (FakeTransaction) state.transaction);
+    }
+
+    private void complete( Open open, int outcome ) {
+        switch (outcome) {
+            case 0: //connection reset, vert.x only calls handleException
+                intercept(open.request, "handleException", new IOException("Connection reset by peer"));
+                break;
+            case 1: //both, handleEnd finds nothing
+                intercept(open.request, "handleException", new IOException("Connection reset by peer"));
+                intercept(open.request, "handleEnd");
+                break;
+            default:
+                intercept(open.request, "handleEnd");
+        }
+        if( open.transaction.getEndCount() != 1 ) throw new AssertionError(String.format("%s ended %d times", open.transaction, open.transaction.getEndCount()));
+        if( (outcome < 2) != open.transaction.isError() ) throw new AssertionError(String.format("%s error %b after outcome %d", open.transaction, open.transaction.isError(), outcome));
+        if( registry.lookup(open.request) != null ) throw new AssertionError(open.transaction +" still tracked");
+        completed.increment();
+    }
+
+    /*
+    the registry size as traffic goes by, the largest seen in each tenth of the run
+     */
+    private void sample( int sizeBefore, AtomicReference<Throwable> failure ) {
+        long total = (long) WORKERS * REQUESTS;
+        long done;
+        while( (done = completed.sum()) < total && failure.get() == null ) {
+            int slice = (int) Math.min(SLICES -1, done * SLICES / total);
+            maxSizePerSlice[slice].accumulateAndGet(registry.size() - sizeBefore, Math::max);
+            samples.increment();
+            Thread.yield();
+        }
+    }
+
+    private static Object intercept( FakeVertx.HttpServerRequest request, String methodName, Object... params ) {
+        return FakeAgent.intercept(vertx, request, REQUEST_CLASS, methodName, params);
+    }
+}
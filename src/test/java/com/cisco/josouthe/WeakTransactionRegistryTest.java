@@ -0,0 +1,191 @@
+package com.cisco.josouthe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+weak tracking mode against the default strong one
+    the registries get a Scheduler that is never started, so nothing expires behind the test's back and both are collectable after it
+    the footprint test tracks requests the gateway then drops, each carrying a buffer the way a vert.x request does, and compares the
+        heap still held once they are garbage, the strong registry pins every one until the wheel ages it out, the weak one none
+ */
+public class WeakTransactionRegistryTest {
+    private static final int CAPACITY = 1 << 16;
+    private static final int ORPHANS = 2048;
+    private static final int REQUEST_BYTES = 16 * 1024;
+
+    private FakeAgent agent;
+    private Scheduler scheduler;
+
+    /*
+    what an HttpServerRequest keeps alive, its buffers and headers
+     */
+    private static class Request {
+        final byte[] buffer = new byte[REQUEST_BYTES];
+    }
+
+    @Before
+    public void setUp() {
+        agent = FakeAgent.install();
+        agent.reset();
+        agent.setRecording(false);
+        scheduler = new Scheduler(Scheduler.DEFAULT_TICK_TIME_MS);
+    }
+
+    @After
+    public void tearDown() {
+        agent.setRecording(true);
+    }
+
+    @Test
+    public void orphanedRequestsOnlyStayOnTheHeapWithTheStrongRegistry() throws InterruptedException {
+        long baseline = usedHeapAfterGc();
+        StripedTransactionRegistry strongRegistry = new StripedTransactionRegistry(CAPACITY, scheduler);
+        List<FakeTransaction> strongTransactions = trackOrphans(strongRegistry);
+        long strongRetained = usedHeapAfterGc() - baseline;
+        assertEquals(ORPHANS, strongRegistry.size());
+        strongRegistry = null;
+        scheduler = new Scheduler(Scheduler.DEFAULT_TICK_TIME_MS); //drop the wheel holding the strong entries too
+
+        baseline = usedHeapAfterGc();
+        WeakTransactionRegistry weakRegistry = new WeakTransactionRegistry(CAPACITY, scheduler);
+        List<FakeTransaction> weakTransactions = trackOrphans(weakRegistry);
+        long weakRetained = reclaim(weakRegistry) - baseline;
+
+        long orphanBytes = (long) ORPHANS * REQUEST_BYTES;
+        System.out.println(String.format("%d orphaned requests of %d bytes, heap retained: strong %d bytes, weak %d bytes", ORPHANS, REQUEST_BYTES, strongRetained, weakRetained));
+        assertTrue("strong registry retained "+ strongRetained, strongRetained >= orphanBytes * 9 /10);
+        assertTrue("weak registry retained "+ weakRetained, weakRetained < orphanBytes /10);
+        assertEquals(0, weakRegistry.size());
+        assertEquals(ORPHANS, weakRegistry.getReclaimedCount());
+        for( FakeTransaction transaction : weakTransactions ) assertEquals(1, transaction.getEndCount());
+        for( FakeTransaction transaction : strongTransactions ) assertFalse(transaction.isEnded()); //still waiting on the wheel
+    }
+
+    @Test
+    public void collectedRequestEndsItsTransactionOnTheNextCall() throws InterruptedException {
+        WeakTransactionRegistry registry = new WeakTransactionRegistry(CAPACITY, scheduler);
+        FakeTransaction transaction = agent.startTransaction("BT-orphan");
+        registry.track(new Request(), new TransactionDictionary(transaction, null));
+        assertEquals(1, registry.size());
+
+        reclaim(registry);
+        assertEquals(0, registry.size());
+        assertEquals(1, transaction.getEndCount());
+        assertTrue(transaction.isError());
+        assertEquals(1, registry.getAbandonedCount());
+    }
+
+    @Test
+    public void takenEntriesAreNeverReclaimed() throws InterruptedException {
+        WeakTransactionRegistry registry = new WeakTransactionRegistry(CAPACITY, scheduler);
+        FakeTransaction transaction = agent.startTransaction("BT-finished");
+        Request request = new Request();
+        registry.track(request, new TransactionDictionary(transaction, request));
+        TransactionDictionary transactionDictionary = registry.take(request);
+        assertNotNull(transactionDictionary);
+        assertNull(transactionDictionary.futureTask); //the dictionary must not pin its own key
+        transactionDictionary.finish();
+        request = null;
+
+        reclaim(registry);
+        assertEquals(0, registry.getReclaimedCount());
+        assertEquals(0, transaction.getEndCount());
+    }
+
+    @Test
+    public void sweepAbandonsEntriesWhoseRequestStaysReachable() throws InterruptedException {
+        agent.setRecording(true);
+        scheduler.ageToDiscard = 50;
+        WeakTransactionRegistry registry = new WeakTransactionRegistry(CAPACITY, scheduler);
+        List<Request> handedOff = new ArrayList<>(); //e.g. held by an agent handoff, so never collected
+        List<FakeTransaction> transactions = new ArrayList<>();
+        MonotonicClock.tick();
+        for( int i=0; i< 16; i++ ) {
+            Request request = new Request();
+            handedOff.add(request);
+            transactions.add(agent.startTransaction("BT-pinned"));
+            registry.track(request, new TransactionDictionary(transactions.get(i), null));
+        }
+        Thread.sleep(scheduler.ageToDiscard *2);
+        MonotonicClock.tick();
+        registry.lookup(handedOff.get(0)); //touched, so it stays
+
+        registry.sweep();
+        assertEquals(1, registry.size());
+        assertEquals(15, registry.getAbandonedCount());
+        assertEquals(0, registry.getReclaimedCount());
+        assertFalse(transactions.get(0).isEnded());
+        for( int i=1; i< 16; i++ ) {
+            assertEquals(1, transactions.get(i).getEndCount());
+            assertEquals("BT abandoned, no activity for 50ms", transactions.get(i).getErrors().get(0));
+            assertNull(registry.lookup(handedOff.get(i)));
+        }
+    }
+
+    @Test
+    public void sweptEntriesMakeRoomForNewTransactions() throws InterruptedException {
+        scheduler.ageToDiscard = 50;
+        WeakTransactionRegistry registry = new WeakTransactionRegistry(1, scheduler); //one entry per stripe
+        List<Request> handedOff = new ArrayList<>();
+        MonotonicClock.tick();
+        int tracked = 0;
+        while( true ) {
+            Request request = new Request();
+            if( !registry.track(request, new TransactionDictionary(agent.startTransaction("BT-pinned"), null)) ) break;
+            handedOff.add(request);
+            tracked++;
+        }
+        assertEquals(1, registry.getRejectedCount());
+
+        Thread.sleep(scheduler.ageToDiscard *2);
+        MonotonicClock.tick();
+        registry.sweep();
+        assertEquals(0, registry.size());
+        assertEquals(tracked, registry.getAbandonedCount());
+        Request request = new Request();
+        assertTrue(registry.track(request, new TransactionDictionary(agent.startTransaction("BT-new"), null)));
+        assertNotNull(registry.lookup(request));
+    }
+
+    private List<FakeTransaction> trackOrphans( TransactionRegistry registry ) {
+        List<FakeTransaction> transactions = new ArrayList<>(ORPHANS);
+        for( int i=0; i< ORPHANS; i++ ) {
+            Request request = new Request();
+            FakeTransaction transaction = agent.startTransaction("BT-orphan");
+            transactions.add(transaction);
+            assertTrue(registry.track(request, new TransactionDictionary(transaction, request)));
+        }
+        return transactions;
+    }
+
+    /*
+    collect, then let the registry see its ReferenceQueue the way it does on the next track or take, returns the heap used after
+     */
+    private static long reclaim( WeakTransactionRegistry registry ) throws InterruptedException {
+        for( int i=0; i< 10 && registry.size() > 0; i++ ) {
+            usedHeapAfterGc();
+            registry.take(new Object());
+        }
+        return usedHeapAfterGc();
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for( int i=0; i< 3; i++ ) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,14 @@
+package com.singularity.ee.agent.appagent.api;
+
+import com.appdynamics.agent.api.bootstrap.IApiBootstrapFacade;
+import com.cisco.josouthe.FakeAgent;
+
+/*
+Test stand in for the agent side of the agent api, AppdynamicsAgent finds it with Class.forName and calls getInstance()
+ */
+public class ApiBootstrapFacade {
+
+    public static IApiBootstrapFacade getInstance() {
+        return FakeAgent.getInstance();
+    }
+}